@@ -2,25 +2,34 @@ package org.tinycloud.security;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.web.servlet.HandlerInterceptor;
 import org.tinycloud.security.config.GlobalConfig;
 import org.tinycloud.security.config.GlobalConfigUtils;
 import org.tinycloud.security.interceptor.AuthenticeInterceptor;
 import org.tinycloud.security.interceptor.PermissionInterceptor;
 import org.tinycloud.security.interfaces.PermissionInfoInterface;
+import org.tinycloud.security.interfaces.SessionEventListener;
 import org.tinycloud.security.provider.AuthProvider;
 import org.tinycloud.security.provider.JdbcAuthProvider;
+import org.tinycloud.security.provider.OffHeapAuthProvider;
 import org.tinycloud.security.provider.RedisAuthProvider;
 import org.tinycloud.security.provider.SingleAuthProvider;
 
+import java.util.stream.Collectors;
+
 /**
  * <p>
  * tiny-security 自动配置类
@@ -37,6 +46,14 @@ public class AuthAutoConfiguration {
     @Autowired
     private AuthProperties authProperties;
 
+    /**
+     * 注入全局时钟的生命周期（clock-type为cached时安装缓存时钟，容器关闭时停止并恢复系统时钟）
+     */
+    @Bean
+    public AuthClockLifecycle authClockLifecycle() {
+        return new AuthClockLifecycle(authProperties.getClockType(), authProperties.getClockPrecision());
+    }
+
 
     /**
      * 注入redisAuthProvider
@@ -44,14 +61,15 @@ public class AuthAutoConfiguration {
     @ConditionalOnMissingBean(AuthProvider.class)
     @ConditionalOnProperty(name = "tiny-security.store-type", havingValue = "redis")
     @Bean
-    public AuthProvider redisAuthProvider(StringRedisTemplate stringRedisTemplate) {
+    @DependsOn("authClockLifecycle")
+    public AuthProvider redisAuthProvider(StringRedisTemplate stringRedisTemplate, ObjectProvider<SessionEventListener> sessionEventListeners) {
         if (stringRedisTemplate == null) {
             logger.error("AuthAutoConfiguration: Bean StringRedisTemplate is null!");
             return null;
         }
         logger.info("RedisAuthProvider is running!");
-        this.setGlobalConfig(authProperties);
-        return new RedisAuthProvider(stringRedisTemplate);
+        setGlobalConfig(authProperties);
+        return new RedisAuthProvider(stringRedisTemplate, sessionEventListeners.orderedStream().collect(Collectors.toList()));
     }
 
     /**
@@ -60,13 +78,14 @@ public class AuthAutoConfiguration {
     @ConditionalOnMissingBean(AuthProvider.class)
     @ConditionalOnProperty(name = "tiny-security.store-type", havingValue = "jdbc")
     @Bean
+    @DependsOn("authClockLifecycle")
     public AuthProvider jdbcAuthProvider(JdbcTemplate jdbcTemplate) {
         if (jdbcTemplate == null) {
             logger.error("AuthAutoConfiguration: Bean JdbcTemplate is null!");
             return null;
         }
         logger.info("JdbcAuthProvider is running!");
-        this.setGlobalConfig(authProperties);
+        setGlobalConfig(authProperties);
         return new JdbcAuthProvider(jdbcTemplate);
     }
 
@@ -76,43 +95,66 @@ public class AuthAutoConfiguration {
     @ConditionalOnMissingBean(AuthProvider.class)
     @ConditionalOnProperty(name = "tiny-security.store-type", havingValue = "single", matchIfMissing = true)
     @Bean
+    @DependsOn("authClockLifecycle")
     public AuthProvider singleAuthProvider() {
         logger.info("SingleAuthProvider is running!");
-        this.setGlobalConfig(authProperties);
+        setGlobalConfig(authProperties);
         return new SingleAuthProvider();
     }
 
-
     /**
-     * 添加会话拦截器( 注入AuthStore（可能是redis的，也可能是jdbc的，根据配置来的）)
+     * 注入offHeapAuthProvider
      */
+    @ConditionalOnMissingBean(AuthProvider.class)
+    @ConditionalOnProperty(name = "tiny-security.store-type", havingValue = "offheap")
     @Bean
-    public AuthenticeInterceptor authenticeInterceptor(AuthProvider authProvider) {
-        if (authProvider != null) {
-            return new AuthenticeInterceptor(authProvider);
-        } else {
-            logger.error("AuthAutoConfiguration: Bean AuthProvider Not Defined!");
-            return null;
-        }
+    @DependsOn("authClockLifecycle")
+    public AuthProvider offHeapAuthProvider() {
+        logger.info("OffHeapAuthProvider is running!");
+        setGlobalConfig(authProperties);
+        return new OffHeapAuthProvider();
     }
 
 
     /**
-     * 添加权限拦截器（当存在bean PermissionInfoInterface时，这个配置才生效）
-     * 注入PermissionInfoInterface
+     * Servlet应用下的会话、权限拦截器（WebFlux应用中没有spring-webmvc，不能加载拦截器类）
      */
-    @Bean
-    @ConditionalOnBean(PermissionInfoInterface.class)
-    public PermissionInterceptor permissionInterceptor(PermissionInfoInterface permissionInfoInterface) {
-        if (permissionInfoInterface != null) {
-            return new PermissionInterceptor(permissionInfoInterface);
-        } else {
-            logger.error("AuthAutoConfiguration: Bean PermissionInfoInterface Not Defined!");
-            return null;
+    @Configuration
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @ConditionalOnClass(HandlerInterceptor.class)
+    static class ServletInterceptorConfiguration {
+
+        /**
+         * 添加会话拦截器( 注入AuthStore（可能是redis的，也可能是jdbc的，根据配置来的）)
+         */
+        @Bean
+        public AuthenticeInterceptor authenticeInterceptor(AuthProvider authProvider) {
+            if (authProvider != null) {
+                return new AuthenticeInterceptor(authProvider);
+            } else {
+                logger.error("AuthAutoConfiguration: Bean AuthProvider Not Defined!");
+                return null;
+            }
+        }
+
+
+        /**
+         * 添加权限拦截器（当存在bean PermissionInfoInterface时，这个配置才生效）
+         * 注入PermissionInfoInterface
+         */
+        @Bean
+        @ConditionalOnBean(PermissionInfoInterface.class)
+        public PermissionInterceptor permissionInterceptor(PermissionInfoInterface permissionInfoInterface) {
+            if (permissionInfoInterface != null) {
+                return new PermissionInterceptor(permissionInfoInterface);
+            } else {
+                logger.error("AuthAutoConfiguration: Bean PermissionInfoInterface Not Defined!");
+                return null;
+            }
         }
     }
 
-    private void setGlobalConfig(AuthProperties authProperties) {
+    static void setGlobalConfig(AuthProperties authProperties) {
         GlobalConfig globalConfig = new GlobalConfig();
         globalConfig.setStoreType(authProperties.getStoreType());
         globalConfig.setTableName(authProperties.getTableName());
@@ -120,6 +162,55 @@ public class AuthAutoConfiguration {
         globalConfig.setTokenName(authProperties.getTokenName());
         globalConfig.setTokenPrefix(authProperties.getTokenPrefix());
         globalConfig.setTokenStyle(authProperties.getTokenStyle());
+        globalConfig.setClockType(authProperties.getClockType());
+        globalConfig.setClockPrecision(authProperties.getClockPrecision());
+        globalConfig.setSingleWheelTick(authProperties.getSingleWheelTick());
+        globalConfig.setSingleWheelSize(authProperties.getSingleWheelSize());
+        globalConfig.setSingleSegments(authProperties.getSingleSegments());
+        globalConfig.setSingleSweeperThreads(authProperties.getSingleSweeperThreads());
+        globalConfig.setSingleMaxEntries(authProperties.getSingleMaxEntries());
+        globalConfig.setSingleEvictionPolicy(authProperties.getSingleEvictionPolicy());
+        globalConfig.setSingleMaxSessionsPerLogin(authProperties.getSingleMaxSessionsPerLogin());
+        globalConfig.setSinglePersistEnabled(authProperties.isSinglePersistEnabled());
+        globalConfig.setSinglePersistDir(authProperties.getSinglePersistDir());
+        globalConfig.setSingleFsyncInterval(authProperties.getSingleFsyncInterval());
+        globalConfig.setSingleSnapshotInterval(authProperties.getSingleSnapshotInterval());
+        globalConfig.setSingleReplicationPort(authProperties.getSingleReplicationPort());
+        globalConfig.setSingleReplicationPeers(authProperties.getSingleReplicationPeers());
+        globalConfig.setSingleReplicationBatchInterval(authProperties.getSingleReplicationBatchInterval());
+        globalConfig.setSingleReplicationBindAddress(authProperties.getSingleReplicationBindAddress());
+        globalConfig.setSingleReplicationSecret(authProperties.getSingleReplicationSecret());
+        globalConfig.setOffHeapSegments(authProperties.getOffHeapSegments());
+        globalConfig.setOffHeapInitialCapacity(authProperties.getOffHeapInitialCapacity());
+        globalConfig.setRedisStorageMode(authProperties.getRedisStorageMode());
+        globalConfig.setRedisNearCacheEnabled(authProperties.isRedisNearCacheEnabled());
+        globalConfig.setRedisNearCacheMaxSize(authProperties.getRedisNearCacheMaxSize());
+        globalConfig.setRedisNearCacheTtl(authProperties.getRedisNearCacheTtl());
+        globalConfig.setRedisNearCacheInvalidation(authProperties.getRedisNearCacheInvalidation());
+        globalConfig.setRedisClusterHashTag(authProperties.isRedisClusterHashTag());
+        globalConfig.setRedisSessionCodec(authProperties.getRedisSessionCodec());
+        globalConfig.setRedisSessionEventsEnabled(authProperties.isRedisSessionEventsEnabled());
+        globalConfig.setRedisSessionEventsConfigure(authProperties.isRedisSessionEventsConfigure());
+        globalConfig.setRedisCircuitBreakerEnabled(authProperties.isRedisCircuitBreakerEnabled());
+        globalConfig.setRedisCircuitBreakerWindowSize(authProperties.getRedisCircuitBreakerWindowSize());
+        globalConfig.setRedisCircuitBreakerFailureRateThreshold(authProperties.getRedisCircuitBreakerFailureRateThreshold());
+        globalConfig.setRedisCircuitBreakerSlowCallThreshold(authProperties.getRedisCircuitBreakerSlowCallThreshold());
+        globalConfig.setRedisCircuitBreakerOpenDuration(authProperties.getRedisCircuitBreakerOpenDuration());
+        globalConfig.setRedisCircuitBreakerFailMode(authProperties.getRedisCircuitBreakerFailMode());
+        globalConfig.setRedisCircuitBreakerFallbackTtl(authProperties.getRedisCircuitBreakerFallbackTtl());
+        globalConfig.setJdbcWriteBehindEnabled(authProperties.isJdbcWriteBehindEnabled());
+        globalConfig.setJdbcWriteBehindInterval(authProperties.getJdbcWriteBehindInterval());
+        globalConfig.setJdbcWriteBehindMaxPending(authProperties.getJdbcWriteBehindMaxPending());
+        globalConfig.setJdbcPurgeBatchSize(authProperties.getJdbcPurgeBatchSize());
+        globalConfig.setJdbcPurgeInterval(authProperties.getJdbcPurgeInterval());
+        globalConfig.setJdbcPurgeLockTable(authProperties.getJdbcPurgeLockTable());
+        globalConfig.setJdbcLocalCacheEnabled(authProperties.isJdbcLocalCacheEnabled());
+        globalConfig.setJdbcLocalCacheMaxSize(authProperties.getJdbcLocalCacheMaxSize());
+        globalConfig.setJdbcLocalCacheTtl(authProperties.getJdbcLocalCacheTtl());
+        globalConfig.setJdbcLocalCacheNegativeTtl(authProperties.getJdbcLocalCacheNegativeTtl());
+        globalConfig.setJdbcEventTable(authProperties.getJdbcEventTable());
+        globalConfig.setJdbcEventPollInterval(authProperties.getJdbcEventPollInterval());
+        globalConfig.setJdbcTokenDigest(authProperties.getJdbcTokenDigest());
         GlobalConfigUtils.setGlobalConfig(globalConfig);
     }
 }
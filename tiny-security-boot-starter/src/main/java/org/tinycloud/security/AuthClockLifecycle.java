@@ -0,0 +1,54 @@
+package org.tinycloud.security;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.tinycloud.security.util.clock.AuthClockHolder;
+import org.tinycloud.security.util.clock.CachedAuthClock;
+
+/**
+ * <p>
+ * 全局时钟的生命周期：clock-type为cached时创建并安装缓存时钟，容器关闭时停止缓存时钟并恢复系统时钟
+ * </p>
+ * 会话存储的bean依赖本bean，创建时时钟已经就绪，关闭时先于时钟关闭。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-20 09:30
+ */
+public class AuthClockLifecycle implements DisposableBean {
+
+    /**
+     * 本bean安装的缓存时钟，clock-type为system时为null
+     */
+    private final CachedAuthClock clock;
+
+    /**
+     * @param clockType      时钟类型，system或cached
+     * @param clockPrecision 缓存时钟的精度 (单位: 毫秒)
+     */
+    public AuthClockLifecycle(String clockType, long clockPrecision) {
+        // 同一进程中先后启动多个容器时，换掉上一个容器留下的缓存时钟
+        if (AuthClockHolder.getClock() instanceof CachedAuthClock) {
+            ((CachedAuthClock) AuthClockHolder.getClock()).close();
+            AuthClockHolder.setClock(null);
+        }
+        if ("cached".equalsIgnoreCase(clockType)) {
+            this.clock = new CachedAuthClock(clockPrecision);
+            AuthClockHolder.setClock(this.clock);
+        } else {
+            this.clock = null;
+        }
+    }
+
+    /**
+     * 停止缓存时钟，仍是全局时钟时恢复为系统时钟
+     */
+    @Override
+    public void destroy() {
+        if (this.clock == null) {
+            return;
+        }
+        if (AuthClockHolder.getClock() == this.clock) {
+            AuthClockHolder.setClock(null);
+        }
+        this.clock.close();
+    }
+}
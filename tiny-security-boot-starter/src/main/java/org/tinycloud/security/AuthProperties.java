@@ -23,6 +23,251 @@ public class AuthProperties {
 
     private String tableName = "s_auth_token";
 
+    /**
+     * 会话过期判断使用的时钟，可选system（每次调用System.currentTimeMillis）、cached（后台线程定时更新的缓存时钟）
+     */
+    private String clockType = "system";
+
+    /**
+     * 缓存时钟的更新间隔 (单位: 毫秒)
+     */
+    private long clockPrecision = 10L;
+
+    /**
+     * 单机内存存储：过期时间轮每个槽的时长 (单位: 毫秒)
+     */
+    private long singleWheelTick = 1000L;
+
+    /**
+     * 单机内存存储：过期时间轮每一层的槽数
+     */
+    private int singleWheelSize = 64;
+
+    /**
+     * 单机内存存储：分段数（向上取整为2的幂），每段有独立的Map和过期时间轮
+     */
+    private int singleSegments = 16;
+
+    /**
+     * 单机内存存储：清理线程数，0表示按CPU核数自动计算
+     */
+    private int singleSweeperThreads = 0;
+
+    /**
+     * 单机内存存储：最大条目数，超出后按淘汰策略淘汰，0表示不限制
+     */
+    private int singleMaxEntries = 0;
+
+    /**
+     * 单机内存存储：淘汰策略，可选lru、tinylfu (W-TinyLFU)
+     */
+    private String singleEvictionPolicy = "tinylfu";
+
+    /**
+     * 单机内存存储：每个loginId最多同时存在的会话数，超出后淘汰最早到期的会话，0表示不限制
+     */
+    private int singleMaxSessionsPerLogin = 0;
+
+    /**
+     * 单机内存存储：是否开启持久化（追加写日志 + 定期快照，重启后恢复会话）
+     */
+    private boolean singlePersistEnabled = false;
+
+    /**
+     * 单机内存存储：持久化文件目录
+     */
+    private String singlePersistDir = "./tiny-security-data";
+
+    /**
+     * 单机内存存储：持久化日志的刷盘间隔 (单位: 毫秒)
+     */
+    private long singleFsyncInterval = 1000L;
+
+    /**
+     * 单机内存存储：持久化快照的间隔 (单位: 毫秒)
+     */
+    private long singleSnapshotInterval = 10 * 60 * 1000L;
+
+    /**
+     * 单机内存存储：节点间复制监听的端口，0表示不开启复制
+     */
+    private int singleReplicationPort = 0;
+
+    /**
+     * 单机内存存储：复制的对端地址，格式host:port，多个以逗号分隔（不要包含本节点）
+     */
+    private String singleReplicationPeers;
+
+    /**
+     * 单机内存存储：复制时批量发送的间隔 (单位: 毫秒)
+     */
+    private long singleReplicationBatchInterval = 10L;
+
+    /**
+     * 单机内存存储：复制监听的地址，默认只监听本机回环地址，集群部署时应配置为内网网卡的地址（不要监听公网地址）
+     */
+    private String singleReplicationBindAddress = "127.0.0.1";
+
+    /**
+     * 单机内存存储：复制的共享密钥，各节点必须相同；连接建立后以HMAC-SHA256挑战应答认证，认证通过之前不解析任何帧，开启复制时必须配置
+     */
+    private String singleReplicationSecret;
+
+    /**
+     * 堆外内存存储：分段数
+     */
+    private int offHeapSegments = 16;
+
+    /**
+     * 堆外内存存储：初始槽位数（每个槽位256字节，装满四分之三后自动扩容）
+     */
+    private int offHeapInitialCapacity = 65536;
+
+    /**
+     * redis存储：会话的存储方式，string（JSON字符串）或hash（HASH，续期时只改写到期时间字段）
+     */
+    private String redisStorageMode = "string";
+
+    /**
+     * redis存储：是否开启本地近端缓存
+     */
+    private boolean redisNearCacheEnabled = false;
+
+    /**
+     * redis存储：近端缓存的最大条目数，超出后按LRU淘汰
+     */
+    private int redisNearCacheMaxSize = 10000;
+
+    /**
+     * redis存储：近端缓存的本地缓存时长 (单位: 毫秒)，失效消息丢失时过期数据最多存活这么久
+     */
+    private long redisNearCacheTtl = 5000L;
+
+    /**
+     * redis存储：近端缓存的失效方式，pubsub（各节点通过频道发布失效消息）或tracking（RESP3客户端跟踪，仅lettuce单机连接）
+     */
+    private String redisNearCacheInvalidation = "pubsub";
+
+    /**
+     * redis存储：新签发的token是否带集群hash tag（同一用户的会话和索引落在同一个slot，适用于Redis Cluster）
+     */
+    private boolean redisClusterHashTag = false;
+
+    /**
+     * redis存储：字符串存储方式下会话内容的编码，json（JSON字符串）或binary（紧凑的二进制，varint时间、保留loginId类型），两种编码写入的会话可以互相读取
+     */
+    private String redisSessionCodec = "json";
+
+    /**
+     * redis存储：是否开启会话事件（只订阅会话key前缀的keyspace频道，expired、del时回调SessionEventListener，并同步清理loginId索引），需要redis的notify-keyspace-events包含Kgx
+     */
+    private boolean redisSessionEventsEnabled = false;
+
+    /**
+     * redis存储：开启会话事件时，是否在启动时以CONFIG SET补齐notify-keyspace-events需要的标志（Kgx）；默认只检查并提示，由运维在服务端配置
+     */
+    private boolean redisSessionEventsConfigure = false;
+
+    /**
+     * redis存储：是否开启熔断器（redis卡顿或不可用时停止访问redis，按redis-circuit-breaker-fail-mode降级）
+     */
+    private boolean redisCircuitBreakerEnabled = false;
+
+    /**
+     * redis存储：熔断器统计的最近调用次数
+     */
+    private int redisCircuitBreakerWindowSize = 20;
+
+    /**
+     * redis存储：熔断器的失败比例阈值 (单位: %)，异常和慢调用都记为失败
+     */
+    private int redisCircuitBreakerFailureRateThreshold = 50;
+
+    /**
+     * redis存储：熔断器的慢调用阈值 (单位: 毫秒)，批量操作不判断耗时
+     */
+    private long redisCircuitBreakerSlowCallThreshold = 500L;
+
+    /**
+     * redis存储：熔断器打开后多久放行一次试探调用 (单位: 毫秒)
+     */
+    private long redisCircuitBreakerOpenDuration = 10000L;
+
+    /**
+     * redis存储：熔断器打开时的降级方式，closed（校验token直接失败）或soft（使用本地缓存的最近校验通过的会话，容量同redis-near-cache-max-size），写操作都直接失败
+     */
+    private String redisCircuitBreakerFailMode = "closed";
+
+    /**
+     * redis存储：soft降级方式下，校验通过的会话在本地缓存的时长 (单位: 毫秒)
+     */
+    private long redisCircuitBreakerFallbackTtl = 60000L;
+
+    /**
+     * jdbc存储：是否合并续期写入（续期先记在内存中，定时以批量UPDATE写入数据库，同一token多次续期只写最后一次）
+     */
+    private boolean jdbcWriteBehindEnabled = false;
+
+    /**
+     * jdbc存储：合并续期写入的间隔 (单位: 毫秒)
+     */
+    private long jdbcWriteBehindInterval = 1000L;
+
+    /**
+     * jdbc存储：内存中最多暂存的续期数，超出后的续期直接写入数据库
+     */
+    private int jdbcWriteBehindMaxPending = 10000;
+
+    /**
+     * jdbc存储：清理过期会话时每批删除的行数
+     */
+    private int jdbcPurgeBatchSize = 5000;
+
+    /**
+     * jdbc存储：清理过期会话的间隔 (单位: 毫秒)，每次清理分批删除全部过期会话
+     */
+    private long jdbcPurgeInterval = 60000L;
+
+    /**
+     * jdbc存储：清理过期会话的锁表（建表语句见s_auth_token.sql中的s_auth_lock），配置后只有持有锁的节点清理，为空时每个节点都清理
+     */
+    private String jdbcPurgeLockTable;
+
+    /**
+     * jdbc存储：是否开启本地缓存（getSubject、checkToken、checkAndRefreshToken优先读本地缓存，不存在的token也缓存一小段时间）
+     */
+    private boolean jdbcLocalCacheEnabled = false;
+
+    /**
+     * jdbc存储：本地缓存的最大条目数（不存在的token另计，最多同样多个）
+     */
+    private int jdbcLocalCacheMaxSize = 10000;
+
+    /**
+     * jdbc存储：本地缓存时长 (单位: 毫秒)，不超过会话的剩余有效期
+     */
+    private long jdbcLocalCacheTtl = 30000L;
+
+    /**
+     * jdbc存储：不存在的token的本地缓存时长 (单位: 毫秒)
+     */
+    private long jdbcLocalCacheNegativeTtl = 5000L;
+
+    /**
+     * jdbc存储：会话事件表（建表语句见s_auth_token.sql中的s_auth_token_event），删除或改写会话时写入，各节点轮询后使本地缓存失效；为空时本地缓存只按时长过期
+     */
+    private String jdbcEventTable;
+
+    /**
+     * jdbc存储：轮询会话事件表的间隔 (单位: 毫秒)
+     */
+    private long jdbcEventPollInterval = 1000L;
+
+    /**
+     * jdbc存储：会话表的主键方式，none（token_str列保存原始token）、sha256（token_hash列保存token的32字节SHA-256摘要）或sha256-128（取摘要的前16字节）；摘要方式按定长的二进制主键查询，数据库中不保存原始token，建表语句见sql/s_auth_token_digest_*.sql
+     */
+    private String jdbcTokenDigest = "none";
+
     public String getStoreType() {
         return storeType;
     }
@@ -70,4 +315,396 @@ public class AuthProperties {
     public void setTableName(String tableName) {
         this.tableName = tableName;
     }
+
+    public String getClockType() {
+        return clockType;
+    }
+
+    public void setClockType(String clockType) {
+        this.clockType = clockType;
+    }
+
+    public long getClockPrecision() {
+        return clockPrecision;
+    }
+
+    public void setClockPrecision(long clockPrecision) {
+        this.clockPrecision = clockPrecision;
+    }
+
+    public long getSingleWheelTick() {
+        return singleWheelTick;
+    }
+
+    public void setSingleWheelTick(long singleWheelTick) {
+        this.singleWheelTick = singleWheelTick;
+    }
+
+    public int getSingleWheelSize() {
+        return singleWheelSize;
+    }
+
+    public void setSingleWheelSize(int singleWheelSize) {
+        this.singleWheelSize = singleWheelSize;
+    }
+
+    public int getSingleSegments() {
+        return singleSegments;
+    }
+
+    public void setSingleSegments(int singleSegments) {
+        this.singleSegments = singleSegments;
+    }
+
+    public int getSingleSweeperThreads() {
+        return singleSweeperThreads;
+    }
+
+    public void setSingleSweeperThreads(int singleSweeperThreads) {
+        this.singleSweeperThreads = singleSweeperThreads;
+    }
+
+    public int getSingleMaxEntries() {
+        return singleMaxEntries;
+    }
+
+    public void setSingleMaxEntries(int singleMaxEntries) {
+        this.singleMaxEntries = singleMaxEntries;
+    }
+
+    public String getSingleEvictionPolicy() {
+        return singleEvictionPolicy;
+    }
+
+    public void setSingleEvictionPolicy(String singleEvictionPolicy) {
+        this.singleEvictionPolicy = singleEvictionPolicy;
+    }
+
+    public int getSingleMaxSessionsPerLogin() {
+        return singleMaxSessionsPerLogin;
+    }
+
+    public void setSingleMaxSessionsPerLogin(int singleMaxSessionsPerLogin) {
+        this.singleMaxSessionsPerLogin = singleMaxSessionsPerLogin;
+    }
+
+    public boolean isSinglePersistEnabled() {
+        return singlePersistEnabled;
+    }
+
+    public void setSinglePersistEnabled(boolean singlePersistEnabled) {
+        this.singlePersistEnabled = singlePersistEnabled;
+    }
+
+    public String getSinglePersistDir() {
+        return singlePersistDir;
+    }
+
+    public void setSinglePersistDir(String singlePersistDir) {
+        this.singlePersistDir = singlePersistDir;
+    }
+
+    public long getSingleFsyncInterval() {
+        return singleFsyncInterval;
+    }
+
+    public void setSingleFsyncInterval(long singleFsyncInterval) {
+        this.singleFsyncInterval = singleFsyncInterval;
+    }
+
+    public long getSingleSnapshotInterval() {
+        return singleSnapshotInterval;
+    }
+
+    public void setSingleSnapshotInterval(long singleSnapshotInterval) {
+        this.singleSnapshotInterval = singleSnapshotInterval;
+    }
+
+    public int getSingleReplicationPort() {
+        return singleReplicationPort;
+    }
+
+    public void setSingleReplicationPort(int singleReplicationPort) {
+        this.singleReplicationPort = singleReplicationPort;
+    }
+
+    public String getSingleReplicationPeers() {
+        return singleReplicationPeers;
+    }
+
+    public void setSingleReplicationPeers(String singleReplicationPeers) {
+        this.singleReplicationPeers = singleReplicationPeers;
+    }
+
+    public long getSingleReplicationBatchInterval() {
+        return singleReplicationBatchInterval;
+    }
+
+    public void setSingleReplicationBatchInterval(long singleReplicationBatchInterval) {
+        this.singleReplicationBatchInterval = singleReplicationBatchInterval;
+    }
+
+    public String getSingleReplicationBindAddress() {
+        return singleReplicationBindAddress;
+    }
+
+    public void setSingleReplicationBindAddress(String singleReplicationBindAddress) {
+        this.singleReplicationBindAddress = singleReplicationBindAddress;
+    }
+
+    public String getSingleReplicationSecret() {
+        return singleReplicationSecret;
+    }
+
+    public void setSingleReplicationSecret(String singleReplicationSecret) {
+        this.singleReplicationSecret = singleReplicationSecret;
+    }
+
+    public int getOffHeapSegments() {
+        return offHeapSegments;
+    }
+
+    public void setOffHeapSegments(int offHeapSegments) {
+        this.offHeapSegments = offHeapSegments;
+    }
+
+    public int getOffHeapInitialCapacity() {
+        return offHeapInitialCapacity;
+    }
+
+    public void setOffHeapInitialCapacity(int offHeapInitialCapacity) {
+        this.offHeapInitialCapacity = offHeapInitialCapacity;
+    }
+
+    public String getRedisStorageMode() {
+        return redisStorageMode;
+    }
+
+    public void setRedisStorageMode(String redisStorageMode) {
+        this.redisStorageMode = redisStorageMode;
+    }
+
+    public boolean isRedisNearCacheEnabled() {
+        return redisNearCacheEnabled;
+    }
+
+    public void setRedisNearCacheEnabled(boolean redisNearCacheEnabled) {
+        this.redisNearCacheEnabled = redisNearCacheEnabled;
+    }
+
+    public int getRedisNearCacheMaxSize() {
+        return redisNearCacheMaxSize;
+    }
+
+    public void setRedisNearCacheMaxSize(int redisNearCacheMaxSize) {
+        this.redisNearCacheMaxSize = redisNearCacheMaxSize;
+    }
+
+    public long getRedisNearCacheTtl() {
+        return redisNearCacheTtl;
+    }
+
+    public void setRedisNearCacheTtl(long redisNearCacheTtl) {
+        this.redisNearCacheTtl = redisNearCacheTtl;
+    }
+
+    public String getRedisNearCacheInvalidation() {
+        return redisNearCacheInvalidation;
+    }
+
+    public void setRedisNearCacheInvalidation(String redisNearCacheInvalidation) {
+        this.redisNearCacheInvalidation = redisNearCacheInvalidation;
+    }
+
+    public boolean isRedisClusterHashTag() {
+        return redisClusterHashTag;
+    }
+
+    public void setRedisClusterHashTag(boolean redisClusterHashTag) {
+        this.redisClusterHashTag = redisClusterHashTag;
+    }
+
+    public String getRedisSessionCodec() {
+        return redisSessionCodec;
+    }
+
+    public void setRedisSessionCodec(String redisSessionCodec) {
+        this.redisSessionCodec = redisSessionCodec;
+    }
+
+    public boolean isRedisSessionEventsEnabled() {
+        return redisSessionEventsEnabled;
+    }
+
+    public void setRedisSessionEventsEnabled(boolean redisSessionEventsEnabled) {
+        this.redisSessionEventsEnabled = redisSessionEventsEnabled;
+    }
+
+    public boolean isRedisSessionEventsConfigure() {
+        return redisSessionEventsConfigure;
+    }
+
+    public void setRedisSessionEventsConfigure(boolean redisSessionEventsConfigure) {
+        this.redisSessionEventsConfigure = redisSessionEventsConfigure;
+    }
+
+    public boolean isRedisCircuitBreakerEnabled() {
+        return redisCircuitBreakerEnabled;
+    }
+
+    public void setRedisCircuitBreakerEnabled(boolean redisCircuitBreakerEnabled) {
+        this.redisCircuitBreakerEnabled = redisCircuitBreakerEnabled;
+    }
+
+    public int getRedisCircuitBreakerWindowSize() {
+        return redisCircuitBreakerWindowSize;
+    }
+
+    public void setRedisCircuitBreakerWindowSize(int redisCircuitBreakerWindowSize) {
+        this.redisCircuitBreakerWindowSize = redisCircuitBreakerWindowSize;
+    }
+
+    public int getRedisCircuitBreakerFailureRateThreshold() {
+        return redisCircuitBreakerFailureRateThreshold;
+    }
+
+    public void setRedisCircuitBreakerFailureRateThreshold(int redisCircuitBreakerFailureRateThreshold) {
+        this.redisCircuitBreakerFailureRateThreshold = redisCircuitBreakerFailureRateThreshold;
+    }
+
+    public long getRedisCircuitBreakerSlowCallThreshold() {
+        return redisCircuitBreakerSlowCallThreshold;
+    }
+
+    public void setRedisCircuitBreakerSlowCallThreshold(long redisCircuitBreakerSlowCallThreshold) {
+        this.redisCircuitBreakerSlowCallThreshold = redisCircuitBreakerSlowCallThreshold;
+    }
+
+    public long getRedisCircuitBreakerOpenDuration() {
+        return redisCircuitBreakerOpenDuration;
+    }
+
+    public void setRedisCircuitBreakerOpenDuration(long redisCircuitBreakerOpenDuration) {
+        this.redisCircuitBreakerOpenDuration = redisCircuitBreakerOpenDuration;
+    }
+
+    public String getRedisCircuitBreakerFailMode() {
+        return redisCircuitBreakerFailMode;
+    }
+
+    public void setRedisCircuitBreakerFailMode(String redisCircuitBreakerFailMode) {
+        this.redisCircuitBreakerFailMode = redisCircuitBreakerFailMode;
+    }
+
+    public long getRedisCircuitBreakerFallbackTtl() {
+        return redisCircuitBreakerFallbackTtl;
+    }
+
+    public void setRedisCircuitBreakerFallbackTtl(long redisCircuitBreakerFallbackTtl) {
+        this.redisCircuitBreakerFallbackTtl = redisCircuitBreakerFallbackTtl;
+    }
+
+    public boolean isJdbcWriteBehindEnabled() {
+        return jdbcWriteBehindEnabled;
+    }
+
+    public void setJdbcWriteBehindEnabled(boolean jdbcWriteBehindEnabled) {
+        this.jdbcWriteBehindEnabled = jdbcWriteBehindEnabled;
+    }
+
+    public long getJdbcWriteBehindInterval() {
+        return jdbcWriteBehindInterval;
+    }
+
+    public void setJdbcWriteBehindInterval(long jdbcWriteBehindInterval) {
+        this.jdbcWriteBehindInterval = jdbcWriteBehindInterval;
+    }
+
+    public int getJdbcWriteBehindMaxPending() {
+        return jdbcWriteBehindMaxPending;
+    }
+
+    public void setJdbcWriteBehindMaxPending(int jdbcWriteBehindMaxPending) {
+        this.jdbcWriteBehindMaxPending = jdbcWriteBehindMaxPending;
+    }
+
+    public int getJdbcPurgeBatchSize() {
+        return jdbcPurgeBatchSize;
+    }
+
+    public void setJdbcPurgeBatchSize(int jdbcPurgeBatchSize) {
+        this.jdbcPurgeBatchSize = jdbcPurgeBatchSize;
+    }
+
+    public long getJdbcPurgeInterval() {
+        return jdbcPurgeInterval;
+    }
+
+    public void setJdbcPurgeInterval(long jdbcPurgeInterval) {
+        this.jdbcPurgeInterval = jdbcPurgeInterval;
+    }
+
+    public String getJdbcPurgeLockTable() {
+        return jdbcPurgeLockTable;
+    }
+
+    public void setJdbcPurgeLockTable(String jdbcPurgeLockTable) {
+        this.jdbcPurgeLockTable = jdbcPurgeLockTable;
+    }
+
+    public boolean isJdbcLocalCacheEnabled() {
+        return jdbcLocalCacheEnabled;
+    }
+
+    public void setJdbcLocalCacheEnabled(boolean jdbcLocalCacheEnabled) {
+        this.jdbcLocalCacheEnabled = jdbcLocalCacheEnabled;
+    }
+
+    public int getJdbcLocalCacheMaxSize() {
+        return jdbcLocalCacheMaxSize;
+    }
+
+    public void setJdbcLocalCacheMaxSize(int jdbcLocalCacheMaxSize) {
+        this.jdbcLocalCacheMaxSize = jdbcLocalCacheMaxSize;
+    }
+
+    public long getJdbcLocalCacheTtl() {
+        return jdbcLocalCacheTtl;
+    }
+
+    public void setJdbcLocalCacheTtl(long jdbcLocalCacheTtl) {
+        this.jdbcLocalCacheTtl = jdbcLocalCacheTtl;
+    }
+
+    public long getJdbcLocalCacheNegativeTtl() {
+        return jdbcLocalCacheNegativeTtl;
+    }
+
+    public void setJdbcLocalCacheNegativeTtl(long jdbcLocalCacheNegativeTtl) {
+        this.jdbcLocalCacheNegativeTtl = jdbcLocalCacheNegativeTtl;
+    }
+
+    public String getJdbcEventTable() {
+        return jdbcEventTable;
+    }
+
+    public void setJdbcEventTable(String jdbcEventTable) {
+        this.jdbcEventTable = jdbcEventTable;
+    }
+
+    public long getJdbcEventPollInterval() {
+        return jdbcEventPollInterval;
+    }
+
+    public void setJdbcEventPollInterval(long jdbcEventPollInterval) {
+        this.jdbcEventPollInterval = jdbcEventPollInterval;
+    }
+
+    public String getJdbcTokenDigest() {
+        return jdbcTokenDigest;
+    }
+
+    public void setJdbcTokenDigest(String jdbcTokenDigest) {
+        this.jdbcTokenDigest = jdbcTokenDigest;
+    }
 }
@@ -0,0 +1,98 @@
+package org.tinycloud.security;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.autoconfigure.data.redis.RedisReactiveAutoConfiguration;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.web.reactive.result.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.server.WebFilter;
+import org.tinycloud.security.interceptor.ReactiveAuthenticeFilter;
+import org.tinycloud.security.interceptor.ReactivePermissionFilter;
+import org.tinycloud.security.interfaces.PermissionInfoInterface;
+import org.tinycloud.security.provider.AuthProvider;
+import org.tinycloud.security.provider.ReactiveAuthProvider;
+import org.tinycloud.security.provider.ReactiveAuthProviderAdapter;
+import org.tinycloud.security.provider.ReactiveRedisAuthProvider;
+
+/**
+ * <p>
+ * tiny-security WebFlux自动配置类，存在WebFlux时生效
+ * redis存储使用响应式的ReactiveRedisAuthProvider，其余存储将AuthProvider适配为ReactiveAuthProvider
+ * </p>
+ *
+ * @author liuxingyu01
+ * @since 2024-10-18 11:30
+ **/
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@ConditionalOnClass(WebFilter.class)
+@AutoConfigureAfter({AuthAutoConfiguration.class, RedisReactiveAutoConfiguration.class})
+@EnableConfigurationProperties(AuthProperties.class)
+public class ReactiveAuthAutoConfiguration {
+    final static Logger logger = LoggerFactory.getLogger(ReactiveAuthAutoConfiguration.class);
+
+    /**
+     * 注入reactiveRedisAuthProvider
+     */
+    @Configuration
+    @ConditionalOnClass(ReactiveStringRedisTemplate.class)
+    @ConditionalOnProperty(name = "tiny-security.store-type", havingValue = "redis")
+    static class ReactiveRedisProviderConfiguration {
+
+        @Autowired
+        private AuthProperties authProperties;
+
+        @ConditionalOnMissingBean(ReactiveAuthProvider.class)
+        @ConditionalOnBean(ReactiveStringRedisTemplate.class)
+        @Bean
+        @DependsOn("authClockLifecycle")
+        public ReactiveAuthProvider reactiveRedisAuthProvider(ReactiveStringRedisTemplate reactiveStringRedisTemplate) {
+            logger.info("ReactiveRedisAuthProvider is running!");
+            AuthAutoConfiguration.setGlobalConfig(authProperties);
+            return new ReactiveRedisAuthProvider(reactiveStringRedisTemplate);
+        }
+    }
+
+    /**
+     * 没有响应式实现的存储方式，将AuthProvider适配为ReactiveAuthProvider
+     */
+    @ConditionalOnMissingBean(ReactiveAuthProvider.class)
+    @ConditionalOnBean(AuthProvider.class)
+    @Bean
+    public ReactiveAuthProvider reactiveAuthProvider(AuthProvider authProvider) {
+        logger.info("ReactiveAuthProviderAdapter is running, delegate: {}", authProvider.getClass().getSimpleName());
+        return new ReactiveAuthProviderAdapter(authProvider);
+    }
+
+    /**
+     * 添加会话过滤器
+     */
+    @Bean
+    @ConditionalOnBean(ReactiveAuthProvider.class)
+    public ReactiveAuthenticeFilter reactiveAuthenticeFilter(ReactiveAuthProvider reactiveAuthProvider,
+                                                             @Qualifier("requestMappingHandlerMapping") RequestMappingHandlerMapping handlerMapping) {
+        return new ReactiveAuthenticeFilter(reactiveAuthProvider, handlerMapping);
+    }
+
+    /**
+     * 添加权限过滤器（当存在bean PermissionInfoInterface时，这个配置才生效）
+     */
+    @Bean
+    @ConditionalOnBean({ReactiveAuthProvider.class, PermissionInfoInterface.class})
+    public ReactivePermissionFilter reactivePermissionFilter(PermissionInfoInterface permissionInfoInterface,
+                                                             @Qualifier("requestMappingHandlerMapping") RequestMappingHandlerMapping handlerMapping) {
+        return new ReactivePermissionFilter(permissionInfoInterface, handlerMapping);
+    }
+}
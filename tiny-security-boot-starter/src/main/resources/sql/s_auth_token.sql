@@ -30,7 +30,36 @@ CREATE TABLE `s_auth_token`  (
   `login_subject` varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL COMMENT '用户信息',
   `token_expire_time` bigint(20) NOT NULL COMMENT 'token过期时间',
   PRIMARY KEY (`id`) USING BTREE,
-  UNIQUE INDEX `s_auth_token_unique_token_str`(`token_str`) USING BTREE COMMENT 'token_str不可重复'
+  UNIQUE INDEX `s_auth_token_unique_token_str`(`token_str`) USING BTREE COMMENT 'token_str不可重复',
+  INDEX `s_auth_token_idx_token_expire_time`(`token_expire_time`) USING BTREE COMMENT '按到期时间分批清理过期会话'
 ) ENGINE = InnoDB AUTO_INCREMENT = 6 CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Dynamic;
 
+-- 已有的表补充到期时间索引
+-- ALTER TABLE `s_auth_token` ADD INDEX `s_auth_token_idx_token_expire_time`(`token_expire_time`) USING BTREE COMMENT '按到期时间分批清理过期会话';
+-- 以token的SHA-256摘要为主键、不保存原始token的表结构（jdbc-token-digest）及迁移语句见 s_auth_token_digest_mysql.sql、s_auth_token_digest_postgresql.sql、s_auth_token_digest_h2.sql
+
+-- ----------------------------
+-- Table structure for s_auth_lock（可选，配置jdbc-purge-lock-table后集群中只有持有锁的节点清理过期会话）
+-- ----------------------------
+DROP TABLE IF EXISTS `s_auth_lock`;
+CREATE TABLE `s_auth_lock`  (
+  `lock_name` varchar(64) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL COMMENT '锁名',
+  `lock_owner` varchar(128) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL COMMENT '持有锁的节点',
+  `lock_expire_time` bigint(20) NOT NULL COMMENT '租期到期时间',
+  PRIMARY KEY (`lock_name`) USING BTREE
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Dynamic;
+
+-- ----------------------------
+-- Table structure for s_auth_token_event（可选，配置jdbc-event-table后删除或改写会话时写入，各节点轮询后使本地缓存失效）
+-- ----------------------------
+DROP TABLE IF EXISTS `s_auth_token_event`;
+CREATE TABLE `s_auth_token_event`  (
+  `id` bigint(20) NOT NULL AUTO_INCREMENT COMMENT '自增主键，各节点按它的高水位轮询',
+  `token_str` varchar(256) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NULL DEFAULT NULL COMMENT '失效的token',
+  `login_id` varchar(64) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NULL DEFAULT NULL COMMENT '失效的用户id（该用户的全部token）',
+  `created_at` bigint(20) NOT NULL COMMENT '事件时间',
+  PRIMARY KEY (`id`) USING BTREE,
+  INDEX `s_auth_token_event_idx_created_at`(`created_at`) USING BTREE COMMENT '按时间清理过期事件'
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Dynamic;
+
 SET FOREIGN_KEY_CHECKS = 1;
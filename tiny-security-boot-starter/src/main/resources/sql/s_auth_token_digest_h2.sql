@@ -0,0 +1,69 @@
+/*
+ 以token的SHA-256摘要为主键的会话表（H2 2.x），配合 jdbc-token-digest: sha256 使用
+
+ token_hash为定长的BINARY(32)主键，按摘要查询，数据库中不再保存原始token；
+ 使用 jdbc-token-digest: sha256-128 时把BINARY(32)改为BINARY(16)。
+ 会话事件表的token_str列写入摘要的16进制文本。
+*/
+
+-- ----------------------------
+-- Table structure for s_auth_token（新建）
+-- ----------------------------
+DROP TABLE IF EXISTS s_auth_token;
+CREATE TABLE s_auth_token (
+  token_hash BINARY(32) NOT NULL,
+  created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  updated_at TIMESTAMP NULL DEFAULT CURRENT_TIMESTAMP,
+  login_id VARCHAR(64) NOT NULL,
+  login_subject VARCHAR(255) NOT NULL,
+  token_expire_time BIGINT NOT NULL,
+  CONSTRAINT s_auth_token_pk PRIMARY KEY (token_hash)
+);
+CREATE INDEX s_auth_token_idx_token_expire_time ON s_auth_token (token_expire_time);
+CREATE INDEX s_auth_token_idx_login_id ON s_auth_token (login_id);
+
+-- ----------------------------
+-- Table structure for s_auth_lock（可选，配置jdbc-purge-lock-table后集群中只有持有锁的节点清理过期会话）
+-- ----------------------------
+DROP TABLE IF EXISTS s_auth_lock;
+CREATE TABLE s_auth_lock (
+  lock_name VARCHAR(64) NOT NULL,
+  lock_owner VARCHAR(128) NOT NULL,
+  lock_expire_time BIGINT NOT NULL,
+  CONSTRAINT s_auth_lock_pk PRIMARY KEY (lock_name)
+);
+
+-- ----------------------------
+-- Table structure for s_auth_token_event（可选，配置jdbc-event-table后删除或改写会话时写入，各节点轮询后使本地缓存失效）
+-- ----------------------------
+DROP TABLE IF EXISTS s_auth_token_event;
+CREATE TABLE s_auth_token_event (
+  id BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+  token_str VARCHAR(256) NULL,
+  login_id VARCHAR(64) NULL,
+  created_at BIGINT NOT NULL,
+  CONSTRAINT s_auth_token_event_pk PRIMARY KEY (id)
+);
+CREATE INDEX s_auth_token_event_idx_created_at ON s_auth_token_event (created_at);
+
+-- ----------------------------
+-- 从原表结构（token_str列）迁移（代替上面新建s_auth_token，已有会话保留）
+-- 迁移和修改jdbc-token-digest配置应在应用停止时进行，迁移期间新建的会话需要重新登录
+-- 使用sha256-128时摘要改为 SUBSTRING(HASH('SHA-256', token_str) FROM 1 FOR 16)
+-- ----------------------------
+-- CREATE TABLE s_auth_token_digest (
+--   token_hash BINARY(32) NOT NULL,
+--   created_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+--   updated_at TIMESTAMP NULL DEFAULT CURRENT_TIMESTAMP,
+--   login_id VARCHAR(64) NOT NULL,
+--   login_subject VARCHAR(255) NOT NULL,
+--   token_expire_time BIGINT NOT NULL,
+--   CONSTRAINT s_auth_token_digest_pk PRIMARY KEY (token_hash)
+-- );
+-- INSERT INTO s_auth_token_digest (token_hash, created_at, updated_at, login_id, login_subject, token_expire_time)
+--   SELECT HASH('SHA-256', token_str), created_at, updated_at, login_id, login_subject, token_expire_time
+--   FROM s_auth_token WHERE token_expire_time > DATEDIFF(MILLISECOND, TIMESTAMP WITH TIME ZONE '1970-01-01 00:00:00Z', CURRENT_TIMESTAMP);
+-- DROP TABLE s_auth_token;
+-- ALTER TABLE s_auth_token_digest RENAME TO s_auth_token;
+-- CREATE INDEX s_auth_token_idx_token_expire_time ON s_auth_token (token_expire_time);
+-- CREATE INDEX s_auth_token_idx_login_id ON s_auth_token (login_id);
@@ -0,0 +1,50 @@
+/*
+ 以token的SHA-256摘要为主键的会话表（MySQL），配合 jdbc-token-digest: sha256 使用
+
+ token_hash为定长的BINARY(32)主键，按摘要查询，索引比varchar(256)的token_str小得多，数据库中也不再保存原始token；
+ 使用 jdbc-token-digest: sha256-128 时把BINARY(32)改为BINARY(16)。
+ 锁表s_auth_lock和会话事件表s_auth_token_event与s_auth_token.sql相同，事件表的token_str列写入摘要的16进制文本。
+*/
+
+SET NAMES utf8mb4;
+SET FOREIGN_KEY_CHECKS = 0;
+
+-- ----------------------------
+-- Table structure for s_auth_token（新建）
+-- ----------------------------
+DROP TABLE IF EXISTS `s_auth_token`;
+CREATE TABLE `s_auth_token`  (
+  `token_hash` binary(32) NOT NULL COMMENT 'token的SHA-256摘要',
+  `created_at` datetime(0) NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+  `updated_at` datetime(0) NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP(0) COMMENT '更新时间',
+  `login_id` varchar(64) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL COMMENT '用户id',
+  `login_subject` varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL COMMENT '用户信息',
+  `token_expire_time` bigint(20) NOT NULL COMMENT 'token过期时间',
+  PRIMARY KEY (`token_hash`) USING BTREE,
+  INDEX `s_auth_token_idx_token_expire_time`(`token_expire_time`) USING BTREE COMMENT '按到期时间分批清理过期会话',
+  INDEX `s_auth_token_idx_login_id`(`login_id`) USING BTREE COMMENT '按用户id踢下线'
+) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Dynamic;
+
+SET FOREIGN_KEY_CHECKS = 1;
+
+-- ----------------------------
+-- 从s_auth_token.sql的表结构迁移（代替上面的新建，已有会话保留）
+-- 迁移和修改jdbc-token-digest配置应在应用停止时进行，迁移期间新建的会话需要重新登录
+-- 使用sha256-128时摘要改为 LEFT(UNHEX(SHA2(`token_str`, 256)), 16)
+-- ----------------------------
+-- CREATE TABLE `s_auth_token_digest`  (
+--   `token_hash` binary(32) NOT NULL COMMENT 'token的SHA-256摘要',
+--   `created_at` datetime(0) NOT NULL DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
+--   `updated_at` datetime(0) NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP(0) COMMENT '更新时间',
+--   `login_id` varchar(64) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL COMMENT '用户id',
+--   `login_subject` varchar(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_general_ci NOT NULL COMMENT '用户信息',
+--   `token_expire_time` bigint(20) NOT NULL COMMENT 'token过期时间',
+--   PRIMARY KEY (`token_hash`) USING BTREE,
+--   INDEX `s_auth_token_digest_idx_token_expire_time`(`token_expire_time`) USING BTREE COMMENT '按到期时间分批清理过期会话',
+--   INDEX `s_auth_token_digest_idx_login_id`(`login_id`) USING BTREE COMMENT '按用户id踢下线'
+-- ) ENGINE = InnoDB CHARACTER SET = utf8mb4 COLLATE = utf8mb4_general_ci ROW_FORMAT = Dynamic;
+-- INSERT INTO `s_auth_token_digest` (`token_hash`, `created_at`, `updated_at`, `login_id`, `login_subject`, `token_expire_time`)
+--   SELECT UNHEX(SHA2(`token_str`, 256)), `created_at`, `updated_at`, `login_id`, `login_subject`, `token_expire_time`
+--   FROM `s_auth_token` WHERE `token_expire_time` > UNIX_TIMESTAMP() * 1000;
+-- RENAME TABLE `s_auth_token` TO `s_auth_token_old`, `s_auth_token_digest` TO `s_auth_token`;
+-- DROP TABLE `s_auth_token_old`;
@@ -0,0 +1,77 @@
+/*
+ 以token的SHA-256摘要为主键的会话表（PostgreSQL 11+），配合 jdbc-token-digest: sha256 使用
+
+ token_hash为bytea主键，按摘要查询，约束为定长32字节，数据库中不再保存原始token；
+ 使用 jdbc-token-digest: sha256-128 时把约束中的32改为16。
+ 会话事件表的token_str列写入摘要的16进制文本。
+*/
+
+-- ----------------------------
+-- Table structure for s_auth_token（新建）
+-- ----------------------------
+DROP TABLE IF EXISTS s_auth_token;
+CREATE TABLE s_auth_token (
+  token_hash bytea NOT NULL,
+  created_at timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  updated_at timestamp NULL DEFAULT CURRENT_TIMESTAMP,
+  login_id varchar(64) NOT NULL,
+  login_subject varchar(255) NOT NULL,
+  token_expire_time bigint NOT NULL,
+  CONSTRAINT s_auth_token_pk PRIMARY KEY (token_hash),
+  CONSTRAINT s_auth_token_check_token_hash CHECK (octet_length(token_hash) = 32)
+);
+CREATE INDEX s_auth_token_idx_token_expire_time ON s_auth_token (token_expire_time);
+CREATE INDEX s_auth_token_idx_login_id ON s_auth_token (login_id);
+COMMENT ON COLUMN s_auth_token.token_hash IS 'token的SHA-256摘要';
+COMMENT ON COLUMN s_auth_token.login_id IS '用户id';
+COMMENT ON COLUMN s_auth_token.login_subject IS '用户信息';
+COMMENT ON COLUMN s_auth_token.token_expire_time IS 'token过期时间';
+
+-- ----------------------------
+-- Table structure for s_auth_lock（可选，配置jdbc-purge-lock-table后集群中只有持有锁的节点清理过期会话）
+-- ----------------------------
+DROP TABLE IF EXISTS s_auth_lock;
+CREATE TABLE s_auth_lock (
+  lock_name varchar(64) NOT NULL,
+  lock_owner varchar(128) NOT NULL,
+  lock_expire_time bigint NOT NULL,
+  CONSTRAINT s_auth_lock_pk PRIMARY KEY (lock_name)
+);
+
+-- ----------------------------
+-- Table structure for s_auth_token_event（可选，配置jdbc-event-table后删除或改写会话时写入，各节点轮询后使本地缓存失效）
+-- ----------------------------
+DROP TABLE IF EXISTS s_auth_token_event;
+CREATE TABLE s_auth_token_event (
+  id bigserial NOT NULL,
+  token_str varchar(256) NULL,
+  login_id varchar(64) NULL,
+  created_at bigint NOT NULL,
+  CONSTRAINT s_auth_token_event_pk PRIMARY KEY (id)
+);
+CREATE INDEX s_auth_token_event_idx_created_at ON s_auth_token_event (created_at);
+
+-- ----------------------------
+-- 从原表结构（token_str列）迁移（代替上面新建s_auth_token，已有会话保留）
+-- 迁移和修改jdbc-token-digest配置应在应用停止时进行，迁移期间新建的会话需要重新登录
+-- 使用sha256-128时摘要改为 substring(sha256(convert_to(token_str, 'UTF8')) FROM 1 FOR 16)
+-- ----------------------------
+-- BEGIN;
+-- CREATE TABLE s_auth_token_digest (
+--   token_hash bytea NOT NULL,
+--   created_at timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP,
+--   updated_at timestamp NULL DEFAULT CURRENT_TIMESTAMP,
+--   login_id varchar(64) NOT NULL,
+--   login_subject varchar(255) NOT NULL,
+--   token_expire_time bigint NOT NULL,
+--   CONSTRAINT s_auth_token_digest_pk PRIMARY KEY (token_hash),
+--   CONSTRAINT s_auth_token_digest_check_token_hash CHECK (octet_length(token_hash) = 32)
+-- );
+-- INSERT INTO s_auth_token_digest (token_hash, created_at, updated_at, login_id, login_subject, token_expire_time)
+--   SELECT sha256(convert_to(token_str, 'UTF8')), created_at, updated_at, login_id, login_subject, token_expire_time
+--   FROM s_auth_token WHERE token_expire_time > extract(epoch FROM now()) * 1000;
+-- DROP TABLE s_auth_token;
+-- ALTER TABLE s_auth_token_digest RENAME TO s_auth_token;
+-- CREATE INDEX s_auth_token_idx_token_expire_time ON s_auth_token (token_expire_time);
+-- CREATE INDEX s_auth_token_idx_login_id ON s_auth_token (login_id);
+-- COMMIT;
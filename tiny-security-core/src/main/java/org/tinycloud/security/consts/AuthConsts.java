@@ -13,6 +13,21 @@ public class AuthConsts {
      */
     public static final String AUTH_TOKEN_KEY = "tinysecurity:auth:token:";
 
+    /**
+     * 登录用户 loginId到其全部令牌的索引（ZSET，成员为token，分值为到期时间） Redis Key 前缀
+     */
+    public static final String AUTH_LOGIN_KEY = "tinysecurity:auth:login:";
+
+    /**
+     * 会话影子key前缀（值为loginId的JSON，比会话晚一段时间过期，会话过期或被删除后由事件监听取出loginId） Redis Key 前缀
+     */
+    public static final String AUTH_SHADOW_KEY = "tinysecurity:auth:shadow:";
+
+    /**
+     * 近端缓存失效消息的 Redis 频道（消息内容为以逗号分隔的token）
+     */
+    public static final String AUTH_INVALIDATE_CHANNEL = "tinysecurity:auth:invalidate";
+
     // 无权限访问
     public static int CODE_NO_PERMISSION = 403;
 
@@ -1,7 +1,6 @@
 package org.tinycloud.security.interceptor;
 
 import org.springframework.web.servlet.HandlerInterceptor;
-import org.tinycloud.security.config.GlobalConfigUtils;
 import org.tinycloud.security.exception.UnAuthorizedException;
 import org.tinycloud.security.interceptor.holder.AuthenticeHolder;
 import org.tinycloud.security.provider.AuthProvider;
@@ -76,19 +75,10 @@ public class AuthenticeInterceptor implements HandlerInterceptor {
         }
 
         // 第二步、再判断此token值在会话存储器中是否存在，存在的话说明会话有效，并刷新会话时长
-        LoginSubject subject = this.getAuthProvider().getSubject(token);
+        LoginSubject subject = this.getAuthProvider().checkAndRefreshToken(token);
         if (Objects.isNull(subject)) {
             throw new UnAuthorizedException();
         } else {
-            long expireTime = subject.getLoginExpireTime();
-            long currentTime = System.currentTimeMillis();
-            int timeout = GlobalConfigUtils.getGlobalConfig().getTimeout();
-            long millsCritical = (long) Math.floor(timeout * 1000L * 0.6);
-            if (expireTime - currentTime <= millsCritical) {
-                // 刷新会话缓存时长
-                subject.setLoginExpireTime(currentTime + timeout * 1000L);
-                boolean result = this.getAuthProvider().refreshToken(token, subject);
-            }
             // 存入LoginId，以方便后续使用
             AuthenticeHolder.setLoginId(subject.getLoginId());
             // 合格不需要拦截，放行
@@ -0,0 +1,89 @@
+package org.tinycloud.security.interceptor;
+
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpMethod;
+import org.springframework.util.StringUtils;
+import org.springframework.web.reactive.result.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.tinycloud.security.exception.UnAuthorizedException;
+import org.tinycloud.security.interceptor.holder.ReactiveAuthenticeHolder;
+import org.tinycloud.security.provider.ReactiveAuthProvider;
+import org.tinycloud.security.util.AuthUtil;
+import org.tinycloud.security.util.ReactiveAuthUtil;
+import reactor.core.publisher.Mono;
+
+import java.util.Optional;
+
+/**
+ * 用户会话验证过滤器（WebFlux下AuthenticeInterceptor的等价实现）
+ * 只拦截由注解Controller处理的请求，会话校验全程不阻塞；验证不通过时以UnAuthorizedException结束，需要由WebExceptionHandler处理
+ *
+ * @author liuxingyu01
+ * @since 2024-10-18 10:40
+ **/
+public class ReactiveAuthenticeFilter implements WebFilter, Ordered {
+
+    /**
+     * 过滤器顺序，早于权限验证过滤器
+     */
+    public static final int ORDER = Ordered.HIGHEST_PRECEDENCE + 100;
+
+    /**
+     * 存储会话的接口
+     */
+    private final ReactiveAuthProvider authProvider;
+
+    private final RequestMappingHandlerMapping handlerMapping;
+
+    public ReactiveAuthenticeFilter(ReactiveAuthProvider authProvider, RequestMappingHandlerMapping handlerMapping) {
+        this.authProvider = authProvider;
+        this.handlerMapping = handlerMapping;
+    }
+
+    public ReactiveAuthProvider getAuthProvider() {
+        return this.authProvider;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        // 判断请求类型，如果是OPTIONS，直接放行
+        if (HttpMethod.OPTIONS.equals(exchange.getRequest().getMethod())) {
+            return chain.filter(exchange);
+        }
+        return ReactiveAuthUtil.resolveHandlerMethod(exchange, this.handlerMapping)
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(handlerMethod -> {
+                    // 不是注解Controller处理的请求，或者忽略会话验证
+                    if (!handlerMethod.isPresent() || AuthUtil.checkIgnore(handlerMethod.get())) {
+                        return chain.filter(exchange);
+                    }
+                    return this.authenticate(exchange, chain);
+                });
+    }
+
+    private Mono<Void> authenticate(ServerWebExchange exchange, WebFilterChain chain) {
+        // 第一步、先从请求里获取传来的token值，并且判断token值是否为空
+        String token = this.authProvider.getToken(exchange.getRequest());
+        if (!StringUtils.hasText(token)) {
+            return Mono.error(new UnAuthorizedException());
+        }
+        // 第二步、再判断此token值在会话存储器中是否存在，存在的话说明会话有效，并刷新会话时长
+        return this.authProvider.checkAndRefreshToken(token)
+                .switchIfEmpty(Mono.error(UnAuthorizedException::new))
+                .flatMap(subject -> {
+                    // 存入LoginId，以方便后续使用（权限过滤器从exchange属性中读取，业务代码从Reactor Context中读取）
+                    Object loginId = subject.getLoginId();
+                    exchange.getAttributes().put(ReactiveAuthenticeHolder.LOGIN_ID_KEY, loginId);
+                    return chain.filter(exchange)
+                            .contextWrite(context -> context.put(ReactiveAuthenticeHolder.LOGIN_ID_KEY, loginId));
+                });
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+}
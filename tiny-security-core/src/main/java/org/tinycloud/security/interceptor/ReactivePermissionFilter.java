@@ -0,0 +1,93 @@
+package org.tinycloud.security.interceptor;
+
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.reactive.result.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import org.tinycloud.security.exception.NoPermissionException;
+import org.tinycloud.security.interceptor.holder.ReactiveAuthenticeHolder;
+import org.tinycloud.security.interfaces.PermissionInfoInterface;
+import org.tinycloud.security.util.AuthUtil;
+import org.tinycloud.security.util.ReactiveAuthUtil;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * 用户权限验证过滤器（WebFlux下PermissionInterceptor的等价实现）
+ * PermissionInfoInterface由业务实现，通常会查询数据库，所以放到boundedElastic线程池中调用，不阻塞事件循环线程
+ *
+ * @author liuxingyu01
+ * @since 2024-10-18 11:10
+ **/
+public class ReactivePermissionFilter implements WebFilter, Ordered {
+
+    /**
+     * 过滤器顺序，晚于会话验证过滤器
+     */
+    public static final int ORDER = ReactiveAuthenticeFilter.ORDER + 1;
+
+    /**
+     * 权限角色信息
+     */
+    private final PermissionInfoInterface permissionInfoInterface;
+
+    private final RequestMappingHandlerMapping handlerMapping;
+
+    public ReactivePermissionFilter(PermissionInfoInterface permissionInfoInterface, RequestMappingHandlerMapping handlerMapping) {
+        this.permissionInfoInterface = permissionInfoInterface;
+        this.handlerMapping = handlerMapping;
+    }
+
+    public PermissionInfoInterface getPermissionInfoInterface() {
+        return this.permissionInfoInterface;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        // 判断请求类型，如果是OPTIONS，直接放行
+        if (HttpMethod.OPTIONS.equals(exchange.getRequest().getMethod())) {
+            return chain.filter(exchange);
+        }
+        Object loginId = exchange.getAttribute(ReactiveAuthenticeHolder.LOGIN_ID_KEY);
+        if (loginId == null) {
+            // 没有经过会话验证（忽略会话验证的接口、非注解Controller处理的请求），无法获取当前用户的权限，不做权限校验
+            return chain.filter(exchange);
+        }
+        return ReactiveAuthUtil.resolveHandlerMethod(exchange, this.handlerMapping)
+                .flatMap(method -> this.loadAndCheck(loginId, method))
+                .map(sets -> chain.filter(exchange)
+                        .contextWrite(context -> context.put(ReactiveAuthenticeHolder.ROLE_SET_KEY, sets.getT1())
+                                .put(ReactiveAuthenticeHolder.PERMISSION_SET_KEY, sets.getT2())))
+                .defaultIfEmpty(Mono.defer(() -> chain.filter(exchange)))
+                .flatMap(filtered -> filtered);
+    }
+
+    private Mono<Tuple2<Set<String>, Set<String>>> loadAndCheck(Object loginId, Method method) {
+        return Mono.fromCallable(() -> {
+            Set<String> roleSet = this.nullToEmpty(this.permissionInfoInterface.getRoleSet(loginId));
+            Set<String> permissionSet = this.nullToEmpty(this.permissionInfoInterface.getPermissionSet(loginId));
+            if (AuthUtil.checkPermission(method, permissionSet) && AuthUtil.checkRole(method, roleSet)) {
+                return Tuples.of(roleSet, permissionSet);
+            }
+            // 权限和角色校验不通过
+            throw new NoPermissionException();
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Set<String> nullToEmpty(Set<String> set) {
+        return set == null ? Collections.emptySet() : set;
+    }
+
+    @Override
+    public int getOrder() {
+        return ORDER;
+    }
+}
@@ -0,0 +1,47 @@
+package org.tinycloud.security.interceptor.holder;
+
+import reactor.core.publisher.Mono;
+
+import java.util.Set;
+
+/**
+ * WebFlux下缓存用户会话信息（存放在Reactor Context中，WebFlux的请求会在多个线程间切换，不能使用ThreadLocal）
+ *
+ * @author liuxingyu01
+ * @since 2024-10-18 10:30
+ **/
+public class ReactiveAuthenticeHolder {
+
+    public static final String LOGIN_ID_KEY = ReactiveAuthenticeHolder.class.getName() + ".loginId";
+
+    public static final String ROLE_SET_KEY = ReactiveAuthenticeHolder.class.getName() + ".roleSet";
+
+    public static final String PERMISSION_SET_KEY = ReactiveAuthenticeHolder.class.getName() + ".permissionSet";
+
+    /**
+     * 获取当前登录用户的loginId
+     *
+     * @return loginId，未经过会话验证时为空
+     */
+    public static Mono<Object> getLoginId() {
+        return Mono.deferContextual(context -> Mono.justOrEmpty(context.getOrEmpty(LOGIN_ID_KEY)));
+    }
+
+    /**
+     * 获取当前登录用户的角色集合
+     *
+     * @return 角色集合，未经过权限验证时为空
+     */
+    public static Mono<Set<String>> getRoleSet() {
+        return Mono.deferContextual(context -> Mono.justOrEmpty(context.getOrEmpty(ROLE_SET_KEY)));
+    }
+
+    /**
+     * 获取当前登录用户的权限集合
+     *
+     * @return 权限集合，未经过权限验证时为空
+     */
+    public static Mono<Set<String>> getPermissionSet() {
+        return Mono.deferContextual(context -> Mono.justOrEmpty(context.getOrEmpty(PERMISSION_SET_KEY)));
+    }
+}
@@ -0,0 +1,30 @@
+package org.tinycloud.security.interfaces;
+
+/**
+ * 会话事件监听接口扩展，由业务实现（如维护在线人数、记录注销审计），注册为Spring Bean即可
+ * 目前由redis存储在开启redis-session-events后通过keyspace事件触发，多节点部署时每个事件只会在其中一个节点回调一次；
+ * 回调在事件线程中依次执行，不要在其中做耗时操作
+ *
+ * @author liuxingyu01
+ * @since 2024-10-19 14:20
+ **/
+public interface SessionEventListener {
+
+    /**
+     * 会话到期
+     *
+     * @param token   令牌
+     * @param loginId 身份唯一值
+     */
+    default void onExpired(String token, Object loginId) {
+    }
+
+    /**
+     * 会话被删除（注销、踢下线、批量删除等）
+     *
+     * @param token   令牌
+     * @param loginId 身份唯一值
+     */
+    default void onDeleted(String token, Object loginId) {
+    }
+}
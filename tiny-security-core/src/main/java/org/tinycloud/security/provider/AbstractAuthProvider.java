@@ -8,6 +8,16 @@ import javax.servlet.http.HttpServletRequest;
 
 public abstract class AbstractAuthProvider implements AuthProvider {
 
+    /**
+     * 剩余有效时间不超过会话时长的这个比例时，续期会话
+     */
+    protected static final double REFRESH_RATIO = 0.6;
+
+    /**
+     * 批量操作时每批的数量（IN查询的参数个数、单次DEL的key数等）
+     */
+    protected static final int BATCH_SIZE = 500;
+
     /**
      * 获取token
      * @return token
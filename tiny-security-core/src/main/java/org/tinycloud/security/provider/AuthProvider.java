@@ -1,7 +1,16 @@
 package org.tinycloud.security.provider;
 
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import org.tinycloud.security.config.GlobalConfigUtils;
+import org.tinycloud.security.util.clock.AuthClockHolder;
 
 import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * 操作token和会话的接口
@@ -54,6 +63,29 @@ public interface AuthProvider {
      */
     LoginSubject getSubject(String token);
 
+    /**
+     * 获取登录用户，剩余有效时间不足时同时续期---会话拦截器每次请求调用
+     * 默认先getSubject，需要续期时再refreshToken，各存储方式可以覆盖为往返更少的实现
+     * @param token
+     * @return 登录用户，token无效时返回null
+     */
+    default LoginSubject checkAndRefreshToken(String token) {
+        LoginSubject subject = this.getSubject(token);
+        if (subject == null) {
+            return null;
+        }
+        long expireTime = subject.getLoginExpireTime();
+        long currentTime = AuthClockHolder.currentTimeMillis();
+        int timeout = GlobalConfigUtils.getGlobalConfig().getTimeout();
+        long millsCritical = (long) Math.floor(timeout * 1000L * AbstractAuthProvider.REFRESH_RATIO);
+        if (expireTime - currentTime <= millsCritical) {
+            // 刷新会话缓存时长
+            subject.setLoginExpireTime(currentTime + timeout * 1000L);
+            this.refreshToken(token, subject);
+        }
+        return subject;
+    }
+
     /**
      * 创建一个新的token
      * @param loginId 会话登录：参数填写要登录的账号id，建议的数据类型：long | int | String， 不可以传入复杂类型，如：User、Admin 等等
@@ -84,6 +116,76 @@ public interface AuthProvider {
 
     /*============================操作token结束=============================*/
 
+    /*============================批量操作token开始，默认逐个调用单个token的方法，各存储方式可以覆盖为批量实现=============================*/
+
+    /**
+     * 批量检查token是否失效---常用于网关一次校验多个连接的token
+     * @param tokens 令牌集合
+     * @return 每个token是否有效（按传入顺序）
+     */
+    default Map<String, Boolean> checkTokens(Collection<String> tokens) {
+        Assert.notNull(tokens, "The tokens cannot be null!");
+        Map<String, Boolean> result = new LinkedHashMap<>(tokens.size() * 4 / 3 + 1);
+        for (String token : tokens) {
+            result.put(token, StringUtils.hasText(token) && this.checkToken(token));
+        }
+        return result;
+    }
+
+    /**
+     * 批量获取登录用户
+     * @param tokens 令牌集合
+     * @return token到登录用户的映射（按传入顺序），无效的token不在其中
+     */
+    default Map<String, LoginSubject> getSubjects(Collection<String> tokens) {
+        Assert.notNull(tokens, "The tokens cannot be null!");
+        Map<String, LoginSubject> result = new LinkedHashMap<>(tokens.size() * 4 / 3 + 1);
+        for (String token : tokens) {
+            LoginSubject subject = StringUtils.hasText(token) ? this.getSubject(token) : null;
+            if (subject != null) {
+                result.put(token, subject);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 批量删除token---常用于批量让会话下线
+     * @param tokens 令牌集合
+     * @return true成功，false失败
+     */
+    default boolean deleteTokens(Collection<String> tokens) {
+        Assert.notNull(tokens, "The tokens cannot be null!");
+        for (String token : tokens) {
+            if (StringUtils.hasText(token)) {
+                this.deleteToken(token);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 批量创建token
+     * @param loginIds 账号id集合，建议的数据类型：long | int | String
+     * @return 与loginIds一一对应的token，失败时返回null（已创建的token会被删除）
+     */
+    default List<String> createTokens(Collection<?> loginIds) {
+        Assert.notNull(loginIds, "The loginIds cannot be null!");
+        List<String> tokens = new ArrayList<>(loginIds.size());
+        for (Object loginId : loginIds) {
+            String token = this.createToken(loginId);
+            if (token == null) {
+                // 调用方拿不到已创建的token，无法按token注销，删掉
+                this.deleteTokens(tokens);
+                return null;
+            }
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    /*============================批量操作token结束=============================*/
+
 
     /*============================操作会话开始，此部分在AbstractAuthProvider里予以实现=============================*/
 
@@ -1,37 +1,168 @@
 package org.tinycloud.security.provider;
 
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import org.tinycloud.security.config.GlobalConfig;
 import org.tinycloud.security.config.GlobalConfigUtils;
+import org.tinycloud.security.provider.jdbc.JdbcLocalCache;
+import org.tinycloud.security.provider.jdbc.JdbcRefreshBuffer;
+import org.tinycloud.security.provider.jdbc.JdbcSessionPurger;
+import org.tinycloud.security.provider.jdbc.JdbcSessionSql;
+import org.tinycloud.security.provider.jdbc.JdbcTokenEvents;
 import org.tinycloud.security.util.JsonUtil;
 import org.tinycloud.security.util.TokenGenUtil;
+import org.tinycloud.security.util.clock.AuthClockHolder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.Objects;
 
 /**
  * 操作token和会话的接口（通过jdbc实现）
+ * SQL按表名预先拼好，查询结果按列直接映射为对应的类型；会话和到期时间一次查出，一次认证请求只有一次按token_str的索引查询；
+ * 可选以token的SHA-256摘要为主键（jdbcTokenDigest），按定长的二进制主键查询，数据库中不保存原始token；
+ * 可选合并续期写入，checkAndRefreshToken的续期先记在内存中，定时批量写入；过期会话由后台线程定时分批清理；
+ * 可选开启本地缓存，getSubject、checkToken、checkAndRefreshToken优先读本地缓存，删除或改写会话时通过会话事件表通知各节点失效
  *
  * @author liuxingyu01
  * @version 2023-01-06-9:33
  **/
-public class JdbcAuthProvider extends AbstractAuthProvider implements AuthProvider {
+public class JdbcAuthProvider extends AbstractAuthProvider implements AuthProvider, DisposableBean {
     final static Logger log = LoggerFactory.getLogger(JdbcAuthProvider.class);
 
     private final JdbcTemplate jdbcTemplate;
 
+    /**
+     * 按表名预先拼好的SQL
+     */
+    private final JdbcSessionSql sql;
+
+    /**
+     * 续期的合并写入，没有开启时为null
+     */
+    private final JdbcRefreshBuffer refreshBuffer;
+
+    /**
+     * 过期会话的分批清理
+     */
+    private final JdbcSessionPurger purger;
+
+    /**
+     * 本地缓存，没有开启时为null
+     */
+    private final JdbcLocalCache localCache;
+
+    /**
+     * 会话事件表的写入和轮询，没有开启本地缓存或没有配置事件表时为null
+     */
+    private final JdbcTokenEvents tokenEvents;
+
     public JdbcAuthProvider(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
-        // 同时初始化定时任务
-        this.initCleanThread();
+        GlobalConfig globalConfig = GlobalConfigUtils.getGlobalConfig();
+        this.sql = JdbcSessionSql.of(globalConfig);
+        if (globalConfig.isJdbcWriteBehindEnabled()) {
+            this.refreshBuffer = new JdbcRefreshBuffer(jdbcTemplate, this.sql, BATCH_SIZE,
+                    globalConfig.getJdbcWriteBehindInterval(), globalConfig.getJdbcWriteBehindMaxPending());
+            log.info("JdbcAuthProvider write-behind is running, interval: {}ms", globalConfig.getJdbcWriteBehindInterval());
+        } else {
+            this.refreshBuffer = null;
+        }
+        if (globalConfig.isJdbcLocalCacheEnabled()) {
+            this.localCache = new JdbcLocalCache(globalConfig.getJdbcLocalCacheMaxSize(), globalConfig.getJdbcLocalCacheTtl(), globalConfig.getJdbcLocalCacheNegativeTtl());
+            this.tokenEvents = StringUtils.hasText(globalConfig.getJdbcEventTable())
+                    ? new JdbcTokenEvents(jdbcTemplate, globalConfig.getJdbcEventTable(), this.localCache, globalConfig.getJdbcEventPollInterval()) : null;
+            log.info("JdbcAuthProvider local cache is running, event table: {}", globalConfig.getJdbcEventTable());
+        } else {
+            this.localCache = null;
+            this.tokenEvents = null;
+        }
+        // 同时开始清理过期会话
+        this.purger = new JdbcSessionPurger(jdbcTemplate, this.sql, globalConfig.getJdbcPurgeBatchSize(), BATCH_SIZE,
+                globalConfig.getJdbcPurgeInterval(), globalConfig.getJdbcWriteBehindInterval(), globalConfig.getJdbcPurgeLockTable());
+        log.info("JdbcAuthProvider purger init successful, interval: {}ms, lock table: {}", globalConfig.getJdbcPurgeInterval(), globalConfig.getJdbcPurgeLockTable());
+    }
+
+    /**
+     * 获取续期的合并写入（可从中读取暂存数等统计数据）
+     *
+     * @return 续期的合并写入，未开启时返回null
+     */
+    public JdbcRefreshBuffer getRefreshBuffer() {
+        return this.refreshBuffer;
+    }
+
+    /**
+     * 获取本地缓存（可从中读取命中率等统计数据）
+     *
+     * @return 本地缓存，未开启时返回null
+     */
+    public JdbcLocalCache getLocalCache() {
+        return this.localCache;
+    }
+
+    /**
+     * 使本地缓存失效，并写入会话事件通知其他节点
+     *
+     * @param tokens 令牌
+     */
+    private void invalidate(Collection<String> tokens) {
+        if (this.localCache == null) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            String key = this.sql.keyText(token);
+            this.localCache.invalidate(key);
+            keys.add(key);
+        }
+        this.publish(() -> this.tokenEvents.publishTokens(keys));
+    }
+
+    private void publish(Runnable publisher) {
+        if (this.tokenEvents == null) {
+            return;
+        }
+        try {
+            publisher.run();
+        } catch (Exception e) {
+            // 会话已经写入成功，其他节点的缓存最多在本地缓存时长后过期
+            log.error("JdbcAuthProvider publish event failed, Exception: {e}", e);
+        }
+    }
+
+    /**
+     * 数据库中的到期时间，加上本节点暂存尚未写入的续期
+     *
+     * @param token      令牌
+     * @param expireTime 数据库中的到期时间
+     * @return 到期时间
+     */
+    private long expireTimeOf(String token, long expireTime) {
+        if (this.refreshBuffer == null) {
+            return expireTime;
+        }
+        Long pending = this.refreshBuffer.getExpireTime(token);
+        return pending != null && pending > expireTime ? pending : expireTime;
+    }
+
+    /**
+     * 丢弃暂存的续期（直接写入或删除会话之前，避免之后写入旧的到期时间）
+     */
+    private void discardPending(String token) {
+        if (this.refreshBuffer != null) {
+            this.refreshBuffer.discard(token);
+        }
     }
 
     /**
@@ -44,8 +175,8 @@ public class JdbcAuthProvider extends AbstractAuthProvider implements AuthProvid
     public boolean refreshToken(String token) {
         Assert.hasText(token, "The token cannot be empty!");
         try {
-            String sql = "update " + GlobalConfigUtils.getGlobalConfig().getTableName() + " set token_expire_time = ? where token_str = ?";
-            int num = jdbcTemplate.update(sql, System.currentTimeMillis() + GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000, token);
+            this.discardPending(token);
+            int num = jdbcTemplate.update(this.sql.getRefreshSql(), AuthClockHolder.currentTimeMillis() + GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000L, this.sql.key(token));
             return num > 0;
         } catch (Exception e) {
             log.error("JdbcAuthProvider refreshToken failed, Exception: {e}", e);
@@ -57,8 +188,9 @@ public class JdbcAuthProvider extends AbstractAuthProvider implements AuthProvid
     public boolean refreshToken(String token, LoginSubject subject) {
         Assert.hasText(token, "The token cannot be empty!");
         try {
-            String sql = "update " + GlobalConfigUtils.getGlobalConfig().getTableName() + " set token_expire_time = ?, login_subject = ? where token_str = ?";
-            int num = jdbcTemplate.update(sql, System.currentTimeMillis() + GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000, JsonUtil.writeValueAsString(subject), token);
+            this.discardPending(token);
+            int num = jdbcTemplate.update(this.sql.getRefreshSubjectSql(), AuthClockHolder.currentTimeMillis() + GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000L, JsonUtil.writeValueAsString(subject), this.sql.key(token));
+            this.invalidate(Collections.singletonList(token));
             return num > 0;
         } catch (Exception e) {
             log.error("JdbcAuthProvider refreshToken failed, Exception: {e}", e);
@@ -76,35 +208,107 @@ public class JdbcAuthProvider extends AbstractAuthProvider implements AuthProvid
     public boolean checkToken(String token) {
         Assert.hasText(token, "The token cannot be empty!");
         try {
-            String sql = "select token_expire_time from " + GlobalConfigUtils.getGlobalConfig().getTableName() + " where token_str = ?";
-            List<Map<String, Object>> resultList = jdbcTemplate.queryForList(sql, token);
-            if (!resultList.isEmpty()) {
-                long tokenExpireTime = Long.parseLong(resultList.get(0).get("token_expire_time").toString());
-                return tokenExpireTime > System.currentTimeMillis();
-            } else {
-                return false;
+            if (this.localCache != null) {
+                return this.loadSubject(token, AuthClockHolder.currentTimeMillis(), this.localCache.stamp()) != null;
             }
+            Long tokenExpireTime = jdbcTemplate.query(this.sql.getSelectExpireTimeSql(), JdbcSessionSql.FIRST_LONG, this.sql.key(token));
+            return tokenExpireTime != null && this.expireTimeOf(token, tokenExpireTime) > AuthClockHolder.currentTimeMillis();
         } catch (Exception e) {
             log.error("JdbcAuthProvider checkToken failed, Exception: {e}", e);
             return false;
         }
     }
 
+    /**
+     * 根据令牌获取登录用户
+     *
+     * @param token 令牌
+     * @return 登录用户，不存在或已过期时返回null
+     */
     @Override
     public LoginSubject getSubject(String token) {
         Assert.hasText(token, "The token cannot be empty!");
         try {
-            String sql = "select login_subject from " + GlobalConfigUtils.getGlobalConfig().getTableName() + " where token_str = ?";
-            List<Map<String, Object>> resultList = jdbcTemplate.queryForList(sql, token);
-            if (!resultList.isEmpty()) {
-                String content = resultList.get(0).get("login_subject").toString();
-                return JsonUtil.readValue(content, LoginSubject.class);
-            }
+            return this.loadSubject(token, AuthClockHolder.currentTimeMillis(), this.localCache == null ? 0L : this.localCache.stamp());
+        } catch (Exception e) {
+            log.error("JdbcAuthProvider getSubject failed, Exception: {e}", e);
             return null;
+        }
+    }
+
+    /**
+     * 获取登录用户，剩余有效时间不足时同时续期（一次查询取出会话和到期时间，需要续期时只更新到期时间列，开启合并写入时暂存在内存中）
+     *
+     * @param token 令牌
+     * @return 登录用户，token无效时返回null
+     */
+    @Override
+    public LoginSubject checkAndRefreshToken(String token) {
+        Assert.hasText(token, "The token cannot be empty!");
+        try {
+            long currentTime = AuthClockHolder.currentTimeMillis();
+            long stamp = this.localCache == null ? 0L : this.localCache.stamp();
+            LoginSubject subject = this.loadSubject(token, currentTime, stamp);
+            if (subject == null) {
+                return null;
+            }
+            long ttl = GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000L;
+            long millsCritical = (long) Math.floor(ttl * REFRESH_RATIO);
+            if (subject.getLoginExpireTime() - currentTime <= millsCritical) {
+                subject.setLoginExpireTime(currentTime + ttl);
+                if (this.refreshBuffer == null || !this.refreshBuffer.offer(token, subject.getLoginExpireTime())) {
+                    jdbcTemplate.update(this.sql.getRefreshSql(), subject.getLoginExpireTime(), this.sql.key(token));
+                }
+                if (this.localCache != null) {
+                    this.localCache.put(this.sql.keyText(token), subject, stamp);
+                }
+            }
+            return subject;
         } catch (Exception e) {
-            log.error("RedisAuthProvider getSubject failed, Exception：{e}", e);
+            log.error("JdbcAuthProvider checkAndRefreshToken failed, Exception: {e}", e);
+            return null;
+        }
+    }
+
+    /**
+     * 读取会话，开启本地缓存时先读缓存，未命中时读库并把结果（包括不存在）写入缓存
+     *
+     * @param token       令牌
+     * @param currentTime 当前时间
+     * @param stamp       读库之前取得的本地缓存失效序号
+     * @return 登录用户，不存在或已过期时返回null
+     */
+    private LoginSubject loadSubject(String token, long currentTime, long stamp) {
+        if (this.localCache == null) {
+            return this.readSubject(token, currentTime);
+        }
+        String key = this.sql.keyText(token);
+        LoginSubject subject = this.localCache.get(key);
+        if (subject != null) {
+            return subject;
+        }
+        if (this.localCache.isUnknown(key)) {
+            return null;
+        }
+        subject = this.readSubject(token, currentTime);
+        this.localCache.put(key, subject, stamp);
+        return subject;
+    }
+
+    /**
+     * 读取会话（到期时间以token_expire_time列和本节点暂存的续期为准）
+     *
+     * @param token       令牌
+     * @param currentTime 当前时间
+     * @return 登录用户，不存在或已过期时返回null
+     */
+    private LoginSubject readSubject(String token, long currentTime) {
+        LoginSubject subject = jdbcTemplate.query(this.sql.getSelectSubjectSql(), JdbcSessionSql.FIRST_SUBJECT, this.sql.key(token));
+        if (subject == null) {
             return null;
         }
+        subject.setLoginExpireTime(this.expireTimeOf(token, subject.getLoginExpireTime()));
+        return subject.getLoginExpireTime() > currentTime ? subject : null;
     }
 
     /**
@@ -118,13 +322,11 @@ public class JdbcAuthProvider extends AbstractAuthProvider implements AuthProvid
         Assert.notNull(loginId, "The loginId cannot be null!");
         try {
             String token = TokenGenUtil.genTokenStr(GlobalConfigUtils.getGlobalConfig().getTokenStyle());
-            LoginSubject subject = new LoginSubject();
-            subject.setLoginId(loginId);
-            long currentTime = System.currentTimeMillis();
-            subject.setLoginTime(currentTime);
-            subject.setLoginExpireTime(currentTime + GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000L);
-            String sql = "insert into " + GlobalConfigUtils.getGlobalConfig().getTableName() + " (token_str,login_id,login_subject,token_expire_time) values (?,?,?,?)";
-            int num = jdbcTemplate.update(sql, token, String.valueOf(loginId), JsonUtil.writeValueAsString(subject), System.currentTimeMillis() + GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000);
+            LoginSubject subject = LoginSubject.create(loginId, GlobalConfigUtils.getGlobalConfig().getTimeout());
+            int num = jdbcTemplate.update(this.sql.getInsertSql(), this.sql.key(token), String.valueOf(loginId), JsonUtil.writeValueAsString(subject), subject.getLoginExpireTime());
+            if (num > 0 && this.localCache != null) {
+                this.localCache.put(this.sql.keyText(token), subject, this.localCache.stamp());
+            }
             return num > 0 ? token : null;
         } catch (Exception e) {
             log.error("JdbcAuthProvider createToken failed, Exception: {e}", e);
@@ -142,12 +344,7 @@ public class JdbcAuthProvider extends AbstractAuthProvider implements AuthProvid
     public Object getLoginId(String token) {
         Assert.hasText(token, "The token cannot be empty！");
         try {
-            String sql = "select login_id from " + GlobalConfigUtils.getGlobalConfig().getTableName() + " where token_str = ?";
-            List<Map<String, Object>> resultList = jdbcTemplate.queryForList(sql, token);
-            if (!resultList.isEmpty()) {
-                return resultList.get(0).get("login_id");
-            }
-            return null;
+            return jdbcTemplate.query(this.sql.getSelectLoginIdSql(), JdbcSessionSql.FIRST_STRING, this.sql.key(token));
         } catch (Exception e) {
             log.error("JdbcAuthProvider getLoginId failed, Exception: {e}", e);
             return null;
@@ -164,8 +361,9 @@ public class JdbcAuthProvider extends AbstractAuthProvider implements AuthProvid
     public boolean deleteToken(String token) {
         Assert.hasText(token, "The token cannot be empty！");
         try {
-            String sql = "delete from " + GlobalConfigUtils.getGlobalConfig().getTableName() + " where token_str = ?";
-            int num = jdbcTemplate.update(sql, token);
+            this.discardPending(token);
+            int num = jdbcTemplate.update(this.sql.getDeleteSql(), this.sql.key(token));
+            this.invalidate(Collections.singletonList(token));
             return num > 0;
         } catch (Exception e) {
             log.error("JdbcAuthProvider deleteToken failed, Exception: {e}", e);
@@ -183,8 +381,11 @@ public class JdbcAuthProvider extends AbstractAuthProvider implements AuthProvid
     public boolean deleteTokenByLoginId(Object loginId) {
         Assert.notNull(loginId, "The loginId cannot be null！");
         try {
-            String sql = "delete from " + GlobalConfigUtils.getGlobalConfig().getTableName() + " where login_id = ?";
-            int num = jdbcTemplate.update(sql, loginId);
+            int num = jdbcTemplate.update(this.sql.getDeleteByLoginIdSql(), loginId);
+            if (this.localCache != null) {
+                this.localCache.invalidateLoginId(String.valueOf(loginId));
+                this.publish(() -> this.tokenEvents.publishLoginId(loginId));
+            }
             return num > 0;
         } catch (Exception e) {
             log.error("JdbcAuthProvider deleteTokenByLoginId failed, Exception: {e}", e);
@@ -193,48 +394,170 @@ public class JdbcAuthProvider extends AbstractAuthProvider implements AuthProvid
     }
 
     /**
-     * 用于定时执行数据清理的线程池
+     * 批量检查token是否失效（IN查询，每批BATCH_SIZE个）
+     *
+     * @param tokens 令牌集合
+     * @return 每个token是否有效
      */
-    private volatile ScheduledExecutorService executorService;
+    @Override
+    public Map<String, Boolean> checkTokens(Collection<String> tokens) {
+        Assert.notNull(tokens, "The tokens cannot be null!");
+        Map<String, Boolean> result = new LinkedHashMap<>(tokens.size() * 4 / 3 + 1);
+        for (String token : tokens) {
+            result.put(token, false);
+        }
+        try {
+            long currentTime = AuthClockHolder.currentTimeMillis();
+            for (List<String> batch : partition(tokens)) {
+                Map<String, String> tokensByKey = this.tokensByKey(batch);
+                jdbcTemplate.query(this.sql.selectExpireTimesSql(batch.size()), rs -> {
+                    String token = tokensByKey.get(this.sql.keyTextOf(rs, 1));
+                    result.put(token, this.expireTimeOf(token, rs.getLong(2)) > currentTime);
+                }, this.sql.keys(batch));
+            }
+        } catch (Exception e) {
+            log.error("JdbcAuthProvider checkTokens failed, Exception: {e}", e);
+        }
+        return result;
+    }
 
     /**
-     * 初始化清理任务，每天执行一次
+     * 批量获取登录用户（IN查询，每批BATCH_SIZE个）
+     *
+     * @param tokens 令牌集合
+     * @return token到登录用户的映射，无效的token不在其中
      */
-    private void initCleanThread() {
-        // 双重校验构造一个单例的ScheduledThreadPool
-        if (this.executorService == null) {
-            synchronized (JdbcAuthProvider.class) {
-                if (this.executorService == null) {
-                    this.executorService = Executors.newScheduledThreadPool(1);
-                    // 获取当前时间
-                    LocalDateTime now = LocalDateTime.now();
-                    // 获取明天凌晨第一秒的时间，如2023-08-25 00:00:01:000
-                    LocalDateTime tomorrow = now.plusDays(1).withHour(0).withMinute(0).withSecond(1).withNano(0);
-                    // 计算初始延迟时间（单位-毫秒）
-                    long initialDelay = ChronoUnit.MILLIS.between(now, tomorrow);
-                    this.executorService.scheduleAtFixedRate(() -> {
-                        log.info("JdbcAuthProvider clean execute at: {}", LocalDateTime.now());
-                        try {
-                            // 执行清理方法
-                            this.clean();
-                        } catch (Exception e2) {
-                            log.error("JdbcAuthProvider cleanThread Exception: {e2}", e2);
+    @Override
+    public Map<String, LoginSubject> getSubjects(Collection<String> tokens) {
+        Assert.notNull(tokens, "The tokens cannot be null!");
+        Map<String, LoginSubject> result = new LinkedHashMap<>(tokens.size() * 4 / 3 + 1);
+        for (String token : tokens) {
+            // 先占位，保持传入顺序
+            result.put(token, null);
+        }
+        try {
+            long currentTime = AuthClockHolder.currentTimeMillis();
+            for (List<String> batch : partition(tokens)) {
+                Map<String, String> tokensByKey = this.tokensByKey(batch);
+                jdbcTemplate.query(this.sql.selectSubjectsSql(batch.size()), rs -> {
+                    LoginSubject subject = JdbcSessionSql.SUBJECT_MAPPER.mapRow(rs, 0);
+                    String token = tokensByKey.get(this.sql.keyTextOf(rs, 3));
+                    if (subject != null) {
+                        subject.setLoginExpireTime(this.expireTimeOf(token, subject.getLoginExpireTime()));
+                        if (subject.getLoginExpireTime() > currentTime) {
+                            result.put(token, subject);
                         }
-                    }, initialDelay/*首次延迟多长时间后执行*/, 24 * 60 * 60 * 1000/*定时任务间隔时间，这里设置的是24小时*/, TimeUnit.MILLISECONDS);
-                }
+                    }
+                }, this.sql.keys(batch));
             }
+        } catch (Exception e) {
+            log.error("JdbcAuthProvider getSubjects failed, Exception: {e}", e);
         }
-        log.info("JdbcAuthProvider cleanThread init successful!");
+        result.values().removeIf(Objects::isNull);
+        return result;
     }
 
+    /**
+     * 批量删除token（IN条件删除，每批BATCH_SIZE个）
+     *
+     * @param tokens 令牌集合
+     * @return true成功，false失败
+     */
+    @Override
+    public boolean deleteTokens(Collection<String> tokens) {
+        Assert.notNull(tokens, "The tokens cannot be null!");
+        try {
+            for (List<String> batch : partition(tokens)) {
+                batch.forEach(this::discardPending);
+                jdbcTemplate.update(this.sql.deleteTokensSql(batch.size()), this.sql.keys(batch));
+                this.invalidate(batch);
+            }
+            return true;
+        } catch (Exception e) {
+            log.error("JdbcAuthProvider deleteTokens failed, Exception: {e}", e);
+            return false;
+        }
+    }
 
-    private void clean() {
+    /**
+     * 批量创建token（JDBC批量插入，每批BATCH_SIZE条）
+     *
+     * @param loginIds 账号id集合
+     * @return 与loginIds一一对应的token，失败时返回null（已插入的token会被删除）
+     */
+    @Override
+    public List<String> createTokens(Collection<?> loginIds) {
+        Assert.notNull(loginIds, "The loginIds cannot be null!");
+        Assert.noNullElements(loginIds, "The loginId cannot be null!");
+        List<String> tokens = new ArrayList<>(loginIds.size());
+        int attempted = 0;
         try {
-            String sql = "delete from " + GlobalConfigUtils.getGlobalConfig().getTableName() + " where token_expire_time < ?";
-            int num = jdbcTemplate.update(sql, System.currentTimeMillis());
-            log.info("JdbcAuthProvider clean num: {}", num);
+            int timeout = GlobalConfigUtils.getGlobalConfig().getTimeout();
+            String tokenStyle = GlobalConfigUtils.getGlobalConfig().getTokenStyle();
+            List<Object[]> batchArgs = new ArrayList<>(loginIds.size());
+            for (Object loginId : loginIds) {
+                String token = TokenGenUtil.genTokenStr(tokenStyle);
+                LoginSubject subject = LoginSubject.create(loginId, timeout);
+                tokens.add(token);
+                batchArgs.add(new Object[]{this.sql.key(token), String.valueOf(loginId), JsonUtil.writeValueAsString(subject), subject.getLoginExpireTime()});
+            }
+            for (int from = 0; from < batchArgs.size(); from += BATCH_SIZE) {
+                attempted = Math.min(from + BATCH_SIZE, batchArgs.size());
+                jdbcTemplate.batchUpdate(this.sql.getInsertSql(), batchArgs.subList(from, attempted));
+            }
+            return tokens;
         } catch (Exception e) {
-            log.error("JdbcAuthProvider clean failed, Exception: {e}", e);
+            log.error("JdbcAuthProvider createTokens failed, Exception: {e}", e);
+            // 调用方拿不到已插入的token（包括失败的那一批中可能已插入的），无法按token注销，删掉
+            if (attempted > 0 && !this.deleteTokens(tokens.subList(0, attempted))) {
+                log.error("JdbcAuthProvider createTokens failed, {} created tokens could not be deleted", attempted);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * 一批token的文本形式到token的映射，用于把查询结果对应回传入的token（不使用摘要时文本形式就是token本身）
+     */
+    private Map<String, String> tokensByKey(List<String> batch) {
+        Map<String, String> tokensByKey = new HashMap<>(batch.size() * 4 / 3 + 1);
+        for (String token : batch) {
+            tokensByKey.put(this.sql.keyText(token), token);
+        }
+        return tokensByKey;
+    }
+
+    /**
+     * 去掉空token后按BATCH_SIZE切分
+     */
+    private static List<List<String>> partition(Collection<String> tokens) {
+        List<String> valid = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            if (StringUtils.hasText(token)) {
+                valid.add(token);
+            }
+        }
+        if (valid.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<List<String>> batches = new ArrayList<>(valid.size() / BATCH_SIZE + 1);
+        for (int from = 0; from < valid.size(); from += BATCH_SIZE) {
+            batches.add(valid.subList(from, Math.min(from + BATCH_SIZE, valid.size())));
+        }
+        return batches;
+    }
+
+    /**
+     * 容器关闭时写入暂存的续期，并停止清理过期会话和轮询会话事件
+     */
+    @Override
+    public void destroy() throws Exception {
+        if (this.refreshBuffer != null) {
+            this.refreshBuffer.close();
+        }
+        if (this.tokenEvents != null) {
+            this.tokenEvents.close();
         }
+        this.purger.close();
     }
 }
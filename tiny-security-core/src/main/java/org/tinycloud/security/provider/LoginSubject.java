@@ -1,5 +1,7 @@
 package org.tinycloud.security.provider;
 
+import org.tinycloud.security.util.clock.AuthClockHolder;
+
 /**
  * <p>
  * </p>
@@ -24,6 +26,22 @@ public class LoginSubject {
      */
     private Long loginExpireTime;
 
+    /**
+     * 创建一个新登录的LoginSubject，登录时间取自全局时钟
+     *
+     * @param loginId 会话登录的账号id
+     * @param timeout 会话有效时间（秒）
+     * @return LoginSubject
+     */
+    public static LoginSubject create(Object loginId, int timeout) {
+        LoginSubject subject = new LoginSubject();
+        subject.setLoginId(loginId);
+        long currentTime = AuthClockHolder.currentTimeMillis();
+        subject.setLoginTime(currentTime);
+        subject.setLoginExpireTime(currentTime + timeout * 1000L);
+        return subject;
+    }
+
     public Object getLoginId() {
         return loginId;
     }
@@ -47,4 +65,17 @@ public class LoginSubject {
     public void setLoginExpireTime(Long loginExpireTime) {
         this.loginExpireTime = loginExpireTime;
     }
+
+    /**
+     * 复制一个新的LoginSubject（loginId为long、int、String等不可变类型，直接复用）
+     *
+     * @return 副本
+     */
+    public LoginSubject copy() {
+        LoginSubject subject = new LoginSubject();
+        subject.setLoginId(this.loginId);
+        subject.setLoginTime(this.loginTime);
+        subject.setLoginExpireTime(this.loginExpireTime);
+        return subject;
+    }
 }
@@ -0,0 +1,224 @@
+package org.tinycloud.security.provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.Assert;
+import org.tinycloud.security.config.GlobalConfig;
+import org.tinycloud.security.config.GlobalConfigUtils;
+import org.tinycloud.security.provider.offheap.OffHeapSessionTable;
+import org.tinycloud.security.util.TokenGenUtil;
+import org.tinycloud.security.util.clock.AuthClockHolder;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 操作token和会话的接口（通过单机堆外内存实现，系统重启后数据会丢失）
+ * 会话数据存放在直接内存中，适合单机几百万会话的场景，避免大量会话对象拉长GC停顿；token最长128字节，loginId最长64字节
+ *
+ * @author liuxingyu01
+ * @since 2024-10-12 14:05
+ **/
+public class OffHeapAuthProvider extends AbstractAuthProvider implements AuthProvider, DisposableBean {
+    final static Logger log = LoggerFactory.getLogger(OffHeapAuthProvider.class);
+
+    /**
+     * 常量，每次清理过期数据间隔的时间 (单位: 秒) ，默认值30秒
+     */
+    final static int DATA_REFRESH_PERIOD = 30;
+
+    /**
+     * 堆外会话表
+     */
+    private final OffHeapSessionTable sessionTable;
+
+    /**
+     * 用于定时执行数据清理的线程池
+     */
+    private final ScheduledExecutorService executorService;
+
+    /**
+     * 构造函数
+     */
+    public OffHeapAuthProvider() {
+        GlobalConfig globalConfig = GlobalConfigUtils.getGlobalConfig();
+        this.sessionTable = new OffHeapSessionTable(globalConfig.getOffHeapSegments(), globalConfig.getOffHeapInitialCapacity());
+        this.executorService = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tiny-security-offheap-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executorService.scheduleWithFixedDelay(() -> {
+            try {
+                int num = this.sessionTable.sweep(AuthClockHolder.currentTimeMillis());
+                if (num > 0 && log.isDebugEnabled()) {
+                    log.debug("OffHeapAuthProvider - refreshSession - expired num：{}", num);
+                }
+            } catch (Exception e2) {
+                log.error("OffHeapAuthProvider - refreshSession - Exception：{e2}", e2);
+            }
+        }, DATA_REFRESH_PERIOD/*首次延迟多长时间后执行*/, DATA_REFRESH_PERIOD/*间隔时间*/, TimeUnit.SECONDS);
+        log.info("OffHeapAuthProvider - refreshThread - init successful!");
+    }
+
+    /**
+     * 获取当前会话数
+     *
+     * @return 会话数
+     */
+    public long size() {
+        return this.sessionTable.size();
+    }
+
+    /**
+     * 获取已占用的直接内存 (单位: 字节)
+     *
+     * @return 字节数
+     */
+    public long memoryUsed() {
+        return this.sessionTable.memoryUsed();
+    }
+
+    /**
+     * 刷新token
+     *
+     * @param token 令牌
+     * @return true成功，false失败
+     */
+    @Override
+    public boolean refreshToken(String token) {
+        Assert.hasText(token, "The token cannot be empty!");
+        try {
+            long now = AuthClockHolder.currentTimeMillis();
+            return this.sessionTable.updateExpireTime(token, now + GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000L, now);
+        } catch (Exception e) {
+            log.error("OffHeapAuthProvider - refreshToken - failed，Exception：{e}", e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean refreshToken(String token, LoginSubject subject) {
+        Assert.hasText(token, "The token cannot be empty!");
+        try {
+            this.sessionTable.put(token, subject, AuthClockHolder.currentTimeMillis() + GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000L);
+            return true;
+        } catch (Exception e) {
+            log.error("OffHeapAuthProvider - refreshToken - failed，Exception：{e}", e);
+            return false;
+        }
+    }
+
+    /**
+     * 检查token是否失效
+     *
+     * @param token 令牌
+     * @return true有效，false已失效
+     */
+    @Override
+    public boolean checkToken(String token) {
+        Assert.hasText(token, "The token cannot be empty!");
+        try {
+            // 与OffHeapSessionTable.get一致：到期时间等于当前时间时仍有效
+            return this.sessionTable.getExpireTime(token) >= AuthClockHolder.currentTimeMillis();
+        } catch (Exception e) {
+            log.error("OffHeapAuthProvider - checkToken - failed，Exception：{e}", e);
+            return false;
+        }
+    }
+
+    @Override
+    public LoginSubject getSubject(String token) {
+        Assert.hasText(token, "The token cannot be empty!");
+        try {
+            return this.sessionTable.get(token, AuthClockHolder.currentTimeMillis());
+        } catch (Exception e) {
+            log.error("OffHeapAuthProvider - getSubject - failed，Exception：{e}", e);
+            return null;
+        }
+    }
+
+    /**
+     * 创建一个新的token
+     *
+     * @param loginId 会话登录：参数填写要登录的账号id，建议的数据类型：long | int | String， 不可以传入复杂类型，如：User、Admin 等等
+     * @return token
+     */
+    @Override
+    public String createToken(Object loginId) {
+        Assert.notNull(loginId, "The loginId cannot be null!");
+        try {
+            String token = TokenGenUtil.genTokenStr(GlobalConfigUtils.getGlobalConfig().getTokenStyle());
+            LoginSubject subject = LoginSubject.create(loginId, GlobalConfigUtils.getGlobalConfig().getTimeout());
+            this.sessionTable.put(token, subject, subject.getLoginExpireTime());
+            return token;
+        } catch (Exception e) {
+            log.error("OffHeapAuthProvider - createToken - failed，Exception：{e}", e);
+            return null;
+        }
+    }
+
+    /**
+     * 根据token，获取loginId
+     *
+     * @param token 令牌
+     * @return loginId
+     */
+    @Override
+    public Object getLoginId(String token) {
+        Assert.hasText(token, "The token cannot be empty!");
+        try {
+            LoginSubject subject = this.sessionTable.get(token, AuthClockHolder.currentTimeMillis());
+            return subject == null ? null : subject.getLoginId();
+        } catch (Exception e) {
+            log.error("OffHeapAuthProvider - getLoginId - failed，Exception：{e}", e);
+            return null;
+        }
+    }
+
+    /**
+     * 删除token
+     *
+     * @param token 令牌
+     * @return true成功，false失败
+     */
+    @Override
+    public boolean deleteToken(String token) {
+        Assert.hasText(token, "The token cannot be empty!");
+        try {
+            this.sessionTable.remove(token);
+            return true;
+        } catch (Exception e) {
+            log.error("OffHeapAuthProvider - deleteToken - failed，Exception：{e}", e);
+            return false;
+        }
+    }
+
+    /**
+     * 通过loginId删除token（逐段扫描堆外槽位）
+     *
+     * @param loginId 用户id
+     * @return true成功，false失败
+     */
+    @Override
+    public boolean deleteTokenByLoginId(Object loginId) {
+        Assert.notNull(loginId, "The loginId cannot be null!");
+        try {
+            this.sessionTable.removeByLoginId(loginId);
+            return true;
+        } catch (Exception e) {
+            log.error("OffHeapAuthProvider - deleteTokenByLoginId - failed，Exception：{e}", e);
+            return false;
+        }
+    }
+
+    /**
+     * 容器关闭时停止清理线程
+     */
+    @Override
+    public void destroy() {
+        this.executorService.shutdown();
+    }
+}
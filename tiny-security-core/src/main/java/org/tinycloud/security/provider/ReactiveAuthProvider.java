@@ -0,0 +1,84 @@
+package org.tinycloud.security.provider;
+
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import reactor.core.publisher.Mono;
+
+/**
+ * 操作token和会话的响应式接口（WebFlux下使用，方法均不阻塞调用线程）
+ *
+ * @author liuxingyu01
+ * @since 2024-10-18 10:05
+ **/
+public interface ReactiveAuthProvider {
+
+    /**
+     * 获取token
+     * @param request ServerHttpRequest
+     * @return token，不存在时返回null
+     */
+    String getToken(ServerHttpRequest request);
+
+    /**
+     * 刷新token
+     * @param token
+     * @return true成功，false失败
+     */
+    Mono<Boolean> refreshToken(String token);
+
+    /**
+     * 刷新token，并且重置用户
+     * @param token
+     * @param subject
+     * @return true成功，false失败
+     */
+    Mono<Boolean> refreshToken(String token, LoginSubject subject);
+
+    /**
+     * 检查token是否失效
+     * @param token
+     * @return true未失效，false已失效
+     */
+    Mono<Boolean> checkToken(String token);
+
+    /**
+     * 获取登录用户
+     * @param token
+     * @return 登录用户，token无效时为空
+     */
+    Mono<LoginSubject> getSubject(String token);
+
+    /**
+     * 获取登录用户，剩余有效时间不足时同时续期---会话过滤器每次请求调用
+     * @param token
+     * @return 登录用户，token无效时为空
+     */
+    Mono<LoginSubject> checkAndRefreshToken(String token);
+
+    /**
+     * 创建一个新的token
+     * @param loginId 会话登录：参数填写要登录的账号id，建议的数据类型：long | int | String， 不可以传入复杂类型，如：User、Admin 等等
+     * @return token
+     */
+    Mono<String> createToken(Object loginId);
+
+    /**
+     * 根据token，获取loginId
+     * @param token
+     * @return loginId，token无效时为空
+     */
+    Mono<Object> getLoginId(String token);
+
+    /**
+     * 删除token
+     * @param token
+     * @return true成功，false失败
+     */
+    Mono<Boolean> deleteToken(String token);
+
+    /**
+     * 通过loginId删除token---常用于主动让某人下线
+     * @param loginId
+     * @return true成功，false失败
+     */
+    Mono<Boolean> deleteTokenByLoginId(Object loginId);
+}
@@ -0,0 +1,98 @@
+package org.tinycloud.security.provider;
+
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.util.Assert;
+import org.tinycloud.security.config.GlobalConfigUtils;
+import org.tinycloud.security.util.ReactiveAuthUtil;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Callable;
+
+/**
+ * 将阻塞式的AuthProvider适配为ReactiveAuthProvider，用于没有响应式实现的存储方式
+ * 纯内存的存储（single、offheap）不会阻塞，直接在调用线程执行；其余存储（jdbc等）放到boundedElastic线程池中执行，不阻塞事件循环线程
+ *
+ * @author liuxingyu01
+ * @since 2024-10-18 10:50
+ **/
+public class ReactiveAuthProviderAdapter implements ReactiveAuthProvider {
+
+    private final AuthProvider authProvider;
+
+    private final Scheduler scheduler;
+
+    public ReactiveAuthProviderAdapter(AuthProvider authProvider) {
+        this(authProvider, authProvider instanceof SingleAuthProvider || authProvider instanceof OffHeapAuthProvider
+                ? Schedulers.immediate() : Schedulers.boundedElastic());
+    }
+
+    public ReactiveAuthProviderAdapter(AuthProvider authProvider, Scheduler scheduler) {
+        Assert.notNull(authProvider, "The authProvider cannot be null!");
+        Assert.notNull(scheduler, "The scheduler cannot be null!");
+        this.authProvider = authProvider;
+        this.scheduler = scheduler;
+    }
+
+    public AuthProvider getAuthProvider() {
+        return this.authProvider;
+    }
+
+    @Override
+    public String getToken(ServerHttpRequest request) {
+        return ReactiveAuthUtil.getToken(request, GlobalConfigUtils.getGlobalConfig().getTokenName());
+    }
+
+    @Override
+    public Mono<Boolean> refreshToken(String token) {
+        return this.call(() -> this.authProvider.refreshToken(token));
+    }
+
+    @Override
+    public Mono<Boolean> refreshToken(String token, LoginSubject subject) {
+        return this.call(() -> this.authProvider.refreshToken(token, subject));
+    }
+
+    @Override
+    public Mono<Boolean> checkToken(String token) {
+        return this.call(() -> this.authProvider.checkToken(token));
+    }
+
+    @Override
+    public Mono<LoginSubject> getSubject(String token) {
+        return this.call(() -> this.authProvider.getSubject(token));
+    }
+
+    @Override
+    public Mono<LoginSubject> checkAndRefreshToken(String token) {
+        return this.call(() -> this.authProvider.checkAndRefreshToken(token));
+    }
+
+    @Override
+    public Mono<String> createToken(Object loginId) {
+        return this.call(() -> this.authProvider.createToken(loginId));
+    }
+
+    @Override
+    public Mono<Object> getLoginId(String token) {
+        return this.call(() -> this.authProvider.getLoginId(token));
+    }
+
+    @Override
+    public Mono<Boolean> deleteToken(String token) {
+        return this.call(() -> this.authProvider.deleteToken(token));
+    }
+
+    @Override
+    public Mono<Boolean> deleteTokenByLoginId(Object loginId) {
+        return this.call(() -> this.authProvider.deleteTokenByLoginId(loginId));
+    }
+
+    /**
+     * 在指定的线程池中调用阻塞方法，返回null时为空
+     */
+    private <T> Mono<T> call(Callable<T> callable) {
+        return Mono.fromCallable(callable).subscribeOn(this.scheduler);
+    }
+}
@@ -0,0 +1,345 @@
+package org.tinycloud.security.provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisElementReader;
+import org.springframework.data.redis.serializer.RedisElementWriter;
+import org.springframework.data.redis.util.ByteUtils;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.util.Assert;
+import org.tinycloud.security.config.GlobalConfig;
+import org.tinycloud.security.config.GlobalConfigUtils;
+import org.tinycloud.security.consts.AuthConsts;
+import org.tinycloud.security.provider.redis.RedisSessionScripts;
+import org.tinycloud.security.util.JsonUtil;
+import org.tinycloud.security.util.ReactiveAuthUtil;
+import org.tinycloud.security.util.TokenGenUtil;
+import org.tinycloud.security.util.clock.AuthClockHolder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 操作token和会话的响应式接口（通过ReactiveStringRedisTemplate实现）
+ * 与RedisAuthProvider共用RedisSessionScripts，数据格式和key完全一致，同一个redis可以同时被Servlet和WebFlux应用使用；
+ * 不支持本地近端缓存，开启了pubsub方式的近端缓存时，删除或改写会话会发布失效消息通知RedisAuthProvider的各节点
+ *
+ * @author liuxingyu01
+ * @since 2024-10-18 10:10
+ **/
+public class ReactiveRedisAuthProvider implements ReactiveAuthProvider {
+    final static Logger log = LoggerFactory.getLogger(ReactiveRedisAuthProvider.class);
+
+    /**
+     * 续期的阈值，与AbstractAuthProvider一致
+     */
+    private static final double REFRESH_RATIO = AbstractAuthProvider.REFRESH_RATIO;
+
+    private final ReactiveStringRedisTemplate redisTemplate;
+
+    /**
+     * 会话脚本（按存储方式选择）
+     */
+    private final RedisSessionScripts scripts;
+
+    /**
+     * 是否需要发布近端缓存的失效消息
+     */
+    private final boolean publishInvalidation;
+
+    public ReactiveRedisAuthProvider(ReactiveStringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+        GlobalConfig globalConfig = GlobalConfigUtils.getGlobalConfig();
+        this.scripts = RedisSessionScripts.of(globalConfig);
+        this.publishInvalidation = globalConfig.isRedisNearCacheEnabled()
+                && !"tracking".equalsIgnoreCase(globalConfig.getRedisNearCacheInvalidation());
+    }
+
+    /**
+     * 获取token，先从Header里取，取不到的话再从cookie里取，最后从请求参数里取
+     *
+     * @param request ServerHttpRequest
+     * @return token
+     */
+    @Override
+    public String getToken(ServerHttpRequest request) {
+        return ReactiveAuthUtil.getToken(request, GlobalConfigUtils.getGlobalConfig().getTokenName());
+    }
+
+    /**
+     * 刷新token
+     *
+     * @param token 令牌
+     * @return true成功，false失败
+     */
+    @Override
+    public Mono<Boolean> refreshToken(String token) {
+        Assert.hasText(token, "The token cannot be empty!");
+        long ttl = GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000L;
+        return this.readLoginId(token)
+                .flatMap(loginId -> this.touch(token, loginId, ttl, AuthClockHolder.currentTimeMillis()))
+                .defaultIfEmpty(false)
+                .onErrorResume(e -> {
+                    log.error("ReactiveRedisAuthProvider refreshToken failed, Exception：{e}", e);
+                    return Mono.just(false);
+                });
+    }
+
+    /**
+     * 刷新token，并且重置用户
+     *
+     * @param token   令牌
+     * @param subject 登录用户
+     * @return true成功，false失败
+     */
+    @Override
+    public Mono<Boolean> refreshToken(String token, LoginSubject subject) {
+        Assert.hasText(token, "The token cannot be empty!");
+        return this.saveSubject(token, subject)
+                .then(this.invalidate(token))
+                .thenReturn(true)
+                .onErrorResume(e -> {
+                    log.error("ReactiveRedisAuthProvider refreshToken failed, Exception：{e}", e);
+                    return Mono.just(false);
+                });
+    }
+
+    /**
+     * 检查token是否失效
+     *
+     * @param token 令牌
+     * @return true未失效，false已失效
+     */
+    @Override
+    public Mono<Boolean> checkToken(String token) {
+        Assert.hasText(token, "The token cannot be empty!");
+        return this.redisTemplate.hasKey(this.scripts.tokenKey(token))
+                .onErrorResume(e -> {
+                    log.error("ReactiveRedisAuthProvider checkToken failed, Exception：{e}", e);
+                    return Mono.just(false);
+                });
+    }
+
+    /**
+     * 根据令牌获取登录用户
+     *
+     * @param token 令牌
+     * @return 登录用户，token无效时为空
+     */
+    @Override
+    public Mono<LoginSubject> getSubject(String token) {
+        Assert.hasText(token, "The token cannot be empty!");
+        return this.readSubject(token)
+                .onErrorResume(e -> {
+                    log.error("ReactiveRedisAuthProvider getSubject failed, Exception：{e}", e);
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * 获取登录用户，剩余有效时间不足时同时续期（Lua脚本，不需要续期时一次往返完成，续期时再执行一次INDEX_SCRIPT更新loginId索引）
+     *
+     * @param token 令牌
+     * @return 登录用户，token无效时为空
+     */
+    @Override
+    public Mono<LoginSubject> checkAndRefreshToken(String token) {
+        Assert.hasText(token, "The token cannot be empty!");
+        long ttl = GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000L;
+        long millsCritical = (long) Math.floor(ttl * REFRESH_RATIO);
+        return Mono.defer(() -> {
+            long now = AuthClockHolder.currentTimeMillis();
+            return this.redisTemplate.execute(this.scripts.checkAndRefreshScript(),
+                            this.scripts.checkAndRefreshKeys(token), this.scripts.checkAndRefreshArgs(ttl, millsCritical, now),
+                            this.redisTemplate.getSerializationContext().getStringSerializationPair().getWriter(),
+                            RedisElementReader.from(RedisSessionScripts.rawSerializer()))
+                    // 返回列表的脚本，Flux只发出一个元素（整个列表）
+                    .next()
+                    .flatMap(result -> {
+                        LoginSubject subject = this.scripts.parseCheckAndRefresh(result, now);
+                        if (subject == null) {
+                            return Mono.empty();
+                        }
+                        if (this.scripts.isRefreshed(result)) {
+                            return this.redisTemplate.execute(RedisSessionScripts.INDEX_SCRIPT, this.scripts.indexKeys(token, subject.getLoginId()),
+                                            this.scripts.indexArgs(token, now + ttl, ttl))
+                                    .then(Mono.just(subject));
+                        }
+                        return Mono.just(subject);
+                    });
+        }).onErrorResume(e -> {
+            log.error("ReactiveRedisAuthProvider checkAndRefreshToken failed, Exception：{e}", e);
+            return Mono.empty();
+        });
+    }
+
+    /**
+     * 创建一个新的token
+     *
+     * @param loginId 会话登录：参数填写要登录的账号id，建议的数据类型：long | int | String， 不可以传入复杂类型，如：User、Admin 等等
+     * @return token令牌
+     */
+    @Override
+    public Mono<String> createToken(Object loginId) {
+        Assert.notNull(loginId, "The loginId cannot be null!");
+        return Mono.defer(() -> {
+            String token = this.scripts.newToken(TokenGenUtil.genTokenStr(GlobalConfigUtils.getGlobalConfig().getTokenStyle()), loginId);
+            LoginSubject subject = LoginSubject.create(loginId, GlobalConfigUtils.getGlobalConfig().getTimeout());
+            return this.saveSubject(token, subject).thenReturn(token);
+        }).onErrorResume(e -> {
+            log.error("ReactiveRedisAuthProvider createToken failed, Exception：{e}", e);
+            return Mono.empty();
+        });
+    }
+
+    /**
+     * 根据token，获取loginId
+     *
+     * @param token 令牌
+     * @return loginId，token无效时为空
+     */
+    @Override
+    public Mono<Object> getLoginId(String token) {
+        Assert.hasText(token, "The token cannot be empty!");
+        return this.readLoginId(token)
+                .onErrorResume(e -> {
+                    log.error("ReactiveRedisAuthProvider getLoginId failed, Exception：{e}", e);
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * 删除token
+     *
+     * @param token 令牌
+     * @return true成功，false失败
+     */
+    @Override
+    public Mono<Boolean> deleteToken(String token) {
+        Assert.hasText(token, "The token cannot be empty!");
+        return this.redisTemplate.delete(this.scripts.tokenKey(token))
+                .flatMap(deleted -> this.invalidate(token).thenReturn(deleted > 0))
+                .onErrorResume(e -> {
+                    log.error("ReactiveRedisAuthProvider deleteToken failed, Exception：{e}", e);
+                    return Mono.just(false);
+                });
+    }
+
+    /**
+     * 通过loginId删除token（通过loginId索引查出该用户的全部token，一次DEL删除全部会话和索引本身）
+     *
+     * @param loginId 身份唯一值
+     * @return true成功，false失败
+     */
+    @Override
+    public Mono<Boolean> deleteTokenByLoginId(Object loginId) {
+        Assert.notNull(loginId, "The loginId cannot be null!");
+        return Flux.fromIterable(this.scripts.loginKeys(loginId))
+                .concatMap(loginKey -> this.redisTemplate.opsForZSet().range(loginKey, Range.unbounded())
+                        .collectList()
+                        .flatMap(tokens -> {
+                            Flux<String> keys = Flux.fromIterable(tokens)
+                                    .map(this.scripts::tokenKey)
+                                    .concatWithValues(loginKey);
+                            return this.redisTemplate.delete(keys)
+                                    .then(this.invalidate(tokens.toArray(new String[0])));
+                        }))
+                .then(Mono.just(true))
+                .onErrorResume(e -> {
+                    log.error("ReactiveRedisAuthProvider deleteTokenByLoginId failed, Exception：{e}", e);
+                    return Mono.just(false);
+                });
+    }
+
+    /**
+     * 读取会话（字符串方式同时读取key的剩余有效时间，修正续期后的到期时间）
+     *
+     * @param token 令牌
+     * @return 登录用户，不存在时为空
+     */
+    private Mono<LoginSubject> readSubject(String token) {
+        String key = this.scripts.tokenKey(token);
+        if (!this.scripts.isHashMode()) {
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            return Mono.defer(() -> {
+                long now = AuthClockHolder.currentTimeMillis();
+                return this.redisTemplate.createMono(connection -> Mono.zip(connection.stringCommands().get(ByteBuffer.wrap(rawKey)),
+                                connection.keyCommands().pTtl(ByteBuffer.wrap(rawKey))))
+                        .flatMap(value -> Mono.justOrEmpty(this.scripts.withPttl(this.scripts.decode(ByteUtils.getBytes(value.getT1())), value.getT2(), now)));
+            });
+        }
+        return this.redisTemplate.<String, String>opsForHash().multiGet(key,
+                        Arrays.asList(RedisSessionScripts.FIELD_LOGIN_ID, RedisSessionScripts.FIELD_LOGIN_TIME, RedisSessionScripts.FIELD_LOGIN_EXPIRE_TIME))
+                .flatMap(values -> Mono.justOrEmpty(RedisSessionScripts.toSubject(values.get(0), values.get(1), values.get(2))));
+    }
+
+    /**
+     * 读取会话的loginId（HASH方式下只读取loginId字段）
+     *
+     * @param token 令牌
+     * @return loginId，不存在时为空
+     */
+    private Mono<Object> readLoginId(String token) {
+        if (!this.scripts.isHashMode()) {
+            return this.readSubject(token).flatMap(subject -> Mono.justOrEmpty(subject.getLoginId()));
+        }
+        return this.redisTemplate.<String, String>opsForHash().get(this.scripts.tokenKey(token), RedisSessionScripts.FIELD_LOGIN_ID)
+                .flatMap(loginId -> Mono.justOrEmpty(JsonUtil.readValue(loginId, Object.class)));
+    }
+
+    /**
+     * 延长会话有效期并同步更新loginId索引
+     *
+     * @param token   令牌
+     * @param loginId 身份唯一值
+     * @param ttl     有效时间 (单位: 毫秒)
+     * @param now     当前时间 (单位: 毫秒)
+     * @return true成功，false会话不存在
+     */
+    private Mono<Boolean> touch(String token, Object loginId, long ttl, long now) {
+        return this.redisTemplate.execute(this.scripts.touchScript(), this.scripts.touchKeys(token, loginId),
+                        this.scripts.touchArgs(token, loginId, ttl, now))
+                .next()
+                .map(result -> result == 1L)
+                .defaultIfEmpty(false);
+    }
+
+    /**
+     * 原子地保存会话并维护loginId索引
+     *
+     * @param token   令牌
+     * @param subject 登录用户
+     * @return 完成信号
+     */
+    private Mono<Void> saveSubject(String token, LoginSubject subject) {
+        return Mono.defer(() -> {
+            return this.redisTemplate.execute(this.scripts.saveScript(), this.scripts.saveKeys(token, subject),
+                            Arrays.asList(this.scripts.saveArgs(token, subject, AuthClockHolder.currentTimeMillis())),
+                            RedisElementWriter.from(RedisSessionScripts.rawSerializer()), RedisElementReader.from(RedisSessionScripts.<Long>rawSerializer()))
+                    .then();
+        });
+    }
+
+    /**
+     * 通知RedisAuthProvider的各节点使近端缓存失效，发布失败时其他节点的缓存最多在本地缓存时长后过期
+     *
+     * @param tokens 令牌
+     * @return 完成信号
+     */
+    private Mono<Void> invalidate(String... tokens) {
+        if (!this.publishInvalidation || tokens.length == 0) {
+            return Mono.empty();
+        }
+        return this.redisTemplate.convertAndSend(AuthConsts.AUTH_INVALIDATE_CHANNEL, String.join(",", tokens))
+                .onErrorResume(e -> {
+                    log.error("ReactiveRedisAuthProvider publish invalidation failed, Exception：{e}", e);
+                    return Mono.empty();
+                })
+                .then();
+    }
+}
@@ -1,33 +1,314 @@
 package org.tinycloud.security.provider;
 
 
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import org.tinycloud.security.config.GlobalConfig;
 import org.tinycloud.security.config.GlobalConfigUtils;
 import org.tinycloud.security.consts.AuthConsts;
+import org.tinycloud.security.interfaces.SessionEventListener;
 import org.tinycloud.security.util.JsonUtil;
 import org.tinycloud.security.util.TokenGenUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.tinycloud.security.provider.redis.ClientTrackingListener;
+import org.tinycloud.security.provider.redis.NearCache;
+import org.tinycloud.security.provider.redis.RedisCircuitBreaker;
+import org.tinycloud.security.provider.redis.RedisSessionScripts;
+import org.tinycloud.security.provider.redis.SessionEventSubscriber;
+import org.tinycloud.security.util.clock.AuthClockHolder;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 
 /**
  * 操作token和会话的接口（通过redis实现）
+ * 会话可以存为JSON字符串（string）或HASH（hash，字段级读写，续期时只改写到期时间字段），
+ * 可选开启本地近端缓存，getSubject、checkToken、checkAndRefreshToken优先读本地缓存，删除或改写会话时通知各节点失效；
+ * 可选开启熔断器，redis卡顿或不可用时停止访问redis，读操作按降级方式直接失败或使用最近校验通过的会话，写操作直接失败
  *
  * @author liuxingyu01
  * @version 2023-01-06-9:33
  **/
-public class RedisAuthProvider extends AbstractAuthProvider implements AuthProvider {
+public class RedisAuthProvider extends AbstractAuthProvider implements AuthProvider, DisposableBean {
     final static Logger log = LoggerFactory.getLogger(RedisAuthProvider.class);
 
     private final StringRedisTemplate redisTemplate;
 
+    /**
+     * 本地近端缓存，未开启时为null
+     */
+    private final NearCache nearCache;
+
+    /**
+     * pubsub失效方式下订阅失效消息的容器
+     */
+    private RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * tracking失效方式下的客户端跟踪监听
+     */
+    private ClientTrackingListener trackingListener;
+
+    /**
+     * 会话脚本（按存储方式选择）
+     */
+    private final RedisSessionScripts scripts;
+
+    /**
+     * 是否连接的Redis Cluster（批量操作按slot分组）
+     */
+    private final boolean clusterMode;
+
+    /**
+     * 会话事件订阅，没有开启时为null
+     */
+    private SessionEventSubscriber eventSubscriber;
+
+    /**
+     * 熔断器，没有开启时为null
+     */
+    private final RedisCircuitBreaker circuitBreaker;
+
+    /**
+     * 熔断时使用的最近校验通过的会话，soft降级方式下才有
+     */
+    private final NearCache fallbackCache;
+
     public RedisAuthProvider(StringRedisTemplate redisTemplate) {
+        this(redisTemplate, Collections.emptyList());
+    }
+
+    /**
+     * 创建redis存储，并指定会话事件的监听
+     *
+     * @param redisTemplate         redisTemplate
+     * @param sessionEventListeners 会话事件监听，开启redis-session-events时回调
+     */
+    public RedisAuthProvider(StringRedisTemplate redisTemplate, List<SessionEventListener> sessionEventListeners) {
         this.redisTemplate = redisTemplate;
+        GlobalConfig globalConfig = GlobalConfigUtils.getGlobalConfig();
+        this.scripts = RedisSessionScripts.of(globalConfig);
+        this.clusterMode = this.isClusterConnection();
+        if (this.clusterMode && !this.scripts.isClusterHashTag()) {
+            log.warn("RedisAuthProvider is connected to a redis cluster without redis-cluster-hash-tag, the session and its loginId index may be in different slots");
+        }
+        this.loadScripts();
+        if (globalConfig.isRedisNearCacheEnabled()) {
+            this.nearCache = new NearCache(globalConfig.getRedisNearCacheMaxSize(), globalConfig.getRedisNearCacheTtl());
+            this.startInvalidationListener(globalConfig.getRedisNearCacheInvalidation());
+        } else {
+            this.nearCache = null;
+        }
+        if (globalConfig.isRedisCircuitBreakerEnabled()) {
+            this.circuitBreaker = new RedisCircuitBreaker(globalConfig.getRedisCircuitBreakerWindowSize(), globalConfig.getRedisCircuitBreakerFailureRateThreshold(),
+                    globalConfig.getRedisCircuitBreakerSlowCallThreshold(), globalConfig.getRedisCircuitBreakerOpenDuration());
+            boolean soft = "soft".equalsIgnoreCase(globalConfig.getRedisCircuitBreakerFailMode());
+            this.fallbackCache = soft ? new NearCache(globalConfig.getRedisNearCacheMaxSize(), globalConfig.getRedisCircuitBreakerFallbackTtl()) : null;
+            log.info("RedisAuthProvider circuit breaker is running, fail mode: {}", soft ? "soft" : "closed");
+        } else {
+            this.circuitBreaker = null;
+            this.fallbackCache = null;
+        }
+        if (this.scripts.isSessionEvents()) {
+            if (this.clusterMode) {
+                log.warn("RedisAuthProvider session events are not supported on a redis cluster, keyspace notifications are only published on the node that owns the key");
+            } else {
+                this.eventSubscriber = SessionEventSubscriber.start(redisTemplate, this.scripts, sessionEventListeners, this.nearCache,
+                        globalConfig.isRedisSessionEventsConfigure());
+                log.info("RedisAuthProvider session events are running, listeners: {}", sessionEventListeners.size());
+            }
+        }
+    }
+
+    /**
+     * 开始监听近端缓存的失效消息，配置为tracking但客户端不支持时退回pubsub
+     *
+     * @param invalidation 失效方式
+     */
+    private void startInvalidationListener(String invalidation) {
+        RedisConnectionFactory connectionFactory = this.redisTemplate.getRequiredConnectionFactory();
+        if ("tracking".equalsIgnoreCase(invalidation)) {
+            this.trackingListener = ClientTrackingListener.start(connectionFactory, this.scripts, this.nearCache);
+            if (this.trackingListener != null) {
+                log.info("RedisAuthProvider near cache is running, invalidation: tracking");
+                return;
+            }
+            log.warn("RedisAuthProvider client tracking is not supported by the current redis client, fall back to pubsub");
+        }
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener((message, pattern) -> {
+            for (String token : new String(message.getBody(), StandardCharsets.UTF_8).split(",")) {
+                if (!token.isEmpty()) {
+                    this.invalidateLocal(token);
+                }
+            }
+        }, new ChannelTopic(AuthConsts.AUTH_INVALIDATE_CHANNEL));
+        container.afterPropertiesSet();
+        container.start();
+        this.listenerContainer = container;
+        log.info("RedisAuthProvider near cache is running, invalidation: pubsub");
+    }
+
+    /**
+     * 获取本地近端缓存（可从中读取命中率等统计数据）
+     *
+     * @return 近端缓存，未开启时返回null
+     */
+    public NearCache getNearCache() {
+        return this.nearCache;
+    }
+
+    /**
+     * 获取熔断器（可从中读取状态和计数）
+     *
+     * @return 熔断器，未开启时返回null
+     */
+    public RedisCircuitBreaker getCircuitBreaker() {
+        return this.circuitBreaker;
+    }
+
+    /**
+     * 获取熔断时使用的会话缓存
+     *
+     * @return 会话缓存，未开启熔断器或降级方式不是soft时返回null
+     */
+    public NearCache getFallbackCache() {
+        return this.fallbackCache;
+    }
+
+    /**
+     * 经过熔断器访问redis，整个操作记为一次调用
+     *
+     * @param operation 访问redis的操作
+     * @param rejected  熔断器拒绝时的返回值
+     * @param timed     是否统计耗时（批量操作的耗时与数量有关，不判断慢调用）
+     * @return 操作的返回值，拒绝时为rejected的返回值
+     */
+    private <T> T guard(Supplier<T> operation, Supplier<T> rejected, boolean timed) {
+        if (this.circuitBreaker == null) {
+            return operation.get();
+        }
+        long permit = this.circuitBreaker.tryAcquire();
+        if (permit == RedisCircuitBreaker.REJECTED) {
+            return rejected.get();
+        }
+        long start = timed ? System.nanoTime() : -1L;
+        try {
+            T result = operation.get();
+            this.circuitBreaker.onSuccess(permit, start);
+            return result;
+        } catch (RuntimeException e) {
+            this.circuitBreaker.onError(permit);
+            throw e;
+        }
+    }
+
+    /**
+     * 熔断时读取最近校验通过的会话
+     *
+     * @param token 令牌
+     * @return 登录用户，没有时返回null
+     */
+    private LoginSubject fallback(String token) {
+        return this.fallbackCache == null ? null : this.fallbackCache.get(token);
+    }
+
+    /**
+     * 记录校验通过的会话，熔断时使用
+     */
+    private void putFallback(String token, LoginSubject subject, long stamp) {
+        if (this.fallbackCache != null && subject != null) {
+            this.fallbackCache.put(token, subject, stamp);
+        }
+    }
+
+    private long fallbackStamp() {
+        return this.fallbackCache == null ? 0L : this.fallbackCache.stamp();
+    }
+
+    /**
+     * 使本节点的缓存失效（近端缓存和熔断时使用的会话缓存）
+     *
+     * @param token 令牌
+     */
+    private void invalidateLocal(String token) {
+        if (this.nearCache != null) {
+            this.nearCache.invalidate(token);
+        }
+        if (this.fallbackCache != null) {
+            this.fallbackCache.invalidate(token);
+        }
+    }
+
+    /**
+     * 使本地缓存失效，pubsub方式下同时通知其他节点（tracking方式下由redis推送，不需要发布）
+     *
+     * @param tokens 令牌
+     */
+    private void invalidate(Collection<String> tokens) {
+        if (tokens.isEmpty()) {
+            return;
+        }
+        for (String token : tokens) {
+            this.invalidateLocal(token);
+        }
+        if (this.listenerContainer != null) {
+            try {
+                this.redisTemplate.convertAndSend(AuthConsts.AUTH_INVALIDATE_CHANNEL, String.join(",", tokens));
+            } catch (Exception e) {
+                // 会话已经写入成功，其他节点的缓存最多在本地缓存时长后过期
+                log.error("RedisAuthProvider publish invalidation failed, Exception：{e}", e);
+            }
+        }
+    }
+
+    /**
+     * 当前连接是否为Redis Cluster
+     */
+    private boolean isClusterConnection() {
+        try {
+            return Boolean.TRUE.equals(this.redisTemplate.execute((RedisCallback<Boolean>) connection -> connection instanceof RedisClusterConnection));
+        } catch (Exception e) {
+            log.warn("RedisAuthProvider isClusterConnection failed, Exception：{}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 预先通过SCRIPT LOAD加载脚本，之后都以EVALSHA执行，只传递脚本的SHA1（未加载时RedisTemplate会自动退回EVAL）
+     */
+    private void loadScripts() {
+        try {
+            this.redisTemplate.execute((RedisCallback<Object>) connection -> {
+                for (RedisScript<?> script : this.scripts.all()) {
+                    connection.scriptingCommands().scriptLoad(script.getScriptAsString().getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("RedisAuthProvider loadScripts failed, scripts will be loaded on first use, Exception：{}", e.getMessage());
+        }
     }
 
     /**
@@ -40,7 +321,21 @@ public class RedisAuthProvider extends AbstractAuthProvider implements AuthProvi
     public boolean refreshToken(String token) {
         Assert.hasText(token, "The token cannot be empty!");
         try {
-            return this.redisTemplate.expire(AuthConsts.AUTH_TOKEN_KEY + token, GlobalConfigUtils.getGlobalConfig().getTimeout(), TimeUnit.SECONDS);
+            long ttl = GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000L;
+            return this.guard(() -> {
+                // 需要先取出loginId，才能同步更新索引中的到期时间
+                Object loginId = this.readLoginId(token);
+                if (loginId == null) {
+                    return false;
+                }
+                Long result = this.redisTemplate.execute(this.scripts.touchScript(), this.scripts.touchKeys(token, loginId),
+                        this.scripts.touchArgs(token, loginId, ttl, AuthClockHolder.currentTimeMillis()).toArray());
+                // 只延长了有效期，其他节点缓存的到期时间偏早，不影响正确性，不需要通知
+                if (this.nearCache != null) {
+                    this.nearCache.invalidate(token);
+                }
+                return Objects.equals(result, 1L);
+            }, () -> false, true);
         } catch (Exception e) {
             log.error("RedisAuthProvider refreshToken failed, Exception：{e}", e);
             return false;
@@ -58,8 +353,11 @@ public class RedisAuthProvider extends AbstractAuthProvider implements AuthProvi
     public boolean refreshToken(String token, LoginSubject subject) {
         Assert.hasText(token, "The token cannot be empty!");
         try {
-            this.redisTemplate.opsForValue().set(AuthConsts.AUTH_TOKEN_KEY + token, JsonUtil.writeValueAsString(subject), GlobalConfigUtils.getGlobalConfig().getTimeout(), TimeUnit.SECONDS);
-            return true;
+            return this.guard(() -> {
+                this.saveSubject(token, subject);
+                this.invalidate(Collections.singletonList(token));
+                return true;
+            }, () -> false, true);
         } catch (Exception e) {
             log.error("RedisAuthProvider refreshToken failed, Exception：{e}", e);
             return false;
@@ -76,7 +374,10 @@ public class RedisAuthProvider extends AbstractAuthProvider implements AuthProvi
     public boolean checkToken(String token) {
         Assert.hasText(token, "The token cannot be empty!");
         try {
-            return this.redisTemplate.hasKey(AuthConsts.AUTH_TOKEN_KEY + token);
+            if (this.nearCache != null && this.nearCache.get(token) != null) {
+                return true;
+            }
+            return this.guard(() -> this.redisTemplate.hasKey(this.scripts.tokenKey(token)), () -> this.fallback(token) != null, true);
         } catch (Exception e) {
             log.error("RedisAuthProvider checkToken failed, Exception：{e}", e);
             return false;
@@ -93,8 +394,20 @@ public class RedisAuthProvider extends AbstractAuthProvider implements AuthProvi
     public LoginSubject getSubject(String token) {
         Assert.hasText(token, "The token cannot be empty!");
         try {
-            String content = this.redisTemplate.opsForValue().get(AuthConsts.AUTH_TOKEN_KEY + token);
-            return JsonUtil.readValue(content, LoginSubject.class);
+            LoginSubject cached = this.nearCache == null ? null : this.nearCache.get(token);
+            if (cached != null) {
+                return cached;
+            }
+            return this.guard(() -> {
+                long stamp = this.nearCache == null ? 0L : this.nearCache.stamp();
+                long fallbackStamp = this.fallbackStamp();
+                LoginSubject subject = this.readSubject(token);
+                if (this.nearCache != null) {
+                    this.nearCache.put(token, subject, stamp);
+                }
+                this.putFallback(token, subject, fallbackStamp);
+                return subject;
+            }, () -> this.fallback(token), true);
         } catch (Exception e) {
             log.error("RedisAuthProvider getSubject failed, Exception：{e}", e);
             return null;
@@ -102,6 +415,52 @@ public class RedisAuthProvider extends AbstractAuthProvider implements AuthProvi
     }
 
 
+    /**
+     * 获取登录用户，剩余有效时间不足时同时续期（Lua脚本，不需要续期时一次往返完成，续期时再执行一次INDEX_SCRIPT更新loginId索引）
+     *
+     * @param token 令牌
+     * @return 登录用户，token无效时返回null
+     */
+    @Override
+    public LoginSubject checkAndRefreshToken(String token) {
+        Assert.hasText(token, "The token cannot be empty!");
+        try {
+            long ttl = GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000L;
+            long now = AuthClockHolder.currentTimeMillis();
+            long millsCritical = (long) Math.floor(ttl * REFRESH_RATIO);
+            if (this.nearCache != null) {
+                // 本地缓存命中且不需要续期时，不访问redis
+                LoginSubject cached = this.nearCache.get(token);
+                if (cached != null && cached.getLoginExpireTime() != null && cached.getLoginExpireTime() - now > millsCritical) {
+                    return cached;
+                }
+            }
+            return this.guard(() -> {
+                long stamp = this.nearCache == null ? 0L : this.nearCache.stamp();
+                long fallbackStamp = this.fallbackStamp();
+                List<?> result = this.redisTemplate.execute(this.scripts.checkAndRefreshScript(),
+                        this.redisTemplate.getStringSerializer(), RedisSessionScripts.rawSerializer(),
+                        this.scripts.checkAndRefreshKeys(token), this.scripts.checkAndRefreshArgs(ttl, millsCritical, now).toArray());
+                LoginSubject subject = this.scripts.parseCheckAndRefresh(result, now);
+                if (subject == null) {
+                    return null;
+                }
+                if (this.scripts.isRefreshed(result)) {
+                    this.redisTemplate.execute(RedisSessionScripts.INDEX_SCRIPT, this.scripts.indexKeys(token, subject.getLoginId()),
+                            this.scripts.indexArgs(token, now + ttl, ttl).toArray());
+                }
+                if (this.nearCache != null) {
+                    this.nearCache.put(token, subject, stamp);
+                }
+                this.putFallback(token, subject, fallbackStamp);
+                return subject;
+            }, () -> this.fallback(token), true);
+        } catch (Exception e) {
+            log.error("RedisAuthProvider checkAndRefreshToken failed, Exception：{e}", e);
+            return null;
+        }
+    }
+
     /**
      * 创建一个新的token
      *
@@ -112,14 +471,16 @@ public class RedisAuthProvider extends AbstractAuthProvider implements AuthProvi
     public String createToken(Object loginId) {
         Assert.notNull(loginId, "The loginId cannot be null!");
         try {
-            String token = TokenGenUtil.genTokenStr(GlobalConfigUtils.getGlobalConfig().getTokenStyle());
-            LoginSubject subject = new LoginSubject();
-            subject.setLoginId(loginId);
-            long currentTime = System.currentTimeMillis();
-            subject.setLoginTime(currentTime);
-            subject.setLoginExpireTime(currentTime + GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000L);
-            this.redisTemplate.opsForValue().set(AuthConsts.AUTH_TOKEN_KEY + token, JsonUtil.writeValueAsString(subject), GlobalConfigUtils.getGlobalConfig().getTimeout(), TimeUnit.SECONDS);
-            return token;
+            String token = this.scripts.newToken(TokenGenUtil.genTokenStr(GlobalConfigUtils.getGlobalConfig().getTokenStyle()), loginId);
+            LoginSubject subject = LoginSubject.create(loginId, GlobalConfigUtils.getGlobalConfig().getTimeout());
+            return this.guard(() -> {
+                this.saveSubject(token, subject);
+                if (this.nearCache != null) {
+                    this.nearCache.put(token, subject, this.nearCache.stamp());
+                }
+                this.putFallback(token, subject, this.fallbackStamp());
+                return token;
+            }, () -> null, true);
         } catch (Exception e) {
             log.error("RedisAuthProvider createToken failed, Exception：{e}", e);
             return null;
@@ -137,8 +498,7 @@ public class RedisAuthProvider extends AbstractAuthProvider implements AuthProvi
     public Object getLoginId(String token) {
         Assert.hasText(token, "The token cannot be empty!");
         try {
-            String content = this.redisTemplate.opsForValue().get(AuthConsts.AUTH_TOKEN_KEY + token);
-            return JsonUtil.readValue(content, LoginSubject.class).getLoginId();
+            return this.getSubject(token).getLoginId();
         } catch (Exception e) {
             log.error("RedisAuthProvider getLoginId failed, Exception：{e}", e);
             return null;
@@ -146,7 +506,347 @@ public class RedisAuthProvider extends AbstractAuthProvider implements AuthProvi
     }
 
     /**
-     * 删除token
+     * 读取会话（字符串方式同时读取key的剩余有效时间，修正续期后的到期时间）
+     *
+     * @param token 令牌
+     * @return 登录用户，不存在时返回null
+     */
+    private LoginSubject readSubject(String token) {
+        String key = this.scripts.tokenKey(token);
+        if (!this.scripts.isHashMode()) {
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            long now = AuthClockHolder.currentTimeMillis();
+            List<Object> values = this.redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                connection.stringCommands().get(rawKey);
+                connection.keyCommands().pTtl(rawKey);
+                return null;
+            }, RedisSessionScripts.rawSerializer());
+            return this.scripts.withPttl(this.scripts.decode((byte[]) values.get(0)), values.get(1), now);
+        }
+        List<Object> values = this.redisTemplate.opsForHash().multiGet(key,
+                Arrays.asList(RedisSessionScripts.FIELD_LOGIN_ID, RedisSessionScripts.FIELD_LOGIN_TIME, RedisSessionScripts.FIELD_LOGIN_EXPIRE_TIME));
+        return RedisSessionScripts.toSubject(values.get(0), values.get(1), values.get(2));
+    }
+
+    /**
+     * 读取会话的loginId（HASH方式下只读取loginId字段）
+     *
+     * @param token 令牌
+     * @return loginId，不存在时返回null
+     */
+    private Object readLoginId(String token) {
+        if (!this.scripts.isHashMode()) {
+            LoginSubject subject = this.readSubject(token);
+            return subject == null ? null : subject.getLoginId();
+        }
+        Object loginId = this.redisTemplate.opsForHash().get(this.scripts.tokenKey(token), RedisSessionScripts.FIELD_LOGIN_ID);
+        return loginId == null ? null : JsonUtil.readValue((String) loginId, Object.class);
+    }
+
+    private List<String> tokenKeys(List<String> tokens) {
+        List<String> keys = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            keys.add(this.scripts.tokenKey(token));
+        }
+        return keys;
+    }
+
+    /**
+     * 原子地保存会话并维护loginId索引
+     *
+     * @param token   令牌
+     * @param subject 登录用户
+     */
+    private void saveSubject(String token, LoginSubject subject) {
+        this.redisTemplate.execute(this.scripts.saveScript(), RedisSessionScripts.rawSerializer(), RedisSessionScripts.rawSerializer(),
+                this.scripts.saveKeys(token, subject), (Object[]) this.scripts.saveArgs(token, subject, AuthClockHolder.currentTimeMillis()));
+    }
+
+    /**
+     * 批量保存会话，以pipeline执行EVALSHA，redis重启导致脚本缓存丢失时重新加载后重试一次（保存是幂等的）
+     *
+     * @param tokens   令牌
+     * @param subjects 与令牌一一对应的登录用户
+     */
+    private void saveSubjects(List<String> tokens, List<LoginSubject> subjects) {
+        String sha1 = this.scripts.saveScript().getSha1();
+        long now = AuthClockHolder.currentTimeMillis();
+        RedisCallback<Object> callback = connection -> {
+            for (int i = 0; i < tokens.size(); i++) {
+                List<String> keys = this.scripts.saveKeys(tokens.get(i), subjects.get(i));
+                byte[][] args = this.scripts.saveArgs(tokens.get(i), subjects.get(i), now);
+                byte[][] keysAndArgs = new byte[keys.size() + args.length][];
+                for (int j = 0; j < keys.size(); j++) {
+                    keysAndArgs[j] = keys.get(j).getBytes(StandardCharsets.UTF_8);
+                }
+                System.arraycopy(args, 0, keysAndArgs, keys.size(), args.length);
+                connection.scriptingCommands().evalSha(sha1, ReturnType.INTEGER, keys.size(), keysAndArgs);
+            }
+            return null;
+        };
+        try {
+            this.redisTemplate.executePipelined(callback);
+        } catch (RuntimeException e) {
+            if (!isNoScriptError(e)) {
+                throw e;
+            }
+            this.loadScripts();
+            this.redisTemplate.executePipelined(callback);
+        }
+    }
+
+    private static boolean isNoScriptError(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 批量检查token是否失效（近端缓存未命中的token以pipeline执行EXISTS）
+     *
+     * @param tokens 令牌集合
+     * @return 每个token是否有效
+     */
+    @Override
+    public Map<String, Boolean> checkTokens(Collection<String> tokens) {
+        Assert.notNull(tokens, "The tokens cannot be null!");
+        Map<String, Boolean> result = new LinkedHashMap<>(tokens.size() * 4 / 3 + 1);
+        List<String> misses = new ArrayList<>();
+        for (String token : tokens) {
+            if (!StringUtils.hasText(token)) {
+                result.put(token, false);
+            } else if (this.nearCache != null && this.nearCache.get(token) != null) {
+                result.put(token, true);
+            } else {
+                result.put(token, false);
+                misses.add(token);
+            }
+        }
+        try {
+            for (List<String> batch : this.partition(misses)) {
+                List<Object> exists = this.guard(() -> this.redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    for (String token : batch) {
+                        connection.keyCommands().exists(this.scripts.tokenKey(token).getBytes(StandardCharsets.UTF_8));
+                    }
+                    return null;
+                }), () -> null, false);
+                for (int i = 0; i < batch.size(); i++) {
+                    result.put(batch.get(i), exists == null ? this.fallback(batch.get(i)) != null : Boolean.TRUE.equals(exists.get(i)));
+                }
+            }
+        } catch (Exception e) {
+            log.error("RedisAuthProvider checkTokens failed, Exception：{e}", e);
+        }
+        return result;
+    }
+
+    /**
+     * 批量获取登录用户（近端缓存未命中的token，字符串方式以MGET读取，HASH方式以pipeline执行HMGET）
+     *
+     * @param tokens 令牌集合
+     * @return token到登录用户的映射，无效的token不在其中
+     */
+    @Override
+    public Map<String, LoginSubject> getSubjects(Collection<String> tokens) {
+        Assert.notNull(tokens, "The tokens cannot be null!");
+        Map<String, LoginSubject> result = new LinkedHashMap<>(tokens.size() * 4 / 3 + 1);
+        List<String> misses = new ArrayList<>();
+        for (String token : tokens) {
+            if (!StringUtils.hasText(token)) {
+                continue;
+            }
+            LoginSubject subject = this.nearCache == null ? null : this.nearCache.get(token);
+            // 先占位，保持传入顺序
+            result.put(token, subject);
+            if (subject == null) {
+                misses.add(token);
+            }
+        }
+        try {
+            for (List<String> batch : this.partition(misses)) {
+                long stamp = this.nearCache == null ? 0L : this.nearCache.stamp();
+                long fallbackStamp = this.fallbackStamp();
+                List<LoginSubject> subjects = this.guard(() -> this.readSubjects(batch), () -> null, false);
+                for (int i = 0; i < batch.size(); i++) {
+                    if (subjects == null) {
+                        result.put(batch.get(i), this.fallback(batch.get(i)));
+                        continue;
+                    }
+                    LoginSubject subject = subjects.get(i);
+                    result.put(batch.get(i), subject);
+                    if (subject != null && this.nearCache != null) {
+                        this.nearCache.put(batch.get(i), subject, stamp);
+                    }
+                    this.putFallback(batch.get(i), subject, fallbackStamp);
+                }
+            }
+        } catch (Exception e) {
+            log.error("RedisAuthProvider getSubjects failed, Exception：{e}", e);
+        }
+        result.values().removeIf(Objects::isNull);
+        return result;
+    }
+
+    /**
+     * 批量读取会话（字符串方式每个token管道读取GET和PTTL，修正续期后的到期时间）
+     *
+     * @param tokens 令牌
+     * @return 与令牌一一对应的登录用户，不存在时为null
+     */
+    private List<LoginSubject> readSubjects(List<String> tokens) {
+        List<LoginSubject> subjects = new ArrayList<>(tokens.size());
+        if (!this.scripts.isHashMode()) {
+            long now = AuthClockHolder.currentTimeMillis();
+            List<Object> values = this.redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : this.tokenKeys(tokens)) {
+                    byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+                    connection.stringCommands().get(rawKey);
+                    connection.keyCommands().pTtl(rawKey);
+                }
+                return null;
+            }, RedisSessionScripts.rawSerializer());
+            for (int i = 0; i < tokens.size(); i++) {
+                subjects.add(this.scripts.withPttl(this.scripts.decode((byte[]) values.get(2 * i)), values.get(2 * i + 1), now));
+            }
+            return subjects;
+        }
+        byte[][] fields = {RedisSessionScripts.FIELD_LOGIN_ID.getBytes(StandardCharsets.UTF_8),
+                RedisSessionScripts.FIELD_LOGIN_TIME.getBytes(StandardCharsets.UTF_8),
+                RedisSessionScripts.FIELD_LOGIN_EXPIRE_TIME.getBytes(StandardCharsets.UTF_8)};
+        List<Object> rows = this.redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String token : tokens) {
+                connection.hashCommands().hMGet(this.scripts.tokenKey(token).getBytes(StandardCharsets.UTF_8), fields);
+            }
+            return null;
+        });
+        for (Object row : rows) {
+            List<?> values = (List<?>) row;
+            subjects.add(values == null ? null : RedisSessionScripts.toSubject(values.get(0), values.get(1), values.get(2)));
+        }
+        return subjects;
+    }
+
+    /**
+     * 批量删除token（每批一次DEL，索引中残留的token会在到期后被惰性清理）
+     *
+     * @param tokens 令牌集合
+     * @return true成功，false失败
+     */
+    @Override
+    public boolean deleteTokens(Collection<String> tokens) {
+        Assert.notNull(tokens, "The tokens cannot be null!");
+        try {
+            List<String> valid = new ArrayList<>(tokens.size());
+            for (String token : tokens) {
+                if (StringUtils.hasText(token)) {
+                    valid.add(token);
+                }
+            }
+            for (List<String> batch : this.partition(valid)) {
+                boolean done = this.guard(() -> {
+                    this.redisTemplate.delete(this.tokenKeys(batch));
+                    this.invalidate(batch);
+                    return true;
+                }, () -> {
+                    // 至少让本节点不再接受这些token
+                    batch.forEach(this::invalidateLocal);
+                    return false;
+                }, false);
+                if (!done) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (Exception e) {
+            log.error("RedisAuthProvider deleteTokens failed, Exception：{e}", e);
+            return false;
+        }
+    }
+
+    /**
+     * 批量创建token（每批以pipeline执行保存脚本）
+     *
+     * @param loginIds 账号id集合
+     * @return 与loginIds一一对应的token，失败时返回null（已写入的token会被删除）
+     */
+    @Override
+    public List<String> createTokens(Collection<?> loginIds) {
+        Assert.notNull(loginIds, "The loginIds cannot be null!");
+        Assert.noNullElements(loginIds, "The loginId cannot be null!");
+        List<String> tokens = new ArrayList<>(loginIds.size());
+        int attempted = 0;
+        try {
+            int timeout = GlobalConfigUtils.getGlobalConfig().getTimeout();
+            String tokenStyle = GlobalConfigUtils.getGlobalConfig().getTokenStyle();
+            List<LoginSubject> subjects = new ArrayList<>(loginIds.size());
+            for (Object loginId : loginIds) {
+                tokens.add(this.scripts.newToken(TokenGenUtil.genTokenStr(tokenStyle), loginId));
+                subjects.add(LoginSubject.create(loginId, timeout));
+            }
+            for (int from = 0; from < tokens.size(); from += BATCH_SIZE) {
+                List<String> batchTokens = tokens.subList(from, Math.min(from + BATCH_SIZE, tokens.size()));
+                List<LoginSubject> batchSubjects = subjects.subList(from, Math.min(from + BATCH_SIZE, tokens.size()));
+                attempted = from + batchTokens.size();
+                boolean saved = this.guard(() -> {
+                    this.saveSubjects(batchTokens, batchSubjects);
+                    return true;
+                }, () -> false, false);
+                if (!saved) {
+                    this.discardTokens(tokens.subList(0, attempted));
+                    return null;
+                }
+            }
+            long stamp = this.nearCache == null ? 0L : this.nearCache.stamp();
+            long fallbackStamp = this.fallbackStamp();
+            for (int i = 0; i < tokens.size(); i++) {
+                if (this.nearCache != null) {
+                    this.nearCache.put(tokens.get(i), subjects.get(i), stamp);
+                }
+                this.putFallback(tokens.get(i), subjects.get(i), fallbackStamp);
+            }
+            return tokens;
+        } catch (Exception e) {
+            log.error("RedisAuthProvider createTokens failed, Exception：{e}", e);
+            this.discardTokens(tokens.subList(0, attempted));
+            return null;
+        }
+    }
+
+    /**
+     * 批量创建失败时删除已写入（包括失败的那一批中可能已写入）的token，调用方拿不到这些token，无法按token注销
+     *
+     * @param tokens 令牌
+     */
+    private void discardTokens(List<String> tokens) {
+        if (!tokens.isEmpty() && !this.deleteTokens(tokens)) {
+            log.error("RedisAuthProvider createTokens failed, {} created tokens could not be deleted", tokens.size());
+        }
+    }
+
+    /**
+     * 按BATCH_SIZE切分，Redis Cluster下先按slot排列，同一slot的token尽量落在同一批中：
+     * 客户端会把一批的MGET、DEL按slot拆开发往各节点，同一slot的key越集中，拆出的命令越少；pipeline中的命令也按节点连续排列
+     */
+    private List<List<String>> partition(List<String> list) {
+        if (this.clusterMode) {
+            List<String> ordered = new ArrayList<>(list.size());
+            for (List<String> group : this.scripts.groupBySlot(list)) {
+                ordered.addAll(group);
+            }
+            list = ordered;
+        }
+        List<List<String>> batches = new ArrayList<>(list.size() / BATCH_SIZE + 1);
+        for (int from = 0; from < list.size(); from += BATCH_SIZE) {
+            batches.add(list.subList(from, Math.min(from + BATCH_SIZE, list.size())));
+        }
+        return batches;
+    }
+
+    /**
+     * 删除token（索引中残留的token会在到期后被惰性清理，按loginId删除时对已不存在的key执行DEL也没有影响）
      *
      * @param token 令牌
      * @return true成功，false失败
@@ -155,7 +855,15 @@ public class RedisAuthProvider extends AbstractAuthProvider implements AuthProvi
     public boolean deleteToken(String token) {
         Assert.hasText(token, "The token cannot be empty!");
         try {
-            return this.redisTemplate.delete(AuthConsts.AUTH_TOKEN_KEY + token);
+            return this.guard(() -> {
+                boolean deleted = this.redisTemplate.delete(this.scripts.tokenKey(token));
+                this.invalidate(Collections.singletonList(token));
+                return deleted;
+            }, () -> {
+                // 至少让本节点不再接受这个token
+                this.invalidateLocal(token);
+                return false;
+            }, true);
         } catch (Exception e) {
             log.error("RedisAuthProvider deleteToken failed, Exception：{e}", e);
             return false;
@@ -163,7 +871,7 @@ public class RedisAuthProvider extends AbstractAuthProvider implements AuthProvi
     }
 
     /**
-     * 通过loginId删除token（目前是通过keys命令模糊查询的，数据量特别大时会有性能问题，后续优化）
+     * 通过loginId删除token（通过loginId索引查出该用户的全部token，一次DEL删除全部会话和索引本身，开启集群hash tag时这些key在同一个slot）
      *
      * @param loginId 身份唯一值
      * @return true成功，false失败
@@ -172,24 +880,40 @@ public class RedisAuthProvider extends AbstractAuthProvider implements AuthProvi
     public boolean deleteTokenByLoginId(Object loginId) {
         Assert.notNull(loginId, "The loginId cannot be null!");
         try {
-            Set<String> keys = redisTemplate.keys(AuthConsts.AUTH_TOKEN_KEY.concat("*"));
-            if (Objects.nonNull(keys) && !keys.isEmpty()) {
-                for (String key : keys) {
-                    String content = redisTemplate.opsForValue().get(key);
-                    LoginSubject subject = JsonUtil.readValue(content, LoginSubject.class);
-                    if (Objects.nonNull(subject)) {
-                        Object loginIdInRedis = subject.getLoginId();
-                        if (Objects.nonNull(loginIdInRedis) && loginIdInRedis.equals(loginId)) {
-                            redisTemplate.delete(key);
-                        }
+            return this.guard(() -> {
+                for (String loginKey : this.scripts.loginKeys(loginId)) {
+                    Set<String> tokens = this.redisTemplate.opsForZSet().range(loginKey, 0, -1);
+                    List<String> keys = new ArrayList<>(tokens == null ? 1 : tokens.size() + 1);
+                    if (tokens != null) {
+                        keys.addAll(this.tokenKeys(new ArrayList<>(tokens)));
+                    }
+                    keys.add(loginKey);
+                    this.redisTemplate.delete(keys);
+                    if (tokens != null) {
+                        this.invalidate(tokens);
                     }
                 }
-            }
-            return true;
+                return true;
+            }, () -> false, true);
         } catch (Exception e) {
-            log.error("RedisAuthProvider deleteToken failed, Exception：{e}", e);
+            log.error("RedisAuthProvider deleteTokenByLoginId failed, Exception：{e}", e);
             return false;
         }
     }
 
+    /**
+     * 容器关闭时停止监听失效消息
+     */
+    @Override
+    public void destroy() throws Exception {
+        if (this.listenerContainer != null) {
+            this.listenerContainer.destroy();
+        }
+        if (this.trackingListener != null) {
+            this.trackingListener.close();
+        }
+        if (this.eventSubscriber != null) {
+            this.eventSubscriber.close();
+        }
+    }
 }
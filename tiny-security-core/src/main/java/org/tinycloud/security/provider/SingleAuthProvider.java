@@ -1,46 +1,88 @@
 package org.tinycloud.security.provider;
 
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.util.Assert;
+import org.tinycloud.security.config.GlobalConfig;
 import org.tinycloud.security.config.GlobalConfigUtils;
 import org.tinycloud.security.consts.AuthConsts;
-import org.tinycloud.security.util.CommonUtil;
-import org.tinycloud.security.util.JsonUtil;
+import org.tinycloud.security.provider.single.CacheEntry;
+import org.tinycloud.security.provider.single.EvictionPolicy;
+import org.tinycloud.security.provider.single.LruEvictionPolicy;
+import org.tinycloud.security.provider.single.PeerReplicator;
+import org.tinycloud.security.provider.single.SessionJournal;
+import org.tinycloud.security.provider.single.StoreSegment;
+import org.tinycloud.security.provider.single.WTinyLfuEvictionPolicy;
 import org.tinycloud.security.util.TokenGenUtil;
+import org.tinycloud.security.util.clock.AuthClockHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * 操作token和会话的接口（通过单机内存Map实现，系统重启后数据会丢失）
+ * 操作token和会话的接口（通过单机内存Map实现，系统重启后数据会丢失，开启持久化后可在重启时恢复）
+ * 会话以LoginSubject对象快照的形式存储（写入时复制，读取时返回副本），不经过JSON序列化
  * 部分代码实现参考自 https://gitee.com/dromara/sa-token/blob/dev/sa-token-core/src/main/java/cn/dev33/satoken/dao/SaTokenDaoDefaultImpl.java
  *
  * @author liuxingyu01
  * @version 2023-01-06-9:33
  **/
-public class SingleAuthProvider extends AbstractAuthProvider implements AuthProvider {
+public class SingleAuthProvider extends AbstractAuthProvider implements AuthProvider, DisposableBean {
     final static Logger log = LoggerFactory.getLogger(SingleAuthProvider.class);
 
     /**
-     * 常量，每次清理过期数据间隔的时间 (单位: 秒) ，默认值30秒
+     * 常量，表示系统中不存在这个缓存 (在对不存在的key获取剩余存活时间时返回此值)
      */
-    final static int DATA_REFRESH_PERIOD = 30;
+    final static long NOT_VALUE_EXPIRE = -1L;
 
     /**
-     * 常量，表示系统中不存在这个缓存 (在对不存在的key获取剩余存活时间时返回此值)
+     * 数据存储分段，按key的hash分段，每段有独立的Map和过期时间轮，数量为2的幂
      */
-    final static long NOT_VALUE_EXPIRE = -1L;
+    private final StoreSegment[] segments;
+
+    /**
+     * loginId到其全部会话key的反向索引，在创建、删除、过期时同步维护，按loginId踢人时只需处理该用户自己的会话
+     */
+    private final Map<String, Set<String>> loginIdIndex = new ConcurrentHashMap<>();
+
+    /**
+     * 淘汰策略，未限制容量时为null
+     */
+    private final EvictionPolicy evictionPolicy;
+
+    /**
+     * 最大条目数，0表示不限制
+     */
+    private final int maxEntries;
+
+    /**
+     * 每个loginId最多同时存在的会话数，0表示不限制
+     */
+    private final int maxSessionsPerLogin;
+
+    /**
+     * 因容量上限被淘汰的条目数
+     */
+    private final LongAdder evictionCount = new LongAdder();
+
+    /**
+     * 因单用户会话数上限被淘汰的会话数
+     */
+    private final LongAdder sessionLimitEvictionCount = new LongAdder();
 
     /**
-     * 数据存储集合
+     * 持久化日志，未开启持久化时为null
      */
-    public final static Map<String, Object> dataMap = new ConcurrentHashMap<>();
+    private final SessionJournal journal;
 
     /**
-     * 数据的过期时间存储集合 (单位: 毫秒) , 记录所有key的到期时间 [注意不是剩余存活时间]
+     * 节点间复制，未开启复制时为null
      */
-    public final static Map<String, Long> expireMap = new ConcurrentHashMap<>();
+    private final PeerReplicator replicator;
 
 
     // ------------------------ String 读写操作开始 ------------------------ //
@@ -52,8 +94,7 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
      * @return 值
      */
     public String get(String key) {
-        clearKeyByTimeout(key);
-        return (String) dataMap.get(key);
+        return (String) getObject(key);
     }
 
     /**
@@ -64,11 +105,7 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
      * @param timeout 有效时间（秒）
      */
     public void set(String key, String value, long timeout) {
-        if (timeout == 0) {
-            return;
-        }
-        dataMap.put(key, value);
-        expireMap.put(key, (System.currentTimeMillis() + timeout * 1000));
+        setObject(key, value, timeout);
     }
 
     /**
@@ -78,10 +115,7 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
      * @param value 值
      */
     public void update(String key, String value) {
-        if (getKeyTimeout(key) == SingleAuthProvider.NOT_VALUE_EXPIRE) {
-            return;
-        }
-        dataMap.put(key, value);
+        updateObject(key, value);
     }
 
     /**
@@ -90,8 +124,13 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
      * @param key 键
      */
     public void delete(String key) {
-        dataMap.remove(key);
-        expireMap.remove(key);
+        CacheEntry old = segmentFor(key).getMap().remove(key);
+        if (old != null) {
+            afterRemoved(old);
+        }
+        if (replicator != null) {
+            replicator.publishDelete(key);
+        }
     }
 
     /**
@@ -111,7 +150,14 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
      * @param timeout 有效时间（秒）
      */
     public void updateTimeout(String key, long timeout) {
-        expireMap.put(key, (System.currentTimeMillis() + timeout * 1000));
+        long expireTime = AuthClockHolder.currentTimeMillis() + timeout * 1000;
+        CacheEntry old;
+        do {
+            old = getEntry(key);
+            if (old == null) {
+                return;
+            }
+        } while (!replaceEntry(old, old.withExpireTime(expireTime)));
     }
 
     // ------------------------ Object 读写操作开始 ------------------------ //
@@ -123,8 +169,8 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
      * @return 值
      */
     public Object getObject(String key) {
-        clearKeyByTimeout(key);
-        return dataMap.get(key);
+        CacheEntry entry = getEntry(key);
+        return entry == null ? null : entry.getValue();
     }
 
     /**
@@ -138,8 +184,7 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
         if (timeout == 0) {
             return;
         }
-        dataMap.put(key, object);
-        expireMap.put(key, (System.currentTimeMillis() + timeout * 1000));
+        putEntry(new CacheEntry(key, object, AuthClockHolder.currentTimeMillis() + timeout * 1000));
     }
 
     /**
@@ -149,10 +194,13 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
      * @param object 值
      */
     public void updateObject(String key, Object object) {
-        if (getKeyTimeout(key) == SingleAuthProvider.NOT_VALUE_EXPIRE) {
-            return;
-        }
-        dataMap.put(key, object);
+        CacheEntry old;
+        do {
+            old = getEntry(key);
+            if (old == null) {
+                return;
+            }
+        } while (!replaceEntry(old, old.withValue(object)));
     }
 
     /**
@@ -161,8 +209,7 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
      * @param key 键
      */
     public void deleteObject(String key) {
-        dataMap.remove(key);
-        expireMap.remove(key);
+        delete(key);
     }
 
     /**
@@ -182,23 +229,289 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
      * @param timeout 有效时间（秒）
      */
     public void updateObjectTimeout(String key, long timeout) {
-        expireMap.put(key, (System.currentTimeMillis() + timeout * 1000));
+        updateTimeout(key, timeout);
     }
 
     // ------------------------ 过期时间相关操作开始 ------------------------ //
 
+    /**
+     * 存入条目，并把它放进时间轮
+     *
+     * @param entry 条目
+     */
+    private void putEntry(CacheEntry entry) {
+        StoreSegment segment = segmentFor(entry.getKey());
+        CacheEntry old = segment.getMap().put(entry.getKey(), entry);
+        afterPut(segment, old, entry);
+        if (replicator != null) {
+            replicator.publishPut(entry);
+        }
+    }
+
+    /**
+     * 条目写入Map后，同步维护淘汰策略、时间轮、反向索引和持久化日志
+     *
+     * @param segment 条目所在的分段
+     * @param old     被替换的旧条目，没有时为null
+     * @param entry   新条目
+     */
+    private void afterPut(StoreSegment segment, CacheEntry old, CacheEntry entry) {
+        if (evictionPolicy != null) {
+            if (old == null) {
+                evictionPolicy.onInsert(entry.getKey());
+            } else {
+                evictionPolicy.onAccess(entry.getKey());
+            }
+        }
+        if (old != null) {
+            segment.getTimingWheel().cancel(old);
+            if (old.getLoginId() != null && !old.getLoginId().equals(entry.getLoginId())) {
+                unindex(old);
+            }
+        }
+        if (entry.getLoginId() != null) {
+            index(entry);
+        }
+        if (journal != null) {
+            journal.appendPut(entry);
+        }
+        if (!segment.getTimingWheel().add(entry)) {
+            removeEntry(entry);
+        }
+        if (evictionPolicy != null && old == null) {
+            evictIfNecessary();
+        }
+        // 摊还清理：本段已到推进时间时顺带推进一次
+        segment.advanceIfDue(AuthClockHolder.currentTimeMillis());
+    }
+
+    /**
+     * 超出容量上限时，按淘汰策略淘汰条目
+     */
+    private void evictIfNecessary() {
+        while (size() > maxEntries) {
+            String key = evictionPolicy.evict();
+            if (key == null) {
+                return;
+            }
+            Map<String, CacheEntry> map = segmentFor(key).getMap();
+            CacheEntry victim = map.get(key);
+            if (victim != null && map.remove(key, victim)) {
+                afterRemoved(victim);
+                evictionCount.increment();
+            }
+        }
+    }
+
+    /**
+     * 超出单用户会话数上限时，淘汰该用户最早到期的会话
+     *
+     * @param entry 新写入的会话
+     */
+    private void limitSessions(CacheEntry entry) {
+        Set<String> keys = loginIdIndex.get(entry.getLoginId());
+        if (keys == null || keys.size() <= maxSessionsPerLogin) {
+            return;
+        }
+        List<CacheEntry> sessions = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            CacheEntry session = segmentFor(key).getMap().get(key);
+            if (session != null && session != entry && entry.getLoginId().equals(session.getLoginId())) {
+                sessions.add(session);
+            }
+        }
+        sessions.sort(Comparator.comparingLong(CacheEntry::getExpireTime));
+        int excess = sessions.size() + 1 - maxSessionsPerLogin;
+        for (int i = 0; i < excess && i < sessions.size(); i++) {
+            if (segmentFor(sessions.get(i).getKey()).getMap().remove(sessions.get(i).getKey(), sessions.get(i))) {
+                afterRemoved(sessions.get(i));
+                sessionLimitEvictionCount.increment();
+                if (replicator != null) {
+                    replicator.publishDelete(sessions.get(i).getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * 仅当当前条目仍是old时，才替换为新条目
+     *
+     * @param old   旧条目
+     * @param entry 新条目
+     * @return true替换成功，false条目已被并发修改
+     */
+    private boolean replaceEntry(CacheEntry old, CacheEntry entry) {
+        StoreSegment segment = segmentFor(entry.getKey());
+        if (!segment.getMap().replace(entry.getKey(), old, entry)) {
+            return false;
+        }
+        segment.getTimingWheel().cancel(old);
+        if (journal != null) {
+            journal.appendPut(entry);
+        }
+        if (!segment.getTimingWheel().add(entry)) {
+            removeEntry(entry);
+        }
+        if (replicator != null) {
+            replicator.publishPut(entry);
+        }
+        return true;
+    }
+
+    /**
+     * 仅当当前条目仍是entry时，才移除它（避免误删并发写入的新条目）
+     *
+     * @param entry 条目
+     */
+    private void removeEntry(CacheEntry entry) {
+        if (segmentFor(entry.getKey()).getMap().remove(entry.getKey(), entry)) {
+            afterRemoved(entry);
+        }
+    }
+
+    /**
+     * 条目从Map中移除后，同步清理时间轮和反向索引
+     *
+     * @param entry 已移除的条目
+     */
+    private void afterRemoved(CacheEntry entry) {
+        segmentFor(entry.getKey()).getTimingWheel().cancel(entry);
+        // 过期的条目在恢复时会被自动丢弃，不需要记录删除
+        if (journal != null && !entry.isExpired(AuthClockHolder.currentTimeMillis())) {
+            journal.appendDelete(entry.getKey());
+        }
+        if (evictionPolicy != null) {
+            evictionPolicy.onRemove(entry.getKey());
+        }
+        if (entry.getLoginId() != null) {
+            unindex(entry);
+        }
+    }
+
+    /**
+     * 把条目的key加入其loginId的反向索引
+     *
+     * @param entry 条目
+     */
+    private void index(CacheEntry entry) {
+        loginIdIndex.compute(entry.getLoginId(), (loginId, keys) -> {
+            if (keys == null) {
+                keys = ConcurrentHashMap.newKeySet();
+            }
+            keys.add(entry.getKey());
+            return keys;
+        });
+        // 写入索引前条目可能已被并发删除，此时撤回索引，避免残留
+        if (segmentFor(entry.getKey()).getMap().get(entry.getKey()) != entry) {
+            unindex(entry);
+        }
+    }
+
+    /**
+     * 把条目的key从其loginId的反向索引中移除，集合为空时一并移除
+     *
+     * @param entry 条目
+     */
+    private void unindex(CacheEntry entry) {
+        loginIdIndex.computeIfPresent(entry.getLoginId(), (loginId, keys) -> {
+            CacheEntry current = segmentFor(entry.getKey()).getMap().get(entry.getKey());
+            if (current == null || !loginId.equals(current.getLoginId())) {
+                keys.remove(entry.getKey());
+            }
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    /**
+     * 存入会话数据，并维护loginId反向索引
+     *
+     * @param key     键
+     * @param value   值
+     * @param loginId 会话所属的loginId
+     * @param timeout 有效时间（秒）
+     */
+    private void setSession(String key, Object value, Object loginId, long timeout) {
+        if (timeout == 0) {
+            return;
+        }
+        CacheEntry entry = new CacheEntry(key, value, AuthClockHolder.currentTimeMillis() + timeout * 1000, String.valueOf(loginId));
+        putEntry(entry);
+        if (maxSessionsPerLogin > 0) {
+            limitSessions(entry);
+        }
+    }
+
+    // ------------------------ 容量与淘汰统计 ------------------------ //
+
+    /**
+     * 获取当前条目数
+     *
+     * @return 条目数
+     */
+    public int size() {
+        int size = 0;
+        for (StoreSegment segment : segments) {
+            size += segment.getMap().size();
+        }
+        return size;
+    }
+
+    /**
+     * 获取因容量上限被淘汰的条目数
+     *
+     * @return 淘汰数
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /**
+     * 获取因单用户会话数上限被淘汰的会话数
+     *
+     * @return 淘汰数
+     */
+    public long getSessionLimitEvictionCount() {
+        return sessionLimitEvictionCount.sum();
+    }
+
+    /**
+     * 获取key所在的分段（hash先乘法打散再取中间位，避免与分段内ConcurrentHashMap的槽位选择相关）
+     *
+     * @param key 键
+     * @return 分段
+     */
+    private StoreSegment segmentFor(String key) {
+        return segments[((key.hashCode() * 0x9E3779B9) >>> 16) & (segments.length - 1)];
+    }
+
+    /**
+     * 获取指定key未过期的条目，如果已经过期，则立即清除它
+     *
+     * @param key 键
+     * @return 条目，不存在或已过期时返回null
+     */
+    private CacheEntry getEntry(String key) {
+        CacheEntry entry = segmentFor(key).getMap().get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(AuthClockHolder.currentTimeMillis())) {
+            removeEntry(entry);
+            return null;
+        }
+        if (evictionPolicy != null) {
+            evictionPolicy.onAccess(key);
+        }
+        return entry;
+    }
+
     /**
      * 如果指定key已经过期，则立即清除它
      *
      * @param key 键
      */
     private void clearKeyByTimeout(String key) {
-        Long expirationTime = expireMap.get(key);
-        // 清除条件：如果不为空 && 已经超过过期时间
-        if (expirationTime != null && expirationTime < System.currentTimeMillis()) {
-            dataMap.remove(key);
-            expireMap.remove(key);
-        }
+        getEntry(key);
     }
 
     /**
@@ -207,23 +520,54 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
      * @param key 键
      */
     private long getKeyTimeout(String key) {
-        // 先检查是否已经过期
-        clearKeyByTimeout(key);
-        // 获取过期时间
-        Long expire = expireMap.get(key);
+        CacheEntry entry = getEntry(key);
         // 如果根本没有这个值，则直接返回NOT_VALUE_EXPIRE
-        if (expire == null) {
+        if (entry == null) {
             return SingleAuthProvider.NOT_VALUE_EXPIRE;
         }
         // 计算剩余时间并返回
-        long timeout = (expire - System.currentTimeMillis()) / 1000;
-        // 小于零时，视为不存在，返回NOT_VALUE_EXPIRE
-        if (timeout < 0) {
-            dataMap.remove(key);
-            expireMap.remove(key);
-            return SingleAuthProvider.NOT_VALUE_EXPIRE;
+        return (entry.getExpireTime() - AuthClockHolder.currentTimeMillis()) / 1000;
+    }
+
+
+    // ------------------------ 节点间复制 ------------------------ //
+
+    /**
+     * 应用对端复制过来的写入（不再发布给其他节点）
+     */
+    private final class ReplicaStore implements PeerReplicator.Store {
+
+        @Override
+        public void applyPut(CacheEntry entry, boolean resync) {
+            if (entry.isExpired(AuthClockHolder.currentTimeMillis())) {
+                return;
+            }
+            StoreSegment segment = segmentFor(entry.getKey());
+            Map<String, CacheEntry> map = segment.getMap();
+            CacheEntry old;
+            do {
+                old = map.get(entry.getKey());
+                // 按到期时间取最后写入者；全量同步时到期时间相同说明数据未变，跳过
+                if (old != null && (old.getExpireTime() > entry.getExpireTime()
+                        || (resync && old.getExpireTime() == entry.getExpireTime()))) {
+                    return;
+                }
+            } while (old == null ? map.putIfAbsent(entry.getKey(), entry) != null : !map.replace(entry.getKey(), old, entry));
+            afterPut(segment, old, entry);
+        }
+
+        @Override
+        public void applyDelete(String key) {
+            CacheEntry old = segmentFor(key).getMap().remove(key);
+            if (old != null) {
+                afterRemoved(old);
+            }
+        }
+
+        @Override
+        public Iterator<CacheEntry> entries() {
+            return Arrays.stream(segments).flatMap(segment -> segment.getMap().values().stream()).iterator();
         }
-        return timeout;
     }
 
 
@@ -240,11 +584,23 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
     private volatile boolean refreshFlag;
 
     /**
-     * 清理所有已经过期的key
+     * 清理所有已经过期的key（推进全部分段的时间轮，只处理到期的条目）
      */
     public void refreshDataMap() {
-        for (String key : expireMap.keySet()) {
-            clearKeyByTimeout(key);
+        for (StoreSegment segment : segments) {
+            refreshSegment(segment);
+        }
+    }
+
+    /**
+     * 清理一个分段中已经过期的key
+     *
+     * @param segment 分段
+     */
+    private void refreshSegment(StoreSegment segment) {
+        int num = segment.advance(AuthClockHolder.currentTimeMillis());
+        if (num > 0 && log.isDebugEnabled()) {
+            log.debug("SingleAuthProvider - refreshSession - expired num：{}", num);
         }
     }
 
@@ -254,31 +610,54 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
     public void initRefreshThread() {
         // 启动定时刷新
         this.refreshFlag = true;
+        GlobalConfig globalConfig = GlobalConfigUtils.getGlobalConfig();
+        long tick = globalConfig.getSingleWheelTick();
+        int threads = sweeperThreads(globalConfig.getSingleSweeperThreads(), segments.length);
         // 双重校验构造一个单例的ScheduledThreadPool
         if (this.executorService == null) {
             synchronized (SingleAuthProvider.class) {
                 if (this.executorService == null) {
-                    this.executorService = Executors.newScheduledThreadPool(1);
-                    this.executorService.scheduleWithFixedDelay(() -> {
-                        log.info("SingleAuthProvider - refreshSession - at ：{}", CommonUtil.getCurrentTime());
-                        try {
-                            // 如果已经被标记为结束
-                            if (!refreshFlag) {
-                                return;
+                    AtomicInteger threadNumber = new AtomicInteger();
+                    this.executorService = Executors.newScheduledThreadPool(threads, r -> {
+                        Thread thread = new Thread(r, "tiny-security-single-sweeper-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    // 每个分段单独调度，首次执行时间错开，避免所有分段同时推进
+                    for (int i = 0; i < segments.length; i++) {
+                        StoreSegment segment = segments[i];
+                        this.executorService.scheduleWithFixedDelay(() -> {
+                            try {
+                                // 如果已经被标记为结束
+                                if (!refreshFlag) {
+                                    return;
+                                }
+                                // 执行清理方法
+                                refreshSegment(segment);
+                            } catch (Exception e2) {
+                                log.error("SingleAuthProvider - refreshSession - Exception：{e2}", e2);
                             }
-                            // 执行清理方法
-                            refreshDataMap();
-                        } catch (Exception e2) {
-                            log.error("SingleAuthProvider - refreshSession - Exception：{e2}", e2);
-                        }
-                    }, 10/*首次延迟多长时间后执行*/, DATA_REFRESH_PERIOD/*间隔时间*/, TimeUnit.SECONDS);
+                        }, tick + tick * i / segments.length/*首次延迟多长时间后执行*/, tick/*间隔时间，即时间轮每个槽的时长*/, TimeUnit.MILLISECONDS);
+                    }
                 }
             }
         }
-        log.info("SingleAuthProvider - refreshThread - init successful!");
+        log.info("SingleAuthProvider - refreshThread - init successful, segments：{}, sweeper threads：{}", segments.length, threads);
     }
 
 
+    /**
+     * 计算清理线程数，未配置时每4个CPU核一个线程，且不超过分段数
+     *
+     * @param configured 配置的线程数，0表示自动计算
+     * @param segments   分段数
+     * @return 线程数
+     */
+    private static int sweeperThreads(int configured, int segments) {
+        int threads = configured > 0 ? configured : Runtime.getRuntime().availableProcessors() / 4;
+        return Math.max(1, Math.min(threads, segments));
+    }
+
     /**
      * 结束定时任务，不再定时清理过期数据
      */
@@ -286,6 +665,23 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
         this.refreshFlag = false;
     }
 
+    /**
+     * 容器关闭时停止清理线程，并写完、刷盘剩余的持久化日志
+     */
+    @Override
+    public void destroy() {
+        this.endRefreshThread();
+        if (this.executorService != null) {
+            this.executorService.shutdown();
+        }
+        if (this.replicator != null) {
+            this.replicator.close();
+        }
+        if (this.journal != null) {
+            this.journal.close();
+        }
+    }
+
 
     // ------------------------ 实现AuthProvider接口开始 ------------------------ //
 
@@ -293,10 +689,94 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
      * 构造函数
      */
     public SingleAuthProvider() {
+        this(createEvictionPolicy(GlobalConfigUtils.getGlobalConfig()));
+    }
+
+    /**
+     * 构造函数
+     *
+     * @param evictionPolicy 自定义淘汰策略，配置了最大条目数时生效
+     */
+    public SingleAuthProvider(EvictionPolicy evictionPolicy) {
+        GlobalConfig globalConfig = GlobalConfigUtils.getGlobalConfig();
+        this.maxEntries = globalConfig.getSingleMaxEntries();
+        this.evictionPolicy = this.maxEntries > 0 ? evictionPolicy : null;
+        this.maxSessionsPerLogin = globalConfig.getSingleMaxSessionsPerLogin();
+        this.segments = new StoreSegment[segmentCount(globalConfig.getSingleSegments())];
+        long now = AuthClockHolder.currentTimeMillis();
+        for (int i = 0; i < this.segments.length; i++) {
+            this.segments[i] = new StoreSegment(globalConfig.getSingleWheelTick(), globalConfig.getSingleWheelSize(),
+                    now, node -> removeEntry((CacheEntry) node));
+        }
+        this.journal = globalConfig.isSinglePersistEnabled() ? new SessionJournal(globalConfig.getSinglePersistDir(),
+                globalConfig.getSingleFsyncInterval(), globalConfig.getSingleSnapshotInterval(),
+                () -> Arrays.stream(segments).flatMap(segment -> segment.getMap().values().stream()).iterator()) : null;
+        if (this.journal != null) {
+            this.recover();
+        }
+        this.replicator = globalConfig.getSingleReplicationPort() > 0 ? new PeerReplicator(globalConfig.getSingleReplicationBindAddress(),
+                globalConfig.getSingleReplicationPort(), globalConfig.getSingleReplicationSecret(), globalConfig.getSingleReplicationPeers(),
+                globalConfig.getSingleReplicationBatchInterval(), globalConfig.getTimeout() * 1000L, new ReplicaStore()) : null;
+        if (this.replicator != null) {
+            try {
+                this.replicator.start();
+            } catch (IOException e) {
+                throw new IllegalStateException("SingleAuthProvider replication listen on " + globalConfig.getSingleReplicationBindAddress() + ":" + globalConfig.getSingleReplicationPort() + " failed!", e);
+            }
+        }
         // 同时初始化定时任务
         this.initRefreshThread();
     }
 
+    /**
+     * 从持久化文件中恢复会话，并开始记录新的变更
+     */
+    private void recover() {
+        try {
+            long start = System.nanoTime();
+            long num = this.journal.recover(entry -> {
+                if (!entry.isExpired(AuthClockHolder.currentTimeMillis())) {
+                    putEntry(entry);
+                }
+            }, this::delete);
+            this.journal.start();
+            log.info("SingleAuthProvider - recover - {} records replayed, {} sessions restored, cost {} ms", num, size(), (System.nanoTime() - start) / 1000_000L);
+        } catch (IOException e) {
+            throw new IllegalStateException("SingleAuthProvider recover from " + GlobalConfigUtils.getGlobalConfig().getSinglePersistDir() + " failed!", e);
+        }
+    }
+
+    /**
+     * 把配置的分段数向上取整为2的幂，最多1024段
+     *
+     * @param configured 配置的分段数
+     * @return 分段数
+     */
+    private static int segmentCount(int configured) {
+        int count = 1;
+        while (count < configured && count < 1024) {
+            count <<= 1;
+        }
+        return count;
+    }
+
+    /**
+     * 根据配置创建淘汰策略
+     *
+     * @param globalConfig 全局配置
+     * @return 淘汰策略，未限制容量时返回null
+     */
+    private static EvictionPolicy createEvictionPolicy(GlobalConfig globalConfig) {
+        int maxEntries = globalConfig.getSingleMaxEntries();
+        if (maxEntries <= 0) {
+            return null;
+        }
+        if ("lru".equalsIgnoreCase(globalConfig.getSingleEvictionPolicy())) {
+            return new LruEvictionPolicy();
+        }
+        return new WTinyLfuEvictionPolicy(maxEntries);
+    }
+
     /**
      * 刷新token
      *
@@ -319,7 +799,7 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
     public boolean refreshToken(String token, LoginSubject subject) {
         Assert.hasText(token, "The token cannot be empty!");
         try {
-            this.set(AuthConsts.AUTH_TOKEN_KEY + token, JsonUtil.writeValueAsString(subject), GlobalConfigUtils.getGlobalConfig().getTimeout());
+            this.setSession(AuthConsts.AUTH_TOKEN_KEY + token, subject.copy(), subject.getLoginId(), GlobalConfigUtils.getGlobalConfig().getTimeout());
             return true;
         } catch (Exception e) {
             log.error("SingleAuthProvider - refreshToken - failed，Exception：{e}", e);
@@ -349,8 +829,9 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
     public LoginSubject getSubject(String token) {
         Assert.hasText(token, "The token cannot be empty!");
         try {
-            String content = this.get(AuthConsts.AUTH_TOKEN_KEY + token);
-            return JsonUtil.readValue(content, LoginSubject.class);
+            LoginSubject subject = (LoginSubject) this.getObject(AuthConsts.AUTH_TOKEN_KEY + token);
+            // 存储的是不可修改的快照，返回副本，调用方修改返回值不会影响存储
+            return subject == null ? null : subject.copy();
         } catch (Exception e) {
             log.error("SingleAuthProvider - getSubject - failed，Exception：{e}", e);
             return null;
@@ -368,12 +849,8 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
         Assert.notNull(loginId, "The loginId cannot be null!");
         try {
             String token = TokenGenUtil.genTokenStr(GlobalConfigUtils.getGlobalConfig().getTokenStyle());
-            LoginSubject subject = new LoginSubject();
-            subject.setLoginId(loginId);
-            long currentTime = System.currentTimeMillis();
-            subject.setLoginTime(currentTime);
-            subject.setLoginExpireTime(currentTime + GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000L);
-            this.set(AuthConsts.AUTH_TOKEN_KEY + token, JsonUtil.writeValueAsString(subject), GlobalConfigUtils.getGlobalConfig().getTimeout());
+            LoginSubject subject = LoginSubject.create(loginId, GlobalConfigUtils.getGlobalConfig().getTimeout());
+            this.setSession(AuthConsts.AUTH_TOKEN_KEY + token, subject, loginId, GlobalConfigUtils.getGlobalConfig().getTimeout());
             return token;
         } catch (Exception e) {
             log.error("SingleAuthProvider - createToken - failed，Exception：{e}", e);
@@ -391,8 +868,8 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
     public Object getLoginId(String token) {
         Assert.hasText(token, "The token cannot be empty!");
         try {
-            String content = this.get(AuthConsts.AUTH_TOKEN_KEY + token);
-            return JsonUtil.readValue(content, LoginSubject.class).getLoginId();
+            LoginSubject subject = (LoginSubject) this.getObject(AuthConsts.AUTH_TOKEN_KEY + token);
+            return subject == null ? null : subject.getLoginId();
         } catch (Exception e) {
             log.error("SingleAuthProvider - getLoginId - failed，Exception：{e}", e);
             return null;
@@ -419,7 +896,7 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
 
 
     /**
-     * 通过loginId删除token
+     * 通过loginId删除token（通过loginId反向索引查找，只处理该用户自己的会话）
      *
      * @param loginId 用户id
      * @return true成功，false失败
@@ -428,10 +905,17 @@ public class SingleAuthProvider extends AbstractAuthProvider implements AuthProv
     public boolean deleteTokenByLoginId(Object loginId) {
         Assert.notNull(loginId, "The loginId cannot be null!");
         try {
-            for (String key : expireMap.keySet()) {
-                if (loginId.equals(dataMap.get(key))) {
-                    dataMap.remove(key);
-                    expireMap.remove(key);
+            String loginIdStr = String.valueOf(loginId);
+            Set<String> keys = loginIdIndex.get(loginIdStr);
+            if (keys != null) {
+                for (String key : keys) {
+                    CacheEntry entry = segmentFor(key).getMap().get(key);
+                    if (entry != null && loginIdStr.equals(entry.getLoginId())) {
+                        removeEntry(entry);
+                        if (replicator != null) {
+                            replicator.publishDelete(key);
+                        }
+                    }
                 }
             }
             return true;
@@ -0,0 +1,195 @@
+package org.tinycloud.security.provider.codec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tinycloud.security.provider.LoginSubject;
+import org.tinycloud.security.util.JsonUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * 紧凑的二进制编码，常见的会话只有十几个字节（JSON约70个字节），编解码不经过Jackson
+ * </p>
+ * 格式：MAGIC(1) + flags(1) + [loginId长度(varint) + loginId文本(UTF-8)] + [登录时间(varint)] + [到期时间-登录时间(varint)]。
+ * flags低3位为loginId的类型（Integer、Long、String原样还原，其他类型以JSON保存），其余位标记登录时间、到期时间是否存在；
+ * 时间按zigzag编码为varint。loginId保存为String.valueOf的文本，与loginId索引key的后缀一致。
+ * MAGIC不是JSON的首字符，两种编码写入的内容可以共存。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-19 09:40
+ */
+public final class BinarySessionCodec implements SessionCodec {
+
+    private final static Logger log = LoggerFactory.getLogger(BinarySessionCodec.class);
+
+    public static final BinarySessionCodec INSTANCE = new BinarySessionCodec();
+
+    /**
+     * 二进制编码的首字节，用于与JSON编码区分
+     */
+    public static final byte MAGIC = (byte) 0xB1;
+
+    private static final int ID_NULL = 0;
+
+    private static final int ID_INT = 1;
+
+    private static final int ID_LONG = 2;
+
+    private static final int ID_STRING = 3;
+
+    private static final int ID_JSON = 4;
+
+    private static final int ID_TYPE_MASK = 0x07;
+
+    private static final int HAS_LOGIN_TIME = 0x10;
+
+    private static final int HAS_LOGIN_EXPIRE_TIME = 0x20;
+
+    private BinarySessionCodec() {
+    }
+
+    /**
+     * 判断内容是否为二进制编码
+     *
+     * @param bytes 编码后的内容
+     * @return true是，false否
+     */
+    public static boolean isBinary(byte[] bytes) {
+        return bytes != null && bytes.length >= 2 && bytes[0] == MAGIC;
+    }
+
+    @Override
+    public byte[] encode(LoginSubject subject) {
+        Object loginId = subject.getLoginId();
+        int idType;
+        String idText;
+        if (loginId == null) {
+            idType = ID_NULL;
+            idText = null;
+        } else if (loginId instanceof Integer) {
+            idType = ID_INT;
+            idText = loginId.toString();
+        } else if (loginId instanceof Long) {
+            idType = ID_LONG;
+            idText = loginId.toString();
+        } else if (loginId instanceof String) {
+            idType = ID_STRING;
+            idText = (String) loginId;
+        } else {
+            idType = ID_JSON;
+            idText = JsonUtil.writeValueAsString(loginId);
+        }
+        byte[] id = idText == null ? null : idText.getBytes(StandardCharsets.UTF_8);
+        Long loginTime = subject.getLoginTime();
+        Long loginExpireTime = subject.getLoginExpireTime();
+        int flags = idType | (loginTime != null ? HAS_LOGIN_TIME : 0) | (loginExpireTime != null ? HAS_LOGIN_EXPIRE_TIME : 0);
+
+        // 2字节头 + 长度(最多5字节) + loginId + 两个时间(各最多10字节)
+        byte[] buf = new byte[2 + 5 + (id == null ? 0 : id.length) + 20];
+        int pos = 0;
+        buf[pos++] = MAGIC;
+        buf[pos++] = (byte) flags;
+        if (id != null) {
+            pos = writeVarLong(buf, pos, id.length);
+            System.arraycopy(id, 0, buf, pos, id.length);
+            pos += id.length;
+        }
+        if (loginTime != null) {
+            pos = writeVarLong(buf, pos, zigzag(loginTime));
+        }
+        if (loginExpireTime != null) {
+            // 到期时间与登录时间相差一个有效期，保存差值更短
+            pos = writeVarLong(buf, pos, zigzag(loginTime == null ? loginExpireTime : loginExpireTime - loginTime));
+        }
+        return Arrays.copyOf(buf, pos);
+    }
+
+    @Override
+    public LoginSubject decode(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (!isBinary(bytes)) {
+            return JsonSessionCodec.INSTANCE.decode(bytes);
+        }
+        try {
+            int[] pos = {2};
+            int flags = bytes[1];
+            LoginSubject subject = new LoginSubject();
+            int idType = flags & ID_TYPE_MASK;
+            if (idType != ID_NULL) {
+                int length = (int) readVarLong(bytes, pos);
+                String idText = new String(bytes, pos[0], length, StandardCharsets.UTF_8);
+                pos[0] += length;
+                subject.setLoginId(toLoginId(idType, idText));
+            }
+            if ((flags & HAS_LOGIN_TIME) != 0) {
+                subject.setLoginTime(unzigzag(readVarLong(bytes, pos)));
+            }
+            if ((flags & HAS_LOGIN_EXPIRE_TIME) != 0) {
+                long value = unzigzag(readVarLong(bytes, pos));
+                subject.setLoginExpireTime(subject.getLoginTime() == null ? value : subject.getLoginTime() + value);
+            }
+            return subject;
+        } catch (RuntimeException e) {
+            if (log.isErrorEnabled()) {
+                log.error("BinarySessionCodec -- decode -- Exception=", e);
+            }
+            return null;
+        }
+    }
+
+    private static Object toLoginId(int idType, String idText) {
+        switch (idType) {
+            case ID_INT:
+                return Integer.valueOf(idText);
+            case ID_LONG:
+                return Long.valueOf(idText);
+            case ID_STRING:
+                return idText;
+            case ID_JSON:
+                return JsonUtil.readValue(idText, Object.class);
+            default:
+                throw new IllegalArgumentException("Unknown loginId type: " + idType);
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * 以varint写入（每字节7位，最高位表示后面还有字节）
+     *
+     * @return 写入后的位置
+     */
+    private static int writeVarLong(byte[] buf, int pos, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * 读取varint，pos[0]为读取位置，读取后后移
+     */
+    private static long readVarLong(byte[] bytes, int[] pos) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = bytes[pos[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
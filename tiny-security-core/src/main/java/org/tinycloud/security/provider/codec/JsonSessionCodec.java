@@ -0,0 +1,39 @@
+package org.tinycloud.security.provider.codec;
+
+import org.tinycloud.security.provider.LoginSubject;
+import org.tinycloud.security.util.JsonUtil;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * <p>
+ * JSON编码（基于JsonUtil），与之前版本写入的会话格式相同
+ * </p>
+ * loginId反序列化后的类型由JSON决定：较小的整数为Integer，超出int范围的为Long。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-19 09:35
+ */
+public final class JsonSessionCodec implements SessionCodec {
+
+    public static final JsonSessionCodec INSTANCE = new JsonSessionCodec();
+
+    private JsonSessionCodec() {
+    }
+
+    @Override
+    public byte[] encode(LoginSubject subject) {
+        return JsonUtil.writeValueAsString(subject).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public LoginSubject decode(byte[] bytes) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (BinarySessionCodec.isBinary(bytes)) {
+            return BinarySessionCodec.INSTANCE.decode(bytes);
+        }
+        return JsonUtil.readValue(new String(bytes, StandardCharsets.UTF_8), LoginSubject.class);
+    }
+}
@@ -0,0 +1,31 @@
+package org.tinycloud.security.provider.codec;
+
+import org.tinycloud.security.provider.LoginSubject;
+
+/**
+ * <p>
+ * 会话内容（LoginSubject）的编解码，用于把会话存为一段字节（redis的字符串值、数据库的字段等）
+ * </p>
+ * 各实现的decode都能识别其他实现写入的内容，切换编码方式后，之前写入的会话仍然可以读取，直到自然过期。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-19 09:30
+ */
+public interface SessionCodec {
+
+    /**
+     * 编码会话
+     *
+     * @param subject 登录用户
+     * @return 编码后的内容
+     */
+    byte[] encode(LoginSubject subject);
+
+    /**
+     * 解码会话
+     *
+     * @param bytes 编码后的内容
+     * @return 登录用户，内容为空或无法解析时返回null
+     */
+    LoginSubject decode(byte[] bytes);
+}
@@ -0,0 +1,150 @@
+package org.tinycloud.security.provider.jdbc;
+
+import org.tinycloud.security.provider.LoginSubject;
+import org.tinycloud.security.provider.redis.NearCache;
+import org.tinycloud.security.util.clock.AuthClockHolder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * jdbc会话的本地缓存，校验通过的会话和不存在的token（负缓存）都在本地缓存一段时间
+ * </p>
+ * 会话缓存复用NearCache（容量上限、LRU淘汰，有效期不超过会话的剩余有效期，读库期间发生失效时丢弃写入）；
+ * 不存在的token单独缓存negativeTtl，避免无效token的请求每次都查库，条目数达到上限后先清理过期的条目，仍然满时不再缓存。
+ * 失效由会话事件表（JdbcTokenEvents）驱动，没有配置事件表时只按时长过期。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-19 20:10
+ */
+public class JdbcLocalCache {
+
+    private final NearCache subjects;
+
+    /**
+     * 不存在的token到缓存的到期时间
+     */
+    private final ConcurrentHashMap<String, Long> unknownTokens = new ConcurrentHashMap<>();
+
+    private final int maxSize;
+
+    private final long negativeTtl;
+
+    private final LongAdder negativeHitCount = new LongAdder();
+
+    /**
+     * 构造函数
+     *
+     * @param maxSize     最大条目数
+     * @param ttl         会话的本地缓存时长 (单位: 毫秒)
+     * @param negativeTtl 不存在的token的本地缓存时长 (单位: 毫秒)
+     */
+    public JdbcLocalCache(int maxSize, long ttl, long negativeTtl) {
+        this.subjects = new NearCache(maxSize, ttl);
+        this.maxSize = Math.max(1, maxSize);
+        this.negativeTtl = Math.max(1L, negativeTtl);
+    }
+
+    /**
+     * 获取当前失效序号，读库之前调用，写入缓存时传回
+     *
+     * @return 失效序号
+     */
+    public long stamp() {
+        return this.subjects.stamp();
+    }
+
+    /**
+     * 读取缓存的会话
+     *
+     * @param token 令牌
+     * @return 会话副本，未命中时返回null
+     */
+    public LoginSubject get(String token) {
+        return this.subjects.get(token);
+    }
+
+    /**
+     * 是否缓存了token不存在
+     *
+     * @param token 令牌
+     * @return true已知不存在，false未知
+     */
+    public boolean isUnknown(String token) {
+        Long expireAt = this.unknownTokens.get(token);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt <= AuthClockHolder.currentTimeMillis()) {
+            this.unknownTokens.remove(token, expireAt);
+            return false;
+        }
+        this.negativeHitCount.increment();
+        return true;
+    }
+
+    /**
+     * 写入读库的结果
+     *
+     * @param token   令牌
+     * @param subject 会话，为null时缓存token不存在
+     * @param stamp   读库之前取得的失效序号
+     */
+    public void put(String token, LoginSubject subject, long stamp) {
+        if (subject != null) {
+            this.unknownTokens.remove(token);
+            this.subjects.put(token, subject, stamp);
+            return;
+        }
+        long now = AuthClockHolder.currentTimeMillis();
+        if (this.unknownTokens.size() >= this.maxSize) {
+            this.unknownTokens.values().removeIf(expireAt -> expireAt <= now);
+            if (this.unknownTokens.size() >= this.maxSize) {
+                return;
+            }
+        }
+        Long expireAt = now + this.negativeTtl;
+        this.unknownTokens.put(token, expireAt);
+        if (this.subjects.stamp() != stamp) {
+            // 读库期间发生过失效（可能是这个token刚被创建），丢弃这次写入
+            this.unknownTokens.remove(token, expireAt);
+        }
+    }
+
+    /**
+     * 使一个token的缓存失效
+     *
+     * @param token 令牌
+     */
+    public void invalidate(String token) {
+        this.subjects.invalidate(token);
+        this.unknownTokens.remove(token);
+    }
+
+    /**
+     * 使一个loginId的全部会话缓存失效
+     *
+     * @param loginId loginId（按String.valueOf比较）
+     */
+    public void invalidateLoginId(String loginId) {
+        this.subjects.invalidateLoginId(loginId);
+    }
+
+    /**
+     * 获取会话缓存（可从中读取命中率等统计数据）
+     *
+     * @return 会话缓存
+     */
+    public NearCache getSubjects() {
+        return this.subjects;
+    }
+
+    public int getUnknownSize() {
+        return this.unknownTokens.size();
+    }
+
+    public long getNegativeHitCount() {
+        return this.negativeHitCount.sum();
+    }
+}
@@ -0,0 +1,190 @@
+package org.tinycloud.security.provider.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * jdbc会话续期的合并写入（write-behind），续期先记在内存中，定时以JDBC批量UPDATE写入
+ * </p>
+ * 同一token在一个间隔内的多次续期合并为一次，只写最新的到期时间；暂存数达到上限时不再接收，由调用方直接写入数据库。
+ * 读取会话时需要用暂存的到期时间覆盖数据库中的值（getExpireTime），否则本节点会把已经续期的会话当作过期。
+ * 写入失败的续期保留到下次重试，写入期间又有新的续期时保留新的值；关闭时写入剩余的续期。
+ * 其他节点读到的是数据库中的值，续期在剩余有效期不足一定比例时才发生，间隔远小于会话时长时不影响正确性。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-19 18:10
+ */
+public class JdbcRefreshBuffer implements AutoCloseable {
+    final static Logger log = LoggerFactory.getLogger(JdbcRefreshBuffer.class);
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final JdbcSessionSql sql;
+
+    private final String refreshSql;
+
+    private final int batchSize;
+
+    private final int maxPending;
+
+    /**
+     * token到续期后的到期时间
+     */
+    private final ConcurrentHashMap<String, Long> pending = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService executor;
+
+    private final LongAdder flushedCount = new LongAdder();
+    private final LongAdder coalescedCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+
+    /**
+     * 构造函数，并开始定时写入
+     *
+     * @param jdbcTemplate jdbcTemplate
+     * @param sql          会话表的SQL
+     * @param batchSize    每批UPDATE的条数
+     * @param interval     写入间隔 (单位: 毫秒)
+     * @param maxPending   最多暂存的续期数
+     */
+    public JdbcRefreshBuffer(JdbcTemplate jdbcTemplate, JdbcSessionSql sql, int batchSize, long interval, int maxPending) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.sql = sql;
+        this.refreshSql = sql.getRefreshSql();
+        this.batchSize = batchSize;
+        this.maxPending = Math.max(1, maxPending);
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tiny-security-jdbc-write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1L, interval);
+        this.executor.scheduleWithFixedDelay(this::flushQuietly, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 暂存一次续期
+     *
+     * @param token      令牌
+     * @param expireTime 续期后的到期时间
+     * @return true已暂存，false暂存数已满（需要调用方直接写入）
+     */
+    public boolean offer(String token, long expireTime) {
+        if (this.pending.size() >= this.maxPending && !this.pending.containsKey(token)) {
+            this.rejectedCount.increment();
+            return false;
+        }
+        if (this.pending.containsKey(token)) {
+            this.coalescedCount.increment();
+        }
+        // 并发续期时保留较晚的到期时间
+        this.pending.merge(token, expireTime, Math::max);
+        return true;
+    }
+
+    /**
+     * 获取暂存的到期时间
+     *
+     * @param token 令牌
+     * @return 到期时间，没有暂存时返回null
+     */
+    public Long getExpireTime(String token) {
+        return this.pending.get(token);
+    }
+
+    /**
+     * 丢弃暂存的续期（会话已删除）
+     *
+     * @param token 令牌
+     */
+    public void discard(String token) {
+        this.pending.remove(token);
+    }
+
+    /**
+     * 把暂存的续期写入数据库
+     *
+     * @return 写入的条数
+     */
+    public int flush() {
+        if (this.pending.isEmpty()) {
+            return 0;
+        }
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(this.pending.size());
+        for (Map.Entry<String, Long> entry : this.pending.entrySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue()));
+        }
+        int flushed = 0;
+        for (int from = 0; from < entries.size(); from += this.batchSize) {
+            List<Map.Entry<String, Long>> batch = entries.subList(from, Math.min(from + this.batchSize, entries.size()));
+            List<Object[]> batchArgs = new ArrayList<>(batch.size());
+            for (Map.Entry<String, Long> entry : batch) {
+                batchArgs.add(new Object[]{entry.getValue(), this.sql.key(entry.getKey())});
+            }
+            this.jdbcTemplate.batchUpdate(this.refreshSql, batchArgs);
+            for (Map.Entry<String, Long> entry : batch) {
+                // 写入期间又续期过的token保留新的值，下次写入
+                this.pending.remove(entry.getKey(), entry.getValue());
+            }
+            flushed += batch.size();
+        }
+        this.flushedCount.add(flushed);
+        return flushed;
+    }
+
+    private void flushQuietly() {
+        try {
+            this.flush();
+        } catch (Exception e) {
+            // 没有写入的续期保留在内存中，下次重试
+            log.error("JdbcRefreshBuffer - flush - failed，Exception：{e}", e);
+        }
+    }
+
+    /**
+     * 停止定时写入，并写入剩余的续期
+     */
+    @Override
+    public void close() {
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            int flushed = this.flush();
+            log.info("JdbcRefreshBuffer closed, flushed {} pending refreshes", flushed);
+        } catch (Exception e) {
+            log.error("JdbcRefreshBuffer - close - failed, {} refreshes are lost，Exception：{e}", this.pending.size(), e);
+        }
+    }
+
+    public int getPendingCount() {
+        return this.pending.size();
+    }
+
+    public long getFlushedCount() {
+        return this.flushedCount.sum();
+    }
+
+    public long getCoalescedCount() {
+        return this.coalescedCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return this.rejectedCount.sum();
+    }
+}
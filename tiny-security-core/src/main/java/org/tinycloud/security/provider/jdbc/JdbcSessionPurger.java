@@ -0,0 +1,230 @@
+package org.tinycloud.security.provider.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.util.StringUtils;
+import org.tinycloud.security.util.clock.AuthClockHolder;
+
+import java.net.InetAddress;
+import java.sql.PreparedStatement;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * jdbc过期会话的分批清理，定时执行，每次分批删除全部过期会话
+ * </p>
+ * 每批先查出最多batchSize个过期会话的id（setMaxRows，不依赖各数据库的LIMIT语法，走token_expire_time索引），
+ * 再按id（摘要表按token_hash主键）分组删除，每条DELETE都是一个短事务；批与批之间暂停与本批耗时相同的时间，数据库繁忙时清理随之变慢。
+ * 只清理过期超过grace的会话，给其他节点尚未写入的续期（write-behind）留出余量，grace取合并写入间隔的3倍且不少于MIN_PURGE_GRACE，
+ * 读取时本来就会过滤过期的会话。
+ * 配置锁表后，各节点以锁表中的一行竞争清理权（带租期，持有者每次清理时续租，节点宕机后租期过后由其他节点接替）。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-19 19:00
+ */
+public class JdbcSessionPurger implements AutoCloseable {
+    final static Logger log = LoggerFactory.getLogger(JdbcSessionPurger.class);
+
+    /**
+     * 锁表中清理任务的锁名
+     */
+    public static final String LOCK_NAME = "tiny-security-purge";
+
+    /**
+     * 会话过期多久之后才清理的下限 (单位: 毫秒)
+     */
+    private static final long MIN_PURGE_GRACE = 60 * 1000L;
+
+    /**
+     * 批与批之间的最短暂停 (单位: 毫秒)
+     */
+    private static final long MIN_PAUSE = 10L;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final JdbcSessionSql sql;
+
+    private final int batchSize;
+
+    private final int deleteSize;
+
+    private final long interval;
+
+    /**
+     * 会话过期多久之后才清理 (单位: 毫秒)
+     */
+    private final long grace;
+
+    private final String lockTable;
+
+    private final String lockUpdateSql;
+
+    private final String lockInsertSql;
+
+    private final String unlockSql;
+
+    /**
+     * 本节点在锁表中的标识
+     */
+    private final String owner;
+
+    private final ScheduledExecutorService executor;
+
+    private volatile boolean closed;
+
+    private final LongAdder purgedCount = new LongAdder();
+
+    /**
+     * 构造函数，并开始定时清理
+     *
+     * @param jdbcTemplate jdbcTemplate
+     * @param sql          会话表的SQL
+     * @param batchSize    每批删除的行数
+     * @param deleteSize   每条DELETE的id个数
+     * @param interval            清理间隔 (单位: 毫秒)
+     * @param writeBehindInterval 续期合并写入的间隔 (单位: 毫秒)，用于计算清理前的余量
+     * @param lockTable           锁表，为空时不竞争清理权
+     */
+    public JdbcSessionPurger(JdbcTemplate jdbcTemplate, JdbcSessionSql sql, int batchSize, int deleteSize, long interval,
+                             long writeBehindInterval, String lockTable) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.sql = sql;
+        this.batchSize = Math.max(1, batchSize);
+        this.deleteSize = Math.max(1, Math.min(deleteSize, this.batchSize));
+        this.interval = Math.max(1000L, interval);
+        this.grace = Math.max(MIN_PURGE_GRACE, Math.min(writeBehindInterval, Long.MAX_VALUE / 3) * 3);
+        this.lockTable = StringUtils.hasText(lockTable) ? lockTable : null;
+        this.lockUpdateSql = "update " + lockTable + " set lock_owner = ?, lock_expire_time = ? where lock_name = ? and (lock_owner = ? or lock_expire_time < ?)";
+        this.lockInsertSql = "insert into " + lockTable + " (lock_name, lock_owner, lock_expire_time) values (?,?,?)";
+        this.unlockSql = "update " + lockTable + " set lock_expire_time = 0 where lock_name = ? and lock_owner = ?";
+        this.owner = hostName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tiny-security-jdbc-purge");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::purgeQuietly, this.interval, this.interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void purgeQuietly() {
+        try {
+            if (this.lockTable != null && !this.tryLock()) {
+                return;
+            }
+            long start = System.currentTimeMillis();
+            int num = this.purge();
+            if (num > 0) {
+                log.info("JdbcSessionPurger purged {} expired sessions in {}ms", num, System.currentTimeMillis() - start);
+            }
+        } catch (InterruptedException e) {
+            // 批与批之间的暂停被中断（如线程池被强制关闭），恢复中断标记
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("JdbcSessionPurger - purge - failed，Exception：{e}", e);
+        }
+    }
+
+    /**
+     * 分批删除过期的会话，直到没有过期的会话或者被关闭
+     *
+     * @return 删除的行数
+     */
+    public int purge() throws InterruptedException {
+        long deadline = AuthClockHolder.currentTimeMillis() - this.grace;
+        int total = 0;
+        while (!this.closed) {
+            long start = System.nanoTime();
+            List<Object> ids = this.jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(this.sql.getSelectExpiredIdsSql());
+                ps.setMaxRows(this.batchSize);
+                ps.setLong(1, deadline);
+                return ps;
+            }, (rs, rowNum) -> rs.getObject(1));
+            int deleted = 0;
+            for (int from = 0; from < ids.size(); from += this.deleteSize) {
+                List<Object> chunk = ids.subList(from, Math.min(from + this.deleteSize, ids.size()));
+                deleted += this.jdbcTemplate.update(this.sql.deleteByIdsSql(chunk.size()), chunk.toArray());
+            }
+            total += deleted;
+            this.purgedCount.add(deleted);
+            if (ids.size() < this.batchSize) {
+                break;
+            }
+            // 暂停与本批耗时相同的时间，清理最多占用数据库一半的时间
+            TimeUnit.MILLISECONDS.sleep(Math.max(MIN_PAUSE, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        }
+        return total;
+    }
+
+    /**
+     * 获取或续租清理权：锁的持有者是本节点或者租期已过时更新为本节点，锁行不存在时插入
+     *
+     * @return true持有清理权，false其他节点持有
+     */
+    private boolean tryLock() {
+        long now = AuthClockHolder.currentTimeMillis();
+        // 租期为3个清理间隔，持有者每次清理时续租
+        long expireTime = now + this.interval * 3;
+        int num = this.jdbcTemplate.update(this.lockUpdateSql, this.owner, expireTime, LOCK_NAME, this.owner, now);
+        if (num > 0) {
+            return true;
+        }
+        try {
+            return this.jdbcTemplate.update(this.lockInsertSql, LOCK_NAME, this.owner, expireTime) > 0;
+        } catch (DuplicateKeyException e) {
+            // 锁行已存在，由其他节点持有
+            return false;
+        }
+    }
+
+    /**
+     * 释放清理权，其他节点下次清理时即可接替
+     */
+    private void unlock() {
+        this.jdbcTemplate.update(this.unlockSql, LOCK_NAME, this.owner);
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * 停止清理，并释放清理权
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.lockTable != null) {
+            try {
+                this.unlock();
+            } catch (Exception e) {
+                log.error("JdbcSessionPurger - unlock - failed，Exception：{e}", e);
+            }
+        }
+    }
+
+    public String getOwner() {
+        return this.owner;
+    }
+
+    public long getPurgedCount() {
+        return this.purgedCount.sum();
+    }
+}
@@ -0,0 +1,295 @@
+package org.tinycloud.security.provider.jdbc;
+
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.util.Assert;
+import org.tinycloud.security.config.GlobalConfig;
+import org.tinycloud.security.provider.LoginSubject;
+import org.tinycloud.security.util.JsonUtil;
+import org.tinycloud.security.util.secure.HexUtil;
+import org.tinycloud.security.util.secure.Sha256Hash;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * jdbc会话表的SQL及结果的映射，SQL按表名预先拼好，不在每次请求时重新拼接
+ * </p>
+ * 会话的到期时间以token_expire_time列为准（login_subject中的到期时间在只续期时不会更新），读取会话时用列上的值覆盖。
+ * 结果直接按列序号读取为对应的类型，不经过queryForList的Map。
+ * 配置了jdbcTokenDigest时，会话表以token的SHA-256摘要（32字节，或截取前16字节）为主键（token_hash列），按摘要查询，
+ * 数据库中不保存原始token；本地缓存和会话事件表中同样使用摘要的16进制文本（keyText）。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-19 17:20
+ */
+public final class JdbcSessionSql {
+
+    /**
+     * 会话（login_subject, token_expire_time），到期时间以列上的值为准
+     */
+    public static final RowMapper<LoginSubject> SUBJECT_MAPPER = (rs, rowNum) -> {
+        LoginSubject subject = JsonUtil.readValue(rs.getString(1), LoginSubject.class);
+        if (subject != null) {
+            subject.setLoginExpireTime(rs.getLong(2));
+        }
+        return subject;
+    };
+
+    /**
+     * 第一行的会话，没有时为null
+     */
+    public static final ResultSetExtractor<LoginSubject> FIRST_SUBJECT = rs -> rs.next() ? SUBJECT_MAPPER.mapRow(rs, 0) : null;
+
+    /**
+     * 第一行第一列的数值，没有时为null
+     */
+    public static final ResultSetExtractor<Long> FIRST_LONG = rs -> rs.next() ? rs.getLong(1) : null;
+
+    /**
+     * 第一行第一列的文本，没有时为null
+     */
+    public static final ResultSetExtractor<String> FIRST_STRING = rs -> rs.next() ? rs.getString(1) : null;
+
+    /**
+     * 不使用摘要，token_str列保存原始token
+     */
+    public static final String DIGEST_NONE = "none";
+
+    /**
+     * token_hash列保存32字节的SHA-256摘要
+     */
+    public static final String DIGEST_SHA256 = "sha256";
+
+    /**
+     * token_hash列保存SHA-256摘要的前16字节
+     */
+    public static final String DIGEST_SHA256_128 = "sha256-128";
+
+    private final String tableName;
+
+    /**
+     * 摘要的字节数，不使用摘要时为0
+     */
+    private final int digestLength;
+
+    /**
+     * 按token查询的列，token_str或token_hash
+     */
+    private final String keyColumn;
+
+    /**
+     * 清理过期会话时按哪一列删除，id或token_hash（摘要表没有id列，直接按主键删除）
+     */
+    private final String purgeColumn;
+
+    private final String insertSql;
+
+    private final String selectSubjectSql;
+
+    private final String selectExpireTimeSql;
+
+    private final String selectLoginIdSql;
+
+    private final String refreshSql;
+
+    private final String refreshSubjectSql;
+
+    private final String deleteSql;
+
+    private final String deleteByLoginIdSql;
+
+    private final String selectExpiredIdsSql;
+
+    private JdbcSessionSql(String tableName, int digestLength) {
+        this.tableName = tableName;
+        this.digestLength = digestLength;
+        this.keyColumn = digestLength > 0 ? "token_hash" : "token_str";
+        this.purgeColumn = digestLength > 0 ? "token_hash" : "id";
+        this.insertSql = "insert into " + tableName + " (" + this.keyColumn + ",login_id,login_subject,token_expire_time) values (?,?,?,?)";
+        this.selectSubjectSql = "select login_subject, token_expire_time from " + tableName + " where " + this.keyColumn + " = ?";
+        this.selectExpireTimeSql = "select token_expire_time from " + tableName + " where " + this.keyColumn + " = ?";
+        this.selectLoginIdSql = "select login_id from " + tableName + " where " + this.keyColumn + " = ?";
+        this.refreshSql = "update " + tableName + " set token_expire_time = ? where " + this.keyColumn + " = ?";
+        this.refreshSubjectSql = "update " + tableName + " set token_expire_time = ?, login_subject = ? where " + this.keyColumn + " = ?";
+        this.deleteSql = "delete from " + tableName + " where " + this.keyColumn + " = ?";
+        this.deleteByLoginIdSql = "delete from " + tableName + " where login_id = ?";
+        this.selectExpiredIdsSql = "select " + this.purgeColumn + " from " + tableName + " where token_expire_time < ?";
+    }
+
+    /**
+     * 按配置的表名和摘要方式创建
+     *
+     * @param globalConfig 全局配置
+     * @return JdbcSessionSql
+     */
+    public static JdbcSessionSql of(GlobalConfig globalConfig) {
+        String digest = globalConfig.getJdbcTokenDigest();
+        int digestLength;
+        if (digest == null || digest.isEmpty() || DIGEST_NONE.equalsIgnoreCase(digest)) {
+            digestLength = 0;
+        } else if (DIGEST_SHA256.equalsIgnoreCase(digest)) {
+            digestLength = 32;
+        } else {
+            Assert.isTrue(DIGEST_SHA256_128.equalsIgnoreCase(digest), "Unsupported jdbcTokenDigest: " + digest);
+            digestLength = 16;
+        }
+        return new JdbcSessionSql(globalConfig.getTableName(), digestLength);
+    }
+
+    /**
+     * 查询条件中token对应的参数值
+     *
+     * @param token 令牌
+     * @return 不使用摘要时为token本身，否则为摘要字节数组
+     */
+    public Object key(String token) {
+        if (this.digestLength == 0) {
+            return token;
+        }
+        byte[] digest = new Sha256Hash(token).toBytes();
+        return digest.length == this.digestLength ? digest : Arrays.copyOf(digest, this.digestLength);
+    }
+
+    /**
+     * token在本地缓存和会话事件表中的文本形式
+     *
+     * @param token 令牌
+     * @return 不使用摘要时为token本身，否则为摘要的16进制文本
+     */
+    public String keyText(String token) {
+        return this.digestLength == 0 ? token : HexUtil.bytesToHex((byte[]) this.key(token));
+    }
+
+    /**
+     * 读取结果中token列（token_str或token_hash）的文本形式，与keyText一致
+     *
+     * @param rs     结果集
+     * @param column 列序号
+     * @return 文本形式的token
+     */
+    public String keyTextOf(ResultSet rs, int column) throws SQLException {
+        return this.digestLength == 0 ? rs.getString(column) : HexUtil.bytesToHex(rs.getBytes(column));
+    }
+
+    /**
+     * 一批token的查询参数
+     *
+     * @param tokens 令牌
+     * @return 参数数组
+     */
+    public Object[] keys(List<String> tokens) {
+        Object[] keys = new Object[tokens.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = this.key(tokens.get(i));
+        }
+        return keys;
+    }
+
+    /**
+     * 是否以摘要为主键
+     *
+     * @return true使用摘要，false保存原始token
+     */
+    public boolean isDigest() {
+        return this.digestLength > 0;
+    }
+
+    /**
+     * 批量查询会话的SQL（login_subject, token_expire_time, token_str或token_hash），前两列与SUBJECT_MAPPER一致
+     *
+     * @param size IN条件的参数个数
+     * @return SQL
+     */
+    public String selectSubjectsSql(int size) {
+        return "select login_subject, token_expire_time, " + this.keyColumn + " from " + this.tableName + " where " + this.keyColumn + " in (" + placeholders(size) + ")";
+    }
+
+    /**
+     * 批量查询到期时间的SQL（token_str或token_hash, token_expire_time）
+     *
+     * @param size IN条件的参数个数
+     * @return SQL
+     */
+    public String selectExpireTimesSql(int size) {
+        return "select " + this.keyColumn + ", token_expire_time from " + this.tableName + " where " + this.keyColumn + " in (" + placeholders(size) + ")";
+    }
+
+    /**
+     * 批量删除的SQL
+     *
+     * @param size IN条件的参数个数
+     * @return SQL
+     */
+    public String deleteTokensSql(int size) {
+        return "delete from " + this.tableName + " where " + this.keyColumn + " in (" + placeholders(size) + ")";
+    }
+
+    /**
+     * 清理过期会话时按id（摘要表按token_hash）批量删除的SQL
+     *
+     * @param size IN条件的参数个数
+     * @return SQL
+     */
+    public String deleteByIdsSql(int size) {
+        return "delete from " + this.tableName + " where " + this.purgeColumn + " in (" + placeholders(size) + ")";
+    }
+
+    /**
+     * 生成IN条件的占位符，如 ?,?,?
+     */
+    private static String placeholders(int size) {
+        StringBuilder builder = new StringBuilder(size * 2);
+        for (int i = 0; i < size; i++) {
+            builder.append(i == 0 ? "?" : ",?");
+        }
+        return builder.toString();
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String getInsertSql() {
+        return insertSql;
+    }
+
+    public String getSelectSubjectSql() {
+        return selectSubjectSql;
+    }
+
+    public String getSelectExpireTimeSql() {
+        return selectExpireTimeSql;
+    }
+
+    public String getSelectLoginIdSql() {
+        return selectLoginIdSql;
+    }
+
+    public String getRefreshSql() {
+        return refreshSql;
+    }
+
+    public String getRefreshSubjectSql() {
+        return refreshSubjectSql;
+    }
+
+    public String getDeleteSql() {
+        return deleteSql;
+    }
+
+    public String getDeleteByLoginIdSql() {
+        return deleteByLoginIdSql;
+    }
+
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    public String getSelectExpiredIdsSql() {
+        return selectExpiredIdsSql;
+    }
+}
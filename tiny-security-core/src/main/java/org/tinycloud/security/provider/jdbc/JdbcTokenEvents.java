@@ -0,0 +1,228 @@
+package org.tinycloud.security.provider.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.tinycloud.security.util.clock.AuthClockHolder;
+
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * 基于会话事件表的本地缓存失效：删除或改写会话时写入一行事件（token或loginId），各节点按自增id的高水位轮询新事件，使本地缓存失效
+ * </p>
+ * 启动时从当前最大的id开始，之前的事件不再处理。事件保留EVENT_RETENTION后由轮询的节点顺带删除（各节点都删除，删除是幂等的）。
+ * 自增id先分配、后提交的事件（并发写入时）可能在轮询越过它之后才可见：轮询时记下高水位之下跳过的id（空洞），
+ * 之后每次轮询按id范围重新扫描最早的空洞到高水位之间的事件，补处理后来提交的事件；空洞超过LATE_COMMIT_WINDOW仍未出现时
+ * 视为回滚或序列跳号，不再等待。
+ * token_str列写入的是本地缓存的键（JdbcSessionSql.keyText），会话表以摘要为主键时是摘要的16进制文本，不是原始token。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-19 20:30
+ */
+public class JdbcTokenEvents implements AutoCloseable {
+    final static Logger log = LoggerFactory.getLogger(JdbcTokenEvents.class);
+
+    /**
+     * 每次轮询最多读取的事件数，读满时接着读下一批
+     */
+    private static final int POLL_SIZE = 1000;
+
+    /**
+     * 事件的保留时长 (单位: 毫秒)
+     */
+    private static final long EVENT_RETENTION = 10 * 60 * 1000L;
+
+    /**
+     * 等待空洞中的事件提交的时长 (单位: 毫秒)
+     */
+    private static final long LATE_COMMIT_WINDOW = 60 * 1000L;
+
+    /**
+     * 最多记录的空洞数，超出时丢弃最早的空洞
+     */
+    private static final int MAX_GAPS = 10000;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final JdbcLocalCache cache;
+
+    private final String insertSql;
+
+    private final String pollSql;
+
+    private final String rescanSql;
+
+    private final String cleanSql;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * 已处理的最大事件id
+     */
+    private volatile long highWater;
+
+    /**
+     * 高水位之下尚未出现的id -> 发现空洞的时间
+     */
+    private final TreeMap<Long, Long> gaps = new TreeMap<>();
+
+    private long lastCleanTime;
+
+    /**
+     * 构造函数，并开始轮询
+     *
+     * @param jdbcTemplate jdbcTemplate
+     * @param eventTable   会话事件表
+     * @param cache        本地缓存
+     * @param interval     轮询间隔 (单位: 毫秒)
+     */
+    public JdbcTokenEvents(JdbcTemplate jdbcTemplate, String eventTable, JdbcLocalCache cache, long interval) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.cache = cache;
+        this.insertSql = "insert into " + eventTable + " (token_str, login_id, created_at) values (?,?,?)";
+        this.pollSql = "select id, token_str, login_id from " + eventTable + " where id > ? order by id";
+        this.rescanSql = "select id, token_str, login_id from " + eventTable + " where id >= ? and id <= ?";
+        this.cleanSql = "delete from " + eventTable + " where created_at < ?";
+        Long maxId = jdbcTemplate.queryForObject("select max(id) from " + eventTable, Long.class);
+        this.highWater = maxId == null ? 0L : maxId;
+        this.lastCleanTime = AuthClockHolder.currentTimeMillis();
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tiny-security-jdbc-event");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1L, interval);
+        this.executor.scheduleWithFixedDelay(this::pollQuietly, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 写入token失效事件
+     *
+     * @param tokens 令牌的文本形式（JdbcSessionSql.keyText）
+     */
+    public void publishTokens(Collection<String> tokens) {
+        if (tokens.isEmpty()) {
+            return;
+        }
+        long now = AuthClockHolder.currentTimeMillis();
+        List<Object[]> batchArgs = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            batchArgs.add(new Object[]{token, null, now});
+        }
+        this.jdbcTemplate.batchUpdate(this.insertSql, batchArgs);
+    }
+
+    /**
+     * 写入loginId失效事件（该loginId的全部会话）
+     *
+     * @param loginId loginId
+     */
+    public void publishLoginId(Object loginId) {
+        this.jdbcTemplate.update(this.insertSql, null, String.valueOf(loginId), AuthClockHolder.currentTimeMillis());
+    }
+
+    /**
+     * 补处理空洞中后来提交的事件，再读取高水位之后的事件，使本地缓存失效
+     *
+     * @return 处理的事件数
+     */
+    public synchronized int poll() {
+        int total = this.rescanGaps();
+        while (true) {
+            long from = this.highWater;
+            long now = AuthClockHolder.currentTimeMillis();
+            List<Long> ids = new ArrayList<>();
+            this.jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(this.pollSql);
+                ps.setMaxRows(POLL_SIZE);
+                ps.setLong(1, from);
+                return ps;
+            }, rs -> {
+                long id = rs.getLong(1);
+                long last = ids.isEmpty() ? from : ids.get(ids.size() - 1);
+                for (long gap = Math.max(last + 1, id - MAX_GAPS); gap < id; gap++) {
+                    this.gaps.put(gap, now);
+                }
+                this.invalidate(rs.getString(2), rs.getString(3));
+                ids.add(id);
+            });
+            if (!ids.isEmpty()) {
+                this.highWater = ids.get(ids.size() - 1);
+            }
+            while (this.gaps.size() > MAX_GAPS) {
+                this.gaps.pollFirstEntry();
+            }
+            total += ids.size();
+            if (ids.size() < POLL_SIZE) {
+                return total;
+            }
+        }
+    }
+
+    /**
+     * 重新扫描最早的空洞到最晚的空洞之间的事件，处理其中落在空洞里的（先分配id、后提交的）事件
+     *
+     * @return 处理的事件数
+     */
+    private int rescanGaps() {
+        if (this.gaps.isEmpty()) {
+            return 0;
+        }
+        long now = AuthClockHolder.currentTimeMillis();
+        this.gaps.values().removeIf(time -> now - time > LATE_COMMIT_WINDOW);
+        if (this.gaps.isEmpty()) {
+            return 0;
+        }
+        int[] found = new int[1];
+        this.jdbcTemplate.query(this.rescanSql, rs -> {
+            if (this.gaps.remove(rs.getLong(1)) != null) {
+                this.invalidate(rs.getString(2), rs.getString(3));
+                found[0]++;
+            }
+        }, this.gaps.firstKey(), this.gaps.lastKey());
+        return found[0];
+    }
+
+    private void invalidate(String token, String loginId) {
+        if (token != null) {
+            this.cache.invalidate(token);
+        }
+        if (loginId != null) {
+            this.cache.invalidateLoginId(loginId);
+        }
+    }
+
+    private void pollQuietly() {
+        try {
+            this.poll();
+            long now = AuthClockHolder.currentTimeMillis();
+            if (now - this.lastCleanTime >= EVENT_RETENTION) {
+                this.lastCleanTime = now;
+                this.jdbcTemplate.update(this.cleanSql, now - EVENT_RETENTION);
+            }
+        } catch (Exception e) {
+            // 下次从同一个高水位继续
+            log.error("JdbcTokenEvents - poll - failed，Exception：{e}", e);
+        }
+    }
+
+    /**
+     * 停止轮询
+     */
+    @Override
+    public void close() {
+        this.executor.shutdown();
+    }
+
+    public long getHighWater() {
+        return this.highWater;
+    }
+}
@@ -0,0 +1,504 @@
+package org.tinycloud.security.provider.offheap;
+
+import org.tinycloud.security.provider.LoginSubject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * <p>
+ * 堆外会话表
+ * </p>
+ * 会话数据（token的哈希与原文、到期时间、紧凑编码的LoginSubject）全部存放在直接内存（DirectByteBuffer）中，
+ * 按token哈希分段，每段是一张以固定大小槽位组成的开放寻址（线性探测）哈希表，删除时留下墓碑，扩容或清理时重新散列。
+ * 堆上只保留每段一个ByteBuffer引用、一把读写锁和几个计数器，几百万会话也不会增加老年代的对象数量。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-12 10:30
+ */
+public class OffHeapSessionTable {
+
+    /**
+     * token的最大字节数（random128风格为128字节）
+     */
+    public static final int MAX_TOKEN_LENGTH = 128;
+
+    /**
+     * loginId的最大字节数，与jdbc表中login_id字段的长度一致
+     */
+    public static final int MAX_LOGIN_ID_LENGTH = 64;
+
+    // 槽位布局
+    private static final int OFFSET_STATE = 0;
+    private static final int OFFSET_ID_TYPE = 1;
+    private static final int OFFSET_TOKEN_LENGTH = 2;
+    private static final int OFFSET_LOGIN_ID_LENGTH = 4;
+    private static final int OFFSET_TOKEN_HASH = 8;
+    private static final int OFFSET_LOGIN_ID_HASH = 16;
+    private static final int OFFSET_EXPIRE_TIME = 24;
+    private static final int OFFSET_LOGIN_TIME = 32;
+    private static final int OFFSET_LOGIN_EXPIRE_TIME = 40;
+    private static final int OFFSET_TOKEN = 48;
+    private static final int OFFSET_LOGIN_ID = OFFSET_TOKEN + MAX_TOKEN_LENGTH;
+    private static final int SLOT_SIZE = 256;
+
+    private static final byte STATE_EMPTY = 0;
+    private static final byte STATE_USED = 1;
+    private static final byte STATE_DELETED = 2;
+
+    private static final byte ID_LONG = 1;
+    private static final byte ID_INT = 2;
+    private static final byte ID_STRING = 3;
+
+    /**
+     * 表示LoginSubject中为null的时间字段
+     */
+    private static final long NULL_TIME = Long.MIN_VALUE;
+
+    /**
+     * 每段最多容纳的槽位数（单个DirectByteBuffer为1GB）
+     */
+    private static final int MAX_SEGMENT_CAPACITY = 1 << 22;
+
+    private final Segment[] segments;
+
+    private final int segmentShift;
+
+    /**
+     * @param segmentCount    分段数，会向上取整为2的幂
+     * @param initialCapacity 初始总槽位数
+     */
+    public OffHeapSessionTable(int segmentCount, int initialCapacity) {
+        int count = ceilingPowerOfTwo(Math.max(1, segmentCount));
+        this.segments = new Segment[count];
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(count);
+        int perSegment = ceilingPowerOfTwo(Math.max(16, initialCapacity / count));
+        for (int i = 0; i < count; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * 写入会话（已存在时覆盖）
+     *
+     * @param token      令牌
+     * @param subject    登录用户
+     * @param expireTime 到期时间 (单位: 毫秒)
+     */
+    public void put(String token, LoginSubject subject, long expireTime) {
+        byte[] tokenBytes = token.getBytes(StandardCharsets.UTF_8);
+        byte[] loginIdBytes = String.valueOf(subject.getLoginId()).getBytes(StandardCharsets.UTF_8);
+        if (tokenBytes.length > MAX_TOKEN_LENGTH || loginIdBytes.length > MAX_LOGIN_ID_LENGTH) {
+            throw new IllegalArgumentException("The token or loginId is too long for OffHeapAuthProvider!");
+        }
+        long hash = hash(tokenBytes);
+        segmentFor(hash).put(hash, tokenBytes, loginIdBytes, subject, expireTime);
+    }
+
+    /**
+     * 获取未过期的会话
+     *
+     * @param token 令牌
+     * @param now   当前时间 (单位: 毫秒)
+     * @return 登录用户，不存在或已过期时返回null
+     */
+    public LoginSubject get(String token, long now) {
+        byte[] tokenBytes = token.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(tokenBytes);
+        return segmentFor(hash).get(hash, tokenBytes, now);
+    }
+
+    /**
+     * 获取会话的到期时间
+     *
+     * @param token 令牌
+     * @return 到期时间，不存在时返回-1
+     */
+    public long getExpireTime(String token) {
+        byte[] tokenBytes = token.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(tokenBytes);
+        return segmentFor(hash).getExpireTime(hash, tokenBytes);
+    }
+
+    /**
+     * 更新未过期会话的到期时间
+     *
+     * @param token      令牌
+     * @param expireTime 新的到期时间 (单位: 毫秒)
+     * @param now        当前时间 (单位: 毫秒)
+     * @return true成功，false会话不存在或已过期
+     */
+    public boolean updateExpireTime(String token, long expireTime, long now) {
+        byte[] tokenBytes = token.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(tokenBytes);
+        return segmentFor(hash).updateExpireTime(hash, tokenBytes, expireTime, now);
+    }
+
+    /**
+     * 删除会话
+     *
+     * @param token 令牌
+     * @return true删除成功，false会话不存在
+     */
+    public boolean remove(String token) {
+        byte[] tokenBytes = token.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(tokenBytes);
+        return segmentFor(hash).remove(hash, tokenBytes);
+    }
+
+    /**
+     * 删除某个loginId的全部会话（逐段扫描槽位，先比较loginId哈希）
+     *
+     * @param loginId 用户id
+     * @return 删除的会话数
+     */
+    public int removeByLoginId(Object loginId) {
+        byte[] loginIdBytes = String.valueOf(loginId).getBytes(StandardCharsets.UTF_8);
+        long loginIdHash = hash(loginIdBytes);
+        int num = 0;
+        for (Segment segment : segments) {
+            num += segment.removeByLoginId(loginIdHash, loginIdBytes);
+        }
+        return num;
+    }
+
+    /**
+     * 清理所有已过期的会话
+     *
+     * @param now 当前时间 (单位: 毫秒)
+     * @return 清理的会话数
+     */
+    public int sweep(long now) {
+        int num = 0;
+        for (Segment segment : segments) {
+            num += segment.sweep(now);
+        }
+        return num;
+    }
+
+    /**
+     * 获取会话数
+     *
+     * @return 会话数
+     */
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * 获取已占用的直接内存 (单位: 字节)
+     *
+     * @return 字节数
+     */
+    public long memoryUsed() {
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += (long) segment.capacity * SLOT_SIZE;
+        }
+        return bytes;
+    }
+
+    private Segment segmentFor(long hash) {
+        return segmentShift == 64 ? segments[0] : segments[(int) (hash >>> segmentShift)];
+    }
+
+    /**
+     * 一个分段：一张开放寻址哈希表
+     */
+    private static final class Segment {
+
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+        private ByteBuffer slots;
+
+        private int capacity;
+
+        private int mask;
+
+        private volatile int size;
+
+        private int deleted;
+
+        Segment(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            this.slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+            this.size = 0;
+            this.deleted = 0;
+        }
+
+        /**
+         * 查找token所在的槽位
+         *
+         * @return 槽位下标，不存在时返回-1
+         */
+        private int find(long hash, byte[] tokenBytes) {
+            int index = (int) hash & mask;
+            for (int i = 0; i < capacity; i++) {
+                int base = index * SLOT_SIZE;
+                byte state = slots.get(base + OFFSET_STATE);
+                if (state == STATE_EMPTY) {
+                    return -1;
+                }
+                if (state == STATE_USED && slots.getLong(base + OFFSET_TOKEN_HASH) == hash && tokenEquals(base, tokenBytes)) {
+                    return index;
+                }
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        private boolean tokenEquals(int base, byte[] tokenBytes) {
+            if (slots.getShort(base + OFFSET_TOKEN_LENGTH) != tokenBytes.length) {
+                return false;
+            }
+            for (int i = 0; i < tokenBytes.length; i++) {
+                if (slots.get(base + OFFSET_TOKEN + i) != tokenBytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void put(long hash, byte[] tokenBytes, byte[] loginIdBytes, LoginSubject subject, long expireTime) {
+            lock.writeLock().lock();
+            try {
+                int index = find(hash, tokenBytes);
+                if (index < 0) {
+                    if ((size + deleted + 1) * 4L > capacity * 3L) {
+                        if (capacity < MAX_SEGMENT_CAPACITY) {
+                            // 墓碑较多时原容量重新散列即可，否则扩容一倍
+                            rehash(size * 2L < capacity ? capacity : capacity << 1);
+                        } else if (deleted * 16L >= capacity) {
+                            // 已达最大容量，无法扩容：墓碑至少占1/16时原容量重新散列清掉墓碑，查找不存在的token时不会探测大片墓碑；
+                            // 墓碑很少时重新散列腾不出空间，不复制整段，避免每次写入都重新散列
+                            rehash(capacity);
+                        }
+                        if ((size + 1) * 10L > capacity * 9L) {
+                            throw new IllegalStateException("The segment of OffHeapAuthProvider is full!");
+                        }
+                    }
+                    index = (int) hash & mask;
+                    while (slots.get(index * SLOT_SIZE + OFFSET_STATE) == STATE_USED) {
+                        index = (index + 1) & mask;
+                    }
+                    if (slots.get(index * SLOT_SIZE + OFFSET_STATE) == STATE_DELETED) {
+                        deleted--;
+                    }
+                    size++;
+                }
+                write(index * SLOT_SIZE, hash, tokenBytes, loginIdBytes, subject, expireTime);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void write(int base, long hash, byte[] tokenBytes, byte[] loginIdBytes, LoginSubject subject, long expireTime) {
+            Object loginId = subject.getLoginId();
+            byte idType = loginId instanceof Long ? ID_LONG : loginId instanceof Integer ? ID_INT : ID_STRING;
+            slots.put(base + OFFSET_STATE, STATE_USED);
+            slots.put(base + OFFSET_ID_TYPE, idType);
+            slots.putShort(base + OFFSET_TOKEN_LENGTH, (short) tokenBytes.length);
+            slots.putShort(base + OFFSET_LOGIN_ID_LENGTH, (short) loginIdBytes.length);
+            slots.putLong(base + OFFSET_TOKEN_HASH, hash);
+            slots.putLong(base + OFFSET_LOGIN_ID_HASH, OffHeapSessionTable.hash(loginIdBytes));
+            slots.putLong(base + OFFSET_EXPIRE_TIME, expireTime);
+            slots.putLong(base + OFFSET_LOGIN_TIME, subject.getLoginTime() == null ? NULL_TIME : subject.getLoginTime());
+            slots.putLong(base + OFFSET_LOGIN_EXPIRE_TIME, subject.getLoginExpireTime() == null ? NULL_TIME : subject.getLoginExpireTime());
+            for (int i = 0; i < tokenBytes.length; i++) {
+                slots.put(base + OFFSET_TOKEN + i, tokenBytes[i]);
+            }
+            for (int i = 0; i < loginIdBytes.length; i++) {
+                slots.put(base + OFFSET_LOGIN_ID + i, loginIdBytes[i]);
+            }
+        }
+
+        LoginSubject get(long hash, byte[] tokenBytes, long now) {
+            lock.readLock().lock();
+            try {
+                int index = find(hash, tokenBytes);
+                if (index < 0) {
+                    return null;
+                }
+                int base = index * SLOT_SIZE;
+                if (slots.getLong(base + OFFSET_EXPIRE_TIME) < now) {
+                    return null;
+                }
+                return readSubject(base);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        private LoginSubject readSubject(int base) {
+            int loginIdLength = slots.getShort(base + OFFSET_LOGIN_ID_LENGTH);
+            byte[] loginIdBytes = new byte[loginIdLength];
+            for (int i = 0; i < loginIdLength; i++) {
+                loginIdBytes[i] = slots.get(base + OFFSET_LOGIN_ID + i);
+            }
+            String loginIdStr = new String(loginIdBytes, StandardCharsets.UTF_8);
+            byte idType = slots.get(base + OFFSET_ID_TYPE);
+            LoginSubject subject = new LoginSubject();
+            subject.setLoginId(idType == ID_LONG ? (Object) Long.valueOf(loginIdStr)
+                    : idType == ID_INT ? (Object) Integer.valueOf(loginIdStr) : loginIdStr);
+            long loginTime = slots.getLong(base + OFFSET_LOGIN_TIME);
+            long loginExpireTime = slots.getLong(base + OFFSET_LOGIN_EXPIRE_TIME);
+            subject.setLoginTime(loginTime == NULL_TIME ? null : loginTime);
+            subject.setLoginExpireTime(loginExpireTime == NULL_TIME ? null : loginExpireTime);
+            return subject;
+        }
+
+        long getExpireTime(long hash, byte[] tokenBytes) {
+            lock.readLock().lock();
+            try {
+                int index = find(hash, tokenBytes);
+                return index < 0 ? -1L : slots.getLong(index * SLOT_SIZE + OFFSET_EXPIRE_TIME);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
+        boolean updateExpireTime(long hash, byte[] tokenBytes, long expireTime, long now) {
+            lock.writeLock().lock();
+            try {
+                int index = find(hash, tokenBytes);
+                if (index < 0 || slots.getLong(index * SLOT_SIZE + OFFSET_EXPIRE_TIME) < now) {
+                    return false;
+                }
+                slots.putLong(index * SLOT_SIZE + OFFSET_EXPIRE_TIME, expireTime);
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        boolean remove(long hash, byte[] tokenBytes) {
+            lock.writeLock().lock();
+            try {
+                int index = find(hash, tokenBytes);
+                if (index < 0) {
+                    return false;
+                }
+                markDeleted(index * SLOT_SIZE);
+                return true;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        int removeByLoginId(long loginIdHash, byte[] loginIdBytes) {
+            lock.writeLock().lock();
+            try {
+                int num = 0;
+                for (int index = 0; index < capacity; index++) {
+                    int base = index * SLOT_SIZE;
+                    if (slots.get(base + OFFSET_STATE) == STATE_USED
+                            && slots.getLong(base + OFFSET_LOGIN_ID_HASH) == loginIdHash
+                            && loginIdEquals(base, loginIdBytes)) {
+                        markDeleted(base);
+                        num++;
+                    }
+                }
+                return num;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private boolean loginIdEquals(int base, byte[] loginIdBytes) {
+            if (slots.getShort(base + OFFSET_LOGIN_ID_LENGTH) != loginIdBytes.length) {
+                return false;
+            }
+            for (int i = 0; i < loginIdBytes.length; i++) {
+                if (slots.get(base + OFFSET_LOGIN_ID + i) != loginIdBytes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int sweep(long now) {
+            lock.writeLock().lock();
+            try {
+                int num = 0;
+                for (int index = 0; index < capacity; index++) {
+                    int base = index * SLOT_SIZE;
+                    if (slots.get(base + OFFSET_STATE) == STATE_USED && slots.getLong(base + OFFSET_EXPIRE_TIME) < now) {
+                        markDeleted(base);
+                        num++;
+                    }
+                }
+                // 墓碑过多会拉长探测链，原容量重新散列
+                if (deleted * 4L > capacity) {
+                    rehash(capacity);
+                }
+                return num;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        private void markDeleted(int base) {
+            slots.put(base + OFFSET_STATE, STATE_DELETED);
+            size--;
+            deleted++;
+        }
+
+        /**
+         * 按新容量重新散列，丢弃墓碑
+         */
+        private void rehash(int newCapacity) {
+            ByteBuffer old = this.slots;
+            int oldCapacity = this.capacity;
+            allocate(newCapacity);
+            int count = 0;
+            for (int index = 0; index < oldCapacity; index++) {
+                int base = index * SLOT_SIZE;
+                if (old.get(base + OFFSET_STATE) != STATE_USED) {
+                    continue;
+                }
+                int target = (int) old.getLong(base + OFFSET_TOKEN_HASH) & mask;
+                while (slots.get(target * SLOT_SIZE + OFFSET_STATE) == STATE_USED) {
+                    target = (target + 1) & mask;
+                }
+                for (int i = 0; i < SLOT_SIZE; i++) {
+                    slots.put(target * SLOT_SIZE + i, old.get(base + i));
+                }
+                count++;
+            }
+            this.size = count;
+        }
+    }
+
+    /**
+     * 64位FNV-1a哈希，再做一次混淆，高位用于选择分段，低位用于定位槽位
+     */
+    private static long hash(byte[] bytes) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static int ceilingPowerOfTwo(int n) {
+        int size = 1;
+        while (size < n && size < (1 << 30)) {
+            size <<= 1;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,135 @@
+package org.tinycloud.security.provider.redis;
+
+import io.lettuce.core.AbstractRedisClient;
+import io.lettuce.core.RedisChannelHandler;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisConnectionStateAdapter;
+import io.lettuce.core.TrackingArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.push.PushListener;
+import io.lettuce.core.api.push.PushMessage;
+import io.lettuce.core.codec.StringCodec;
+import io.lettuce.core.protocol.ProtocolVersion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.tinycloud.security.consts.AuthConsts;
+
+import java.net.SocketAddress;
+import java.util.List;
+
+/**
+ * <p>
+ * 基于redis客户端跟踪（RESP3 CLIENT TRACKING BCAST）的近端缓存失效监听
+ * </p>
+ * 用一条独立的lettuce连接开启广播模式的客户端跟踪，任何客户端修改会话key（包括续期、删除、过期）时，redis会主动推送失效消息，
+ * 不需要各节点自己发布失效消息。仅支持lettuce单机连接，且服务端需为redis 6及以上；连接断开期间缓存不可用，重连后重新开启跟踪。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-16 11:05
+ */
+public class ClientTrackingListener extends RedisConnectionStateAdapter implements PushListener, AutoCloseable {
+    final static Logger log = LoggerFactory.getLogger(ClientTrackingListener.class);
+
+    private final AbstractRedisClient client;
+
+    private final StatefulRedisConnection<String, String> connection;
+
+    private final String keyPrefix = AuthConsts.AUTH_TOKEN_KEY;
+
+    /**
+     * 用于由会话key还原出token
+     */
+    private final RedisSessionScripts scripts;
+
+    private final NearCache nearCache;
+
+    private ClientTrackingListener(RedisClient client, RedisSessionScripts scripts, NearCache nearCache) {
+        this.client = client;
+        this.scripts = scripts;
+        this.nearCache = nearCache;
+        this.connection = client.connect();
+    }
+
+    /**
+     * 开启客户端跟踪
+     *
+     * @param connectionFactory redis连接工厂
+     * @param scripts           会话脚本（由会话key还原出token）
+     * @param nearCache         近端缓存
+     * @return 监听器，客户端不支持时返回null
+     */
+    public static ClientTrackingListener start(RedisConnectionFactory connectionFactory, RedisSessionScripts scripts, NearCache nearCache) {
+        if (!(connectionFactory instanceof LettuceConnectionFactory)) {
+            return null;
+        }
+        AbstractRedisClient nativeClient = ((LettuceConnectionFactory) connectionFactory).getNativeClient();
+        if (!(nativeClient instanceof RedisClient)
+                || nativeClient.getOptions().getConfiguredProtocolVersion() == ProtocolVersion.RESP2) {
+            return null;
+        }
+        ClientTrackingListener listener = new ClientTrackingListener((RedisClient) nativeClient, scripts, nearCache);
+        try {
+            listener.connection.addListener(listener);
+            listener.connection.sync().clientTracking(listener.trackingArgs());
+            nativeClient.addListener(listener);
+            return listener;
+        } catch (Exception e) {
+            listener.connection.close();
+            log.warn("ClientTrackingListener - start - failed，Exception：{}", e.getMessage());
+            return null;
+        }
+    }
+
+    private TrackingArgs trackingArgs() {
+        return TrackingArgs.Builder.enabled().bcast().prefixes(keyPrefix);
+    }
+
+    @Override
+    public void onPushMessage(PushMessage message) {
+        if (!"invalidate".equals(message.getType())) {
+            return;
+        }
+        List<Object> content = message.getContent(StringCodec.UTF8::decodeKey);
+        Object keys = content.size() > 1 ? content.get(1) : null;
+        if (!(keys instanceof List)) {
+            // 服务端清空了跟踪表（如FLUSHALL），全部失效
+            nearCache.clear();
+            return;
+        }
+        for (Object key : (List<?>) keys) {
+            String str = String.valueOf(key);
+            if (str.startsWith(keyPrefix)) {
+                nearCache.invalidate(scripts.tokenOfKey(str));
+            }
+        }
+    }
+
+    @Override
+    public void onRedisDisconnected(RedisChannelHandler<?, ?> connection) {
+        if (connection == this.connection) {
+            // 断开期间的失效消息会丢失，先停用缓存，重连并重新开启跟踪后再恢复
+            nearCache.setAvailable(false);
+        }
+    }
+
+    @Override
+    public void onRedisConnected(RedisChannelHandler<?, ?> connection, SocketAddress socketAddress) {
+        if (connection == this.connection && !nearCache.isAvailable()) {
+            this.connection.async().clientTracking(trackingArgs()).whenComplete((result, e) -> {
+                if (e == null) {
+                    nearCache.setAvailable(true);
+                } else {
+                    log.error("ClientTrackingListener - reconnect - failed，Exception：{e}", e);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void close() {
+        client.removeListener(this);
+        connection.close();
+    }
+}
@@ -0,0 +1,238 @@
+package org.tinycloud.security.provider.redis;
+
+import org.tinycloud.security.provider.LoginSubject;
+import org.tinycloud.security.provider.single.EvictionPolicy;
+import org.tinycloud.security.provider.single.LruEvictionPolicy;
+import org.tinycloud.security.util.clock.AuthClockHolder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * redis会话的本地近端缓存（L1），容量有上限（超出后按LRU淘汰），每个条目的有效期取本地缓存时长和会话到期时间中较早的一个
+ * </p>
+ * 其他节点删除或改写会话时通过失效消息清除本地条目；失效消息丢失时（订阅连接断开等），过期数据最多存活一个本地缓存时长。
+ * 读redis和写缓存之间如果收到了失效消息，本次读到的数据可能已经过期，通过失效序号丢弃这次写入。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-16 10:20
+ */
+public class NearCache {
+
+    /**
+     * 缓存条目，subject不对外暴露，读取时返回副本
+     */
+    private static final class Entry {
+        private final LoginSubject subject;
+        private final long expireAt;
+
+        private Entry(LoginSubject subject, long expireAt) {
+            this.subject = subject;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry> map;
+
+    private final EvictionPolicy policy = new LruEvictionPolicy();
+
+    private final int maxSize;
+
+    private final long ttl;
+
+    /**
+     * 失效序号，每次失效时加一
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * 是否可用，失效通知中断期间（如客户端跟踪的连接断开）停止读写缓存
+     */
+    private volatile boolean available = true;
+
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder invalidationCount = new LongAdder();
+
+    /**
+     * 构造函数
+     *
+     * @param maxSize 最大条目数
+     * @param ttl     本地缓存时长 (单位: 毫秒)
+     */
+    public NearCache(int maxSize, long ttl) {
+        this.maxSize = Math.max(1, maxSize);
+        this.ttl = Math.max(1L, ttl);
+        this.map = new ConcurrentHashMap<>(Math.min(this.maxSize, 65536));
+    }
+
+    /**
+     * 获取当前失效序号，读redis之前调用，写入缓存时传回
+     *
+     * @return 失效序号
+     */
+    public long stamp() {
+        return sequence.get();
+    }
+
+    /**
+     * 读取缓存的会话
+     *
+     * @param token 令牌
+     * @return 会话副本，未命中或已过期时返回null
+     */
+    public LoginSubject get(String token) {
+        if (!available) {
+            missCount.increment();
+            return null;
+        }
+        Entry entry = map.get(token);
+        if (entry == null) {
+            missCount.increment();
+            return null;
+        }
+        if (entry.expireAt <= AuthClockHolder.currentTimeMillis()) {
+            if (map.remove(token, entry)) {
+                policy.onRemove(token);
+            }
+            missCount.increment();
+            return null;
+        }
+        policy.onAccess(token);
+        hitCount.increment();
+        return entry.subject.copy();
+    }
+
+    /**
+     * 写入缓存
+     *
+     * @param token   令牌
+     * @param subject 会话（会复制一份保存）
+     * @param stamp   读redis之前取得的失效序号
+     */
+    public void put(String token, LoginSubject subject, long stamp) {
+        if (!available || subject == null) {
+            return;
+        }
+        long now = AuthClockHolder.currentTimeMillis();
+        long expireAt = now + ttl;
+        if (subject.getLoginExpireTime() != null) {
+            expireAt = Math.min(expireAt, subject.getLoginExpireTime());
+        }
+        if (expireAt <= now) {
+            return;
+        }
+        Entry entry = new Entry(subject.copy(), expireAt);
+        Entry old = map.put(token, entry);
+        if (sequence.get() != stamp) {
+            // 读redis期间发生过失效，无法确定读到的数据是否仍然有效
+            if (map.remove(token, entry)) {
+                policy.onRemove(token);
+            }
+            return;
+        }
+        if (old == null) {
+            policy.onInsert(token);
+            while (map.size() > maxSize) {
+                String victim = policy.evict();
+                if (victim == null) {
+                    break;
+                }
+                if (map.remove(victim) != null) {
+                    evictionCount.increment();
+                }
+            }
+        } else {
+            policy.onAccess(token);
+        }
+    }
+
+    /**
+     * 使一个token的缓存失效
+     *
+     * @param token 令牌
+     */
+    public void invalidate(String token) {
+        sequence.incrementAndGet();
+        invalidationCount.increment();
+        if (map.remove(token) != null) {
+            policy.onRemove(token);
+        }
+    }
+
+    /**
+     * 使一个loginId的全部缓存失效（遍历全部条目，用于按loginId删除会话这类不常见的操作）
+     *
+     * @param loginId loginId（按String.valueOf比较）
+     */
+    public void invalidateLoginId(String loginId) {
+        sequence.incrementAndGet();
+        for (Map.Entry<String, Entry> entry : map.entrySet()) {
+            if (loginId.equals(String.valueOf(entry.getValue().subject.getLoginId())) && map.remove(entry.getKey(), entry.getValue())) {
+                policy.onRemove(entry.getKey());
+                invalidationCount.increment();
+            }
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        sequence.incrementAndGet();
+        for (String token : map.keySet()) {
+            if (map.remove(token) != null) {
+                policy.onRemove(token);
+            }
+        }
+    }
+
+    /**
+     * 设置缓存是否可用，状态变化时清空缓存
+     *
+     * @param available true可用，false不可用
+     */
+    public void setAvailable(boolean available) {
+        this.available = available;
+        this.clear();
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public long getHitCount() {
+        return hitCount.sum();
+    }
+
+    public long getMissCount() {
+        return missCount.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidationCount.sum();
+    }
+
+    /**
+     * 获取命中率
+     *
+     * @return 命中率，0~1，尚无请求时返回0
+     */
+    public double getHitRatio() {
+        long hits = hitCount.sum();
+        long total = hits + missCount.sum();
+        return total == 0 ? 0D : (double) hits / total;
+    }
+}
@@ -0,0 +1,249 @@
+package org.tinycloud.security.provider.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tinycloud.security.util.clock.AuthClockHolder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * redis访问的熔断器，redis卡顿或不可用时停止访问，避免请求线程都阻塞在redis调用上直到客户端超时
+ * </p>
+ * 按最近windowSize次调用统计，异常和耗时超过慢调用阈值的调用都记为失败，失败比例达到阈值后打开（OPEN），期间的调用不访问redis；
+ * 打开openDuration后进入半开（HALF_OPEN），只放行一次试探调用，成功则关闭（CLOSED），失败则重新打开。
+ * tryAcquire返回许可号，调用结束时带回：只有试探调用自己的结果能决定半开之后的状态，打开之前开始、迟迟才结束的调用不影响状态，
+ * 关闭状态下也只统计本次关闭之后开始的调用。
+ * 状态转换会记录日志并计数，可通过getter读取。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-19 16:10
+ */
+public class RedisCircuitBreaker {
+    final static Logger log = LoggerFactory.getLogger(RedisCircuitBreaker.class);
+
+    public enum State {
+        /**
+         * 关闭，正常访问redis
+         */
+        CLOSED,
+        /**
+         * 打开，不访问redis
+         */
+        OPEN,
+        /**
+         * 半开，放行一次试探调用
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * tryAcquire拒绝时的返回值
+     */
+    public static final long REJECTED = -1L;
+
+    private final int windowSize;
+
+    private final int failureRateThreshold;
+
+    private final long slowCallNanos;
+
+    private final long openDuration;
+
+    /**
+     * 最近windowSize次调用是否失败（环形）
+     */
+    private final boolean[] outcomes;
+
+    private int position;
+
+    private int recorded;
+
+    private int failures;
+
+    private volatile State state = State.CLOSED;
+
+    /**
+     * 打开的时间，或半开状态下试探调用开始的时间
+     */
+    private volatile long stateTime;
+
+    /**
+     * 许可号，每次状态转换和每次放行试探调用时递增
+     */
+    private volatile long generation;
+
+    /**
+     * 半开状态下当前试探调用的许可号
+     */
+    private long trialPermit = REJECTED;
+
+    private final LongAdder openCount = new LongAdder();
+    private final LongAdder halfOpenCount = new LongAdder();
+    private final LongAdder closeCount = new LongAdder();
+    private final LongAdder rejectedCount = new LongAdder();
+    private final LongAdder failureCount = new LongAdder();
+    private final LongAdder slowCallCount = new LongAdder();
+
+    /**
+     * 构造函数
+     *
+     * @param windowSize           统计的调用次数
+     * @param failureRateThreshold 失败比例阈值 (单位: %)
+     * @param slowCallThreshold    慢调用阈值 (单位: 毫秒)
+     * @param openDuration         打开后多久进入半开 (单位: 毫秒)
+     */
+    public RedisCircuitBreaker(int windowSize, int failureRateThreshold, long slowCallThreshold, long openDuration) {
+        this.windowSize = Math.max(1, windowSize);
+        this.failureRateThreshold = Math.min(100, Math.max(1, failureRateThreshold));
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1L, slowCallThreshold));
+        this.openDuration = Math.max(1L, openDuration);
+        this.outcomes = new boolean[this.windowSize];
+    }
+
+    /**
+     * 申请访问redis，放行时需要在调用结束后带着许可号调用onSuccess或onError
+     *
+     * @return 许可号，拒绝时返回REJECTED
+     */
+    public long tryAcquire() {
+        // 先读许可号再读状态：两次读之间发生状态转换时，许可号已过期，结果不会被统计
+        long permit = this.generation;
+        if (this.state == State.CLOSED) {
+            return permit;
+        }
+        return this.acquireSlow();
+    }
+
+    private synchronized long acquireSlow() {
+        long now = AuthClockHolder.currentTimeMillis();
+        if (this.state == State.OPEN && now - this.stateTime >= this.openDuration) {
+            this.transitionTo(State.HALF_OPEN, now);
+        }
+        if (this.state == State.CLOSED) {
+            return this.generation;
+        }
+        // 试探调用迟迟没有结果（如一直阻塞）时，允许再试探一次，之前的试探调用作废
+        if (this.state == State.HALF_OPEN && (this.trialPermit == REJECTED || now - this.stateTime >= this.openDuration)) {
+            this.trialPermit = ++this.generation;
+            this.stateTime = now;
+            return this.trialPermit;
+        }
+        this.rejectedCount.increment();
+        return REJECTED;
+    }
+
+    /**
+     * 记录一次成功的调用，耗时超过慢调用阈值时记为失败
+     *
+     * @param permit     tryAcquire返回的许可号
+     * @param startNanos 调用开始时的System.nanoTime()，小于0时不判断耗时（批量操作）
+     */
+    public void onSuccess(long permit, long startNanos) {
+        boolean slow = startNanos >= 0 && System.nanoTime() - startNanos > this.slowCallNanos;
+        if (slow) {
+            this.slowCallCount.increment();
+        }
+        this.record(permit, slow);
+    }
+
+    /**
+     * 记录一次失败的调用
+     *
+     * @param permit tryAcquire返回的许可号
+     */
+    public void onError(long permit) {
+        this.record(permit, true);
+    }
+
+    private synchronized void record(long permit, boolean failure) {
+        if (failure) {
+            this.failureCount.increment();
+        }
+        if (this.state == State.HALF_OPEN) {
+            // 只有当前试探调用的结果决定关闭还是重新打开
+            if (permit == this.trialPermit) {
+                this.transitionTo(failure ? State.OPEN : State.CLOSED, AuthClockHolder.currentTimeMillis());
+            }
+            return;
+        }
+        if (this.state == State.OPEN || permit != this.generation) {
+            // 打开期间结束的调用，或本次关闭之前开始的调用，结果不再统计
+            return;
+        }
+        if (this.recorded == this.windowSize && this.outcomes[this.position]) {
+            this.failures--;
+        }
+        this.outcomes[this.position] = failure;
+        if (failure) {
+            this.failures++;
+        }
+        this.position = (this.position + 1) % this.windowSize;
+        if (this.recorded < this.windowSize) {
+            this.recorded++;
+        }
+        if (this.recorded == this.windowSize && this.failures * 100 >= this.failureRateThreshold * this.windowSize) {
+            this.transitionTo(State.OPEN, AuthClockHolder.currentTimeMillis());
+        }
+    }
+
+    private void transitionTo(State target, long now) {
+        State previous = this.state;
+        this.state = target;
+        this.stateTime = now;
+        this.generation++;
+        this.trialPermit = REJECTED;
+        this.position = 0;
+        this.recorded = 0;
+        this.failures = 0;
+        switch (target) {
+            case OPEN:
+                this.openCount.increment();
+                log.warn("RedisCircuitBreaker {} -> OPEN, redis calls are suspended for {}ms", previous, this.openDuration);
+                break;
+            case HALF_OPEN:
+                this.halfOpenCount.increment();
+                log.info("RedisCircuitBreaker {} -> HALF_OPEN", previous);
+                break;
+            default:
+                this.closeCount.increment();
+                log.info("RedisCircuitBreaker {} -> CLOSED", previous);
+        }
+    }
+
+    public State getState() {
+        return this.state;
+    }
+
+    /**
+     * 最近一次状态转换的时间（半开状态下为试探调用开始的时间）
+     */
+    public long getStateTime() {
+        return this.stateTime;
+    }
+
+    public long getOpenCount() {
+        return this.openCount.sum();
+    }
+
+    public long getHalfOpenCount() {
+        return this.halfOpenCount.sum();
+    }
+
+    public long getCloseCount() {
+        return this.closeCount.sum();
+    }
+
+    public long getRejectedCount() {
+        return this.rejectedCount.sum();
+    }
+
+    public long getFailureCount() {
+        return this.failureCount.sum();
+    }
+
+    public long getSlowCallCount() {
+        return this.slowCallCount.sum();
+    }
+}
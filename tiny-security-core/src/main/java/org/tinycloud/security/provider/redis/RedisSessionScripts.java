@@ -0,0 +1,572 @@
+package org.tinycloud.security.provider.redis;
+
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.tinycloud.security.config.GlobalConfig;
+import org.tinycloud.security.config.GlobalConfigUtils;
+import org.tinycloud.security.consts.AuthConsts;
+import org.tinycloud.security.provider.LoginSubject;
+import org.tinycloud.security.provider.codec.BinarySessionCodec;
+import org.tinycloud.security.provider.codec.JsonSessionCodec;
+import org.tinycloud.security.provider.codec.SessionCodec;
+import org.tinycloud.security.util.JsonUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * redis会话的key、Lua脚本及其参数、返回值的转换，阻塞式和响应式的redis存储共用，保证两者读写的数据格式一致
+ * </p>
+ * 会话可以存为一个字符串值（string，内容由SessionCodec编码，JSON或紧凑的二进制）或HASH（hash），按存储方式选择对应的一组脚本。
+ * 开启集群hash tag后，新签发的token以loginId所在slot的4位16进制数开头（如0a3f.xxxx），会话key和loginId索引key带上相同的hash tag（{0a3f}），
+ * 同一用户的全部会话和索引落在同一个slot，多key命令和脚本在Redis Cluster下可以直接执行；不带tag的token仍按原来的key读写。
+ * 开启会话事件后，脚本同时维护每个会话的影子key（值为loginId，比会话多保留SHADOW_GRACE），会话过期或被删除后由事件监听取出loginId。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-18 09:40
+ */
+public final class RedisSessionScripts {
+
+    /**
+     * 返回列表的脚本的结果类型
+     */
+    @SuppressWarnings("unchecked")
+    private static final Class<List<Object>> LIST_TYPE = (Class<List<Object>>) (Class<?>) List.class;
+
+    /**
+     * 保存会话并维护loginId索引：写入会话、更新索引中token的到期时间、清理索引中已过期的token、延长索引的有效期
+     * KEYS[1] 会话key，KEYS[2] 索引key，KEYS[3] 影子key(可选)；ARGV[1] 会话内容，ARGV[2] 有效时间(毫秒)，ARGV[3] 到期时间，ARGV[4] token，ARGV[5] 当前时间，
+     * ARGV[6] loginId(JSON)，ARGV[7] 影子key的有效时间(毫秒)
+     */
+    public static final RedisScript<Long> SAVE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2]) " +
+                    "redis.call('ZADD', KEYS[2], ARGV[3], ARGV[4]) " +
+                    "redis.call('ZREMRANGEBYSCORE', KEYS[2], '-inf', '(' .. ARGV[5]) " +
+                    "if redis.call('PTTL', KEYS[2]) < tonumber(ARGV[2]) then redis.call('PEXPIRE', KEYS[2], ARGV[2]) end " +
+                    "if KEYS[3] then redis.call('SET', KEYS[3], ARGV[6], 'PX', ARGV[7]) end " +
+                    "return 1", Long.class);
+
+    /**
+     * 延长会话有效期并同步更新loginId索引，会话不存在时返回0
+     * KEYS[1] 会话key，KEYS[2] 索引key，KEYS[3] 影子key(可选，开启会话事件前创建的会话在这里补上)；ARGV[1] 有效时间(毫秒)，ARGV[2] 到期时间，ARGV[3] token，
+     * ARGV[4] 影子key的有效时间(毫秒)，ARGV[5] loginId(JSON)
+     */
+    public static final RedisScript<Long> TOUCH_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('PEXPIRE', KEYS[1], ARGV[1]) == 0 then return 0 end " +
+                    "redis.call('ZADD', KEYS[2], ARGV[2], ARGV[3]) " +
+                    "if redis.call('PTTL', KEYS[2]) < tonumber(ARGV[1]) then redis.call('PEXPIRE', KEYS[2], ARGV[1]) end " +
+                    "if KEYS[3] then redis.call('SET', KEYS[3], ARGV[5], 'PX', ARGV[4]) end " +
+                    "return 1", Long.class);
+
+    /**
+     * 获取会话并在剩余有效时间不足时续期，不需要续期时一次往返完成；脚本只访问声明的key，续期后由调用方以INDEX_SCRIPT更新loginId索引
+     * 字符串方式续期时只延长key的有效期，不改写会话内容，读取会话时以key的剩余有效时间修正到期时间
+     * KEYS[1] 会话key，KEYS[2] 影子key(可选)；ARGV[1] 有效时间(毫秒)，ARGV[2] 需要续期的剩余时间(毫秒)，ARGV[3] 影子key的有效时间(毫秒)
+     * 返回 {会话内容, 剩余有效时间(毫秒), 0未续期|1已续期}，会话不存在时返回空
+     */
+    public static final RedisScript<List<Object>> CHECK_AND_REFRESH_SCRIPT = new DefaultRedisScript<>(
+            "local v = redis.call('GET', KEYS[1]) " +
+                    "if not v then return {} end " +
+                    "local pttl = redis.call('PTTL', KEYS[1]) " +
+                    "local refreshed = 0 " +
+                    "if pttl >= 0 and pttl <= tonumber(ARGV[2]) then " +
+                    "  redis.call('PEXPIRE', KEYS[1], ARGV[1]) " +
+                    "  if KEYS[2] then redis.call('PEXPIRE', KEYS[2], ARGV[3]) end " +
+                    "  pttl = tonumber(ARGV[1]) " +
+                    "  refreshed = 1 " +
+                    "end " +
+                    "return {v, pttl, refreshed}", LIST_TYPE);
+
+    /**
+     * 续期后更新loginId索引：更新索引中token的到期时间，延长索引的有效期
+     * KEYS[1] 索引key；ARGV[1] 到期时间，ARGV[2] token，ARGV[3] 有效时间(毫秒)
+     */
+    public static final RedisScript<Long> INDEX_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('ZADD', KEYS[1], ARGV[1], ARGV[2]) " +
+                    "if redis.call('PTTL', KEYS[1]) < tonumber(ARGV[3]) then redis.call('PEXPIRE', KEYS[1], ARGV[3]) end " +
+                    "return 1", Long.class);
+
+    /**
+     * HASH存储方式的会话脚本：保存会话并维护loginId索引
+     * KEYS[1] 会话key，KEYS[2] 索引key，KEYS[3] 影子key(可选)；ARGV[1] loginId(JSON)，ARGV[2] 登录时间，ARGV[3] 到期时间，ARGV[4] 有效时间(毫秒)，
+     * ARGV[5] 索引中的到期时间，ARGV[6] token，ARGV[7] 当前时间，ARGV[8] 影子key的有效时间(毫秒)
+     */
+    public static final RedisScript<Long> HASH_SAVE_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('HSET', KEYS[1], 'loginId', ARGV[1], 'loginTime', ARGV[2], 'loginExpireTime', ARGV[3]) " +
+                    "redis.call('PEXPIRE', KEYS[1], ARGV[4]) " +
+                    "redis.call('ZADD', KEYS[2], ARGV[5], ARGV[6]) " +
+                    "redis.call('ZREMRANGEBYSCORE', KEYS[2], '-inf', '(' .. ARGV[7]) " +
+                    "if redis.call('PTTL', KEYS[2]) < tonumber(ARGV[4]) then redis.call('PEXPIRE', KEYS[2], ARGV[4]) end " +
+                    "if KEYS[3] then redis.call('SET', KEYS[3], ARGV[1], 'PX', ARGV[8]) end " +
+                    "return 1", Long.class);
+
+    /**
+     * HASH存储方式的会话脚本：延长有效期，只改写到期时间字段，并同步更新loginId索引，会话不存在时返回0
+     * 参数同TOUCH_SCRIPT
+     */
+    public static final RedisScript<Long> HASH_TOUCH_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('PEXPIRE', KEYS[1], ARGV[1]) == 0 then return 0 end " +
+                    "redis.call('HSET', KEYS[1], 'loginExpireTime', ARGV[2]) " +
+                    "redis.call('ZADD', KEYS[2], ARGV[2], ARGV[3]) " +
+                    "if redis.call('PTTL', KEYS[2]) < tonumber(ARGV[1]) then redis.call('PEXPIRE', KEYS[2], ARGV[1]) end " +
+                    "if KEYS[3] then redis.call('SET', KEYS[3], ARGV[5], 'PX', ARGV[4]) end " +
+                    "return 1", Long.class);
+
+    /**
+     * HASH存储方式的会话脚本：获取会话并在剩余有效时间不足时续期，同时改写到期时间字段，参数同CHECK_AND_REFRESH_SCRIPT，另有ARGV[4] 当前时间
+     * 返回 {loginId(JSON), 登录时间, 到期时间, 剩余有效时间(毫秒), 0未续期|1已续期}，会话不存在时返回空
+     */
+    public static final RedisScript<List<Object>> HASH_CHECK_AND_REFRESH_SCRIPT = new DefaultRedisScript<>(
+            "local v = redis.call('HMGET', KEYS[1], 'loginId', 'loginTime', 'loginExpireTime') " +
+                    "if not v[1] then return {} end " +
+                    "local pttl = redis.call('PTTL', KEYS[1]) " +
+                    "local refreshed = 0 " +
+                    "if pttl >= 0 and pttl <= tonumber(ARGV[2]) then " +
+                    "  redis.call('PEXPIRE', KEYS[1], ARGV[1]) " +
+                    "  pttl = tonumber(ARGV[1]) " +
+                    "  if KEYS[2] then redis.call('PEXPIRE', KEYS[2], ARGV[3]) end " +
+                    "  v[3] = string.format('%d', tonumber(ARGV[4]) + pttl) " +
+                    "  redis.call('HSET', KEYS[1], 'loginExpireTime', v[3]) " +
+                    "  refreshed = 1 " +
+                    "end " +
+                    "return {v[1], v[2] or '', v[3] or '', pttl, refreshed}", LIST_TYPE);
+
+    /**
+     * 取出并删除影子key，返回loginId(JSON)，多个节点收到同一个事件时只有一个能取到
+     * KEYS[1] 影子key
+     */
+    public static final RedisScript<String> TAKE_SHADOW_SCRIPT = new DefaultRedisScript<>(
+            "local v = redis.call('GET', KEYS[1]) " +
+                    "if v then redis.call('DEL', KEYS[1]) end " +
+                    "return v", String.class);
+
+    /**
+     * 影子key比会话多保留的时间 (单位: 毫秒)，redis删除过期key有延迟，影子key需要在会话的过期事件发出之后仍然存在
+     */
+    public static final long SHADOW_GRACE = 5 * 60 * 1000L;
+
+    /**
+     * HASH存储方式下会话的字段
+     */
+    public static final String FIELD_LOGIN_ID = "loginId";
+    public static final String FIELD_LOGIN_TIME = "loginTime";
+    public static final String FIELD_LOGIN_EXPIRE_TIME = "loginExpireTime";
+
+    /**
+     * 集群hash tag的长度
+     */
+    private static final int TAG_LENGTH = 4;
+
+    /**
+     * token中hash tag与原token之间的分隔符（各种token风格都不会生成这个字符）
+     */
+    private static final char TAG_SEPARATOR = '.';
+
+    /**
+     * 是否以HASH存储会话
+     */
+    private final boolean hashMode;
+
+    /**
+     * 新签发的token是否带集群hash tag
+     */
+    private final boolean clusterHashTag;
+
+    /**
+     * 字符串存储方式下会话内容的编码
+     */
+    private final SessionCodec codec;
+
+    /**
+     * 是否维护影子key（开启会话事件时）
+     */
+    private final boolean sessionEvents;
+
+    public RedisSessionScripts(boolean hashMode, boolean clusterHashTag, SessionCodec codec, boolean sessionEvents) {
+        this.hashMode = hashMode;
+        this.clusterHashTag = clusterHashTag;
+        this.codec = codec;
+        this.sessionEvents = sessionEvents;
+    }
+
+    /**
+     * 按配置的存储方式和key格式创建
+     *
+     * @param globalConfig 全局配置
+     * @return RedisSessionScripts
+     */
+    public static RedisSessionScripts of(GlobalConfig globalConfig) {
+        SessionCodec codec = "binary".equalsIgnoreCase(globalConfig.getRedisSessionCodec()) ? BinarySessionCodec.INSTANCE : JsonSessionCodec.INSTANCE;
+        return new RedisSessionScripts("hash".equalsIgnoreCase(globalConfig.getRedisStorageMode()), globalConfig.isRedisClusterHashTag(),
+                codec, globalConfig.isRedisSessionEventsEnabled());
+    }
+
+    public boolean isHashMode() {
+        return hashMode;
+    }
+
+    public boolean isClusterHashTag() {
+        return clusterHashTag;
+    }
+
+    public boolean isSessionEvents() {
+        return sessionEvents;
+    }
+
+    /**
+     * 解码字符串存储方式的会话内容（两种编码写入的内容都能读取）
+     *
+     * @param value 会话内容
+     * @return 登录用户，不存在时返回null
+     */
+    public LoginSubject decode(byte[] value) {
+        return codec.decode(value);
+    }
+
+    /**
+     * 由生成的token得到最终签发的token，开启集群hash tag时加上loginId对应的tag
+     *
+     * @param token   生成的token
+     * @param loginId 身份唯一值
+     * @return 签发的token
+     */
+    public String newToken(String token, Object loginId) {
+        return clusterHashTag ? tagOf(loginId) + TAG_SEPARATOR + token : token;
+    }
+
+    /**
+     * 会话key，带tag的token为 前缀{tag}.原token
+     *
+     * @param token 令牌
+     * @return 会话key
+     */
+    public String tokenKey(String token) {
+        return isTagged(token) ? AuthConsts.AUTH_TOKEN_KEY + '{' + token.substring(0, TAG_LENGTH) + '}' + token.substring(TAG_LENGTH)
+                : AuthConsts.AUTH_TOKEN_KEY + token;
+    }
+
+    /**
+     * 会话的影子key，与会话key在同一个slot
+     *
+     * @param token 令牌
+     * @return 影子key
+     */
+    public String shadowKey(String token) {
+        return isTagged(token) ? AuthConsts.AUTH_SHADOW_KEY + '{' + token.substring(0, TAG_LENGTH) + '}' + token.substring(TAG_LENGTH)
+                : AuthConsts.AUTH_SHADOW_KEY + token;
+    }
+
+    /**
+     * 由会话key还原出token（客户端跟踪的失效消息、keyspace事件中只有key）
+     *
+     * @param key 会话key
+     * @return 令牌
+     */
+    public String tokenOfKey(String key) {
+        String token = key.substring(AuthConsts.AUTH_TOKEN_KEY.length());
+        if (token.length() > TAG_LENGTH + 2 && token.charAt(0) == '{' && token.charAt(TAG_LENGTH + 1) == '}') {
+            return token.substring(1, TAG_LENGTH + 1) + token.substring(TAG_LENGTH + 2);
+        }
+        return token;
+    }
+
+    /**
+     * 与token同一slot的loginId索引key的前缀（获取并续期脚本在其后拼接loginId）
+     *
+     * @param token 令牌
+     * @return 索引key前缀
+     */
+    public String loginKeyPrefix(String token) {
+        return isTagged(token) ? AuthConsts.AUTH_LOGIN_KEY + '{' + token.substring(0, TAG_LENGTH) + '}' + TAG_SEPARATOR
+                : AuthConsts.AUTH_LOGIN_KEY;
+    }
+
+    /**
+     * 与token同一slot的loginId索引key
+     *
+     * @param token   令牌
+     * @param loginId 身份唯一值
+     * @return 索引key
+     */
+    public String loginKey(String token, Object loginId) {
+        return loginKeyPrefix(token) + loginId;
+    }
+
+    /**
+     * 某个loginId的全部索引key，开启集群hash tag时还包括开启前签发的不带tag的token的索引
+     *
+     * @param loginId 身份唯一值
+     * @return 索引key
+     */
+    public List<String> loginKeys(Object loginId) {
+        if (!clusterHashTag) {
+            return Collections.singletonList(AuthConsts.AUTH_LOGIN_KEY + loginId);
+        }
+        return Arrays.asList(AuthConsts.AUTH_LOGIN_KEY + '{' + tagOf(loginId) + '}' + TAG_SEPARATOR + loginId,
+                AuthConsts.AUTH_LOGIN_KEY + loginId);
+    }
+
+    /**
+     * 按会话key所在的slot分组，组内保持原有顺序，用于Redis Cluster下按slot执行多key命令
+     *
+     * @param tokens 令牌
+     * @return 分组后的令牌
+     */
+    public Collection<List<String>> groupBySlot(List<String> tokens) {
+        Map<Integer, List<String>> groups = new LinkedHashMap<>();
+        for (String token : tokens) {
+            groups.computeIfAbsent(ClusterSlotHashUtil.calculateSlot(tokenKey(token)), slot -> new ArrayList<>()).add(token);
+        }
+        return groups.values();
+    }
+
+    /**
+     * loginId对应的hash tag：loginId所在slot的4位16进制数，同一loginId总是得到相同的tag
+     */
+    private static String tagOf(Object loginId) {
+        String hex = Integer.toHexString(ClusterSlotHashUtil.calculateSlot(String.valueOf(loginId)));
+        return "0000".substring(hex.length()) + hex;
+    }
+
+    /**
+     * token是否带hash tag（不论当前是否开启，之前签发的带tag的token都按带tag的key读写）
+     */
+    private static boolean isTagged(String token) {
+        if (token.length() <= TAG_LENGTH + 1 || token.charAt(TAG_LENGTH) != TAG_SEPARATOR) {
+            return false;
+        }
+        for (int i = 0; i < TAG_LENGTH; i++) {
+            if (Character.digit(token.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 脚本参数、返回值中的字符串按原始字节传递（会话内容可能是二进制编码，不能按字符串反序列化），整数返回值不受影响
+     *
+     * @param <T> 脚本返回值类型
+     * @return 不做转换的序列化器
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static <T> RedisSerializer<T> rawSerializer() {
+        return (RedisSerializer) RedisSerializer.byteArray();
+    }
+
+    public RedisScript<Long> saveScript() {
+        return hashMode ? HASH_SAVE_SCRIPT : SAVE_SCRIPT;
+    }
+
+    public RedisScript<Long> touchScript() {
+        return hashMode ? HASH_TOUCH_SCRIPT : TOUCH_SCRIPT;
+    }
+
+    public RedisScript<List<Object>> checkAndRefreshScript() {
+        return hashMode ? HASH_CHECK_AND_REFRESH_SCRIPT : CHECK_AND_REFRESH_SCRIPT;
+    }
+
+    /**
+     * 当前存储方式用到的全部脚本（用于预先SCRIPT LOAD）
+     *
+     * @return 脚本
+     */
+    public List<RedisScript<?>> all() {
+        return Arrays.asList(saveScript(), touchScript(), checkAndRefreshScript(), INDEX_SCRIPT);
+    }
+
+    /**
+     * 保存会话脚本的key：会话key和索引key
+     *
+     * @param token   令牌
+     * @param subject 登录用户
+     * @return key
+     */
+    public List<String> saveKeys(String token, LoginSubject subject) {
+        return sessionEvents ? Arrays.asList(tokenKey(token), loginKey(token, subject.getLoginId()), shadowKey(token))
+                : Arrays.asList(tokenKey(token), loginKey(token, subject.getLoginId()));
+    }
+
+    /**
+     * 组装保存会话脚本的参数，字符串存储方式的会话内容为编码后的字节，所以参数都以字节传递
+     *
+     * @param token   令牌
+     * @param subject 登录用户
+     * @param now     当前时间 (单位: 毫秒)
+     * @return 参数
+     */
+    public byte[][] saveArgs(String token, LoginSubject subject, long now) {
+        long ttl = GlobalConfigUtils.getGlobalConfig().getTimeout() * 1000L;
+        String loginId = JsonUtil.writeValueAsString(subject.getLoginId());
+        if (hashMode) {
+            return bytes(loginId,
+                    subject.getLoginTime() == null ? "" : String.valueOf(subject.getLoginTime()),
+                    subject.getLoginExpireTime() == null ? "" : String.valueOf(subject.getLoginExpireTime()),
+                    String.valueOf(ttl), String.valueOf(now + ttl), token, String.valueOf(now), String.valueOf(ttl + SHADOW_GRACE));
+        }
+        byte[][] args = bytes(null, String.valueOf(ttl), String.valueOf(now + ttl), token, String.valueOf(now), loginId, String.valueOf(ttl + SHADOW_GRACE));
+        args[0] = codec.encode(subject);
+        return args;
+    }
+
+    /**
+     * 延长有效期脚本的key：会话key、索引key、影子key(开启会话事件时)
+     *
+     * @param token   令牌
+     * @param loginId 身份唯一值
+     * @return key
+     */
+    public List<String> touchKeys(String token, Object loginId) {
+        return sessionEvents ? Arrays.asList(tokenKey(token), loginKey(token, loginId), shadowKey(token))
+                : Arrays.asList(tokenKey(token), loginKey(token, loginId));
+    }
+
+    /**
+     * 延长有效期脚本的参数
+     *
+     * @param token   令牌
+     * @param loginId 身份唯一值
+     * @param ttl     有效时间 (单位: 毫秒)
+     * @param now     当前时间 (单位: 毫秒)
+     * @return 参数
+     */
+    public List<String> touchArgs(String token, Object loginId, long ttl, long now) {
+        return Arrays.asList(String.valueOf(ttl), String.valueOf(now + ttl), token,
+                String.valueOf(ttl + SHADOW_GRACE), JsonUtil.writeValueAsString(loginId));
+    }
+
+    /**
+     * 获取并续期脚本的key：会话key、影子key(开启会话事件时)
+     *
+     * @param token 令牌
+     * @return key
+     */
+    public List<String> checkAndRefreshKeys(String token) {
+        return sessionEvents ? Arrays.asList(tokenKey(token), shadowKey(token)) : Collections.singletonList(tokenKey(token));
+    }
+
+    /**
+     * 获取并续期脚本的参数
+     *
+     * @param ttl           有效时间 (单位: 毫秒)
+     * @param millsCritical 需要续期的剩余时间 (单位: 毫秒)
+     * @param now           当前时间 (单位: 毫秒)
+     * @return 参数
+     */
+    public List<String> checkAndRefreshArgs(long ttl, long millsCritical, long now) {
+        return Arrays.asList(String.valueOf(ttl), String.valueOf(millsCritical), String.valueOf(ttl + SHADOW_GRACE), String.valueOf(now));
+    }
+
+    /**
+     * 续期后更新索引脚本的key：索引key
+     *
+     * @param token   令牌
+     * @param loginId 身份唯一值
+     * @return key
+     */
+    public List<String> indexKeys(String token, Object loginId) {
+        return Collections.singletonList(loginKey(token, loginId));
+    }
+
+    /**
+     * 续期后更新索引脚本的参数
+     *
+     * @param token      令牌
+     * @param expireTime 续期后的到期时间 (单位: 毫秒)
+     * @param ttl        有效时间 (单位: 毫秒)
+     * @return 参数
+     */
+    public List<String> indexArgs(String token, long expireTime, long ttl) {
+        return Arrays.asList(String.valueOf(expireTime), token, String.valueOf(ttl));
+    }
+
+    private static byte[][] bytes(String... values) {
+        byte[][] bytes = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = values[i] == null ? null : values[i].getBytes(StandardCharsets.UTF_8);
+        }
+        return bytes;
+    }
+
+    /**
+     * 解析获取并续期脚本的返回值，到期时间以key的剩余有效时间为准
+     *
+     * @param result 脚本返回值（会话内容、字段值为byte[]）
+     * @param now    执行脚本前的当前时间 (单位: 毫秒)
+     * @return 登录用户，会话不存在时返回null
+     */
+    public LoginSubject parseCheckAndRefresh(List<?> result, long now) {
+        if (result == null || result.size() < 3) {
+            return null;
+        }
+        LoginSubject subject = hashMode ? toSubject(result.get(0), result.get(1), result.get(2))
+                : codec.decode((byte[]) result.get(0));
+        if (subject == null) {
+            return null;
+        }
+        // 字符串方式续期时只延长了key的有效期，没有改写会话内容
+        return withPttl(subject, result.get(hashMode ? 3 : 1), now);
+    }
+
+    /**
+     * 获取并续期脚本是否已续期，续期后需要由调用方执行INDEX_SCRIPT更新索引
+     *
+     * @param result 脚本返回值
+     * @return true已续期
+     */
+    public boolean isRefreshed(List<?> result) {
+        return ((Number) result.get(hashMode ? 4 : 2)).intValue() == 1;
+    }
+
+    /**
+     * 以key的剩余有效时间修正字符串方式读出的会话的到期时间（续期只延长key的有效期，会话内容中的到期时间不会更新）
+     *
+     * @param subject 登录用户，可以为null
+     * @param pttl    key的剩余有效时间 (单位: 毫秒)，为null或负数时不修正
+     * @param now     读取前的当前时间 (单位: 毫秒)
+     * @return 登录用户
+     */
+    public LoginSubject withPttl(LoginSubject subject, Object pttl, long now) {
+        if (subject != null && pttl instanceof Number && ((Number) pttl).longValue() >= 0) {
+            subject.setLoginExpireTime(now + ((Number) pttl).longValue());
+        }
+        return subject;
+    }
+
+    /**
+     * 由HASH的字段值组装会话，loginId以JSON保存，与字符串方式反序列化出的类型一致
+     *
+     * @param loginId         loginId字段(JSON)，String或byte[]
+     * @param loginTime       登录时间字段，String或byte[]
+     * @param loginExpireTime 到期时间字段，String或byte[]
+     * @return 登录用户，loginId为空时返回null
+     */
+    public static LoginSubject toSubject(Object loginId, Object loginTime, Object loginExpireTime) {
+        if (loginId == null) {
+            return null;
+        }
+        LoginSubject subject = new LoginSubject();
+        subject.setLoginId(JsonUtil.readValue(text(loginId), Object.class));
+        subject.setLoginTime(parseLong(loginTime));
+        subject.setLoginExpireTime(parseLong(loginExpireTime));
+        return subject;
+    }
+
+    private static Long parseLong(Object value) {
+        String text = text(value);
+        return text == null || text.isEmpty() ? null : Long.valueOf(text);
+    }
+
+    private static String text(Object value) {
+        return value instanceof byte[] ? new String((byte[]) value, StandardCharsets.UTF_8) : (String) value;
+    }
+}
@@ -0,0 +1,225 @@
+package org.tinycloud.security.provider.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.tinycloud.security.consts.AuthConsts;
+import org.tinycloud.security.interfaces.SessionEventListener;
+import org.tinycloud.security.util.JsonUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>
+ * 基于redis keyspace事件的会话事件订阅，会话key过期（expired）或被删除（del）时回调SessionEventListener，并把token从loginId索引中移除
+ * </p>
+ * 只订阅当前库中会话key前缀的keyspace频道（__keyspace@db__:tinysecurity:auth:token:*），由服务端过滤，共享redis上其他key的事件不会发到本节点；
+ * 频道上还会收到会话key的其他事件（如续期的expire），按事件名只处理expired和del。
+ * notify-keyspace-events需要包含Kgx（或KA），默认只检查并提示，配置redisSessionEventsConfigure后才会以CONFIG SET补齐。
+ * 会话过期后内容已经不存在，loginId从影子key中取出（由会话脚本维护）；影子key以脚本原子地取出并删除，多个节点收到同一个事件时只有一个节点回调，
+ * 索引只按这个token清理，不需要扫描。keyspace事件是pubsub消息，订阅连接断开期间的事件会丢失，对应的索引成员会在到期后被惰性清理；
+ * 开启会话事件之前创建的会话没有影子key，续期时补上，之前过期的不会回调。keyspace事件只在产生它的节点上发布，不支持Redis Cluster。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-19 14:30
+ */
+public class SessionEventSubscriber implements MessageListener, AutoCloseable {
+    final static Logger log = LoggerFactory.getLogger(SessionEventSubscriber.class);
+
+    private static final String NOTIFY_KEYSPACE_EVENTS = "notify-keyspace-events";
+
+    private static final String EXPIRED_EVENT = "expired";
+
+    private static final String DEL_EVENT = "del";
+
+    private final StringRedisTemplate redisTemplate;
+
+    private final RedisSessionScripts scripts;
+
+    private final List<SessionEventListener> listeners;
+
+    /**
+     * 近端缓存，没有开启时为null
+     */
+    private final NearCache nearCache;
+
+    /**
+     * 处理事件的线程，事件依次处理，不阻塞订阅连接
+     */
+    private final ExecutorService executor;
+
+    /**
+     * 订阅线程，jedis的订阅会一直阻塞所在的线程，不能与处理事件的线程共用
+     */
+    private final ExecutorService subscriptionExecutor;
+
+    /**
+     * keyspace频道的前缀，如 __keyspace@0__:
+     */
+    private final String channelPrefix;
+
+    private RedisMessageListenerContainer container;
+
+    private SessionEventSubscriber(StringRedisTemplate redisTemplate, RedisSessionScripts scripts, List<SessionEventListener> listeners,
+                                   NearCache nearCache, int database) {
+        this.redisTemplate = redisTemplate;
+        this.scripts = scripts;
+        this.listeners = listeners;
+        this.nearCache = nearCache;
+        this.channelPrefix = "__keyspace@" + database + "__:";
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "tiny-security-session-event");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.subscriptionExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "tiny-security-session-subscription");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 检查（或按配置补齐）redis的keyspace事件并开始订阅
+     *
+     * @param redisTemplate redisTemplate
+     * @param scripts       会话脚本（由会话key还原出token、影子key和索引key）
+     * @param listeners     会话事件监听
+     * @param nearCache     近端缓存，没有开启时为null
+     * @param configure     是否以CONFIG SET补齐notify-keyspace-events
+     * @return 订阅
+     */
+    public static SessionEventSubscriber start(StringRedisTemplate redisTemplate, RedisSessionScripts scripts,
+                                               List<SessionEventListener> listeners, NearCache nearCache, boolean configure) {
+        RedisConnectionFactory connectionFactory = redisTemplate.getRequiredConnectionFactory();
+        SessionEventSubscriber subscriber = new SessionEventSubscriber(redisTemplate, scripts, listeners, nearCache, database(connectionFactory));
+        try {
+            redisTemplate.execute((RedisCallback<Object>) connection -> {
+                checkKeyspaceEvents(connection, configure);
+                return null;
+            });
+        } catch (Exception e) {
+            // 托管的redis通常禁用了CONFIG命令，需要在服务端手动配置
+            log.warn("SessionEventSubscriber - checkKeyspaceEvents - failed, please make sure notify-keyspace-events contains Kgx，Exception：{}", e.getMessage());
+        }
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.setTaskExecutor(subscriber.executor);
+        container.setSubscriptionExecutor(subscriber.subscriptionExecutor);
+        container.addMessageListener(subscriber, Collections.singletonList(new PatternTopic(subscriber.channelPrefix + AuthConsts.AUTH_TOKEN_KEY + "*")));
+        container.afterPropertiesSet();
+        container.start();
+        subscriber.container = container;
+        return subscriber;
+    }
+
+    /**
+     * 连接工厂配置的库（JedisConnectionFactory、LettuceConnectionFactory都有getDatabase），取不到时为0
+     */
+    private static int database(RedisConnectionFactory connectionFactory) {
+        try {
+            return (Integer) connectionFactory.getClass().getMethod("getDatabase").invoke(connectionFactory);
+        } catch (Exception e) {
+            log.warn("SessionEventSubscriber - database - unknown connection factory {}, subscribe to db 0", connectionFactory.getClass().getName());
+            return 0;
+        }
+    }
+
+    /**
+     * 检查需要的keyspace事件：K（keyspace频道）、g（del等通用命令）、x（过期），缺少时提示，configure为true时在现有配置上补齐
+     */
+    private static void checkKeyspaceEvents(RedisConnection connection, boolean configure) {
+        Properties config = connection.serverCommands().getConfig(NOTIFY_KEYSPACE_EVENTS);
+        String current = config == null ? "" : config.getProperty(NOTIFY_KEYSPACE_EVENTS, "");
+        StringBuilder flags = new StringBuilder(current);
+        if (current.indexOf('K') < 0) {
+            flags.append('K');
+        }
+        if (current.indexOf('A') < 0) {
+            if (current.indexOf('g') < 0) {
+                flags.append('g');
+            }
+            if (current.indexOf('x') < 0) {
+                flags.append('x');
+            }
+        }
+        if (flags.toString().equals(current)) {
+            return;
+        }
+        if (configure) {
+            connection.serverCommands().setConfig(NOTIFY_KEYSPACE_EVENTS, flags.toString());
+            log.info("SessionEventSubscriber set notify-keyspace-events from '{}' to '{}'", current, flags);
+        } else {
+            log.warn("SessionEventSubscriber - notify-keyspace-events is '{}', session events will not be received until it is set to '{}'", current, flags);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        String event = new String(message.getBody(), StandardCharsets.UTF_8);
+        boolean expired = EXPIRED_EVENT.equals(event);
+        if ((!expired && !DEL_EVENT.equals(event)) || !channel.startsWith(this.channelPrefix)) {
+            return;
+        }
+        String token = this.scripts.tokenOfKey(channel.substring(this.channelPrefix.length()));
+        try {
+            this.handle(token, expired);
+        } catch (Exception e) {
+            log.error("SessionEventSubscriber - onMessage - failed，Exception：{e}", e);
+        }
+    }
+
+    private void handle(String token, boolean expired) {
+        // 每个节点各自清理本地缓存，其余处理只在取到影子key的节点上进行
+        if (this.nearCache != null) {
+            this.nearCache.invalidate(token);
+        }
+        String loginIdJson = this.redisTemplate.execute(RedisSessionScripts.TAKE_SHADOW_SCRIPT, Collections.singletonList(this.scripts.shadowKey(token)));
+        if (loginIdJson == null) {
+            // 其他节点已经处理，或者会话创建于开启会话事件之前
+            return;
+        }
+        Object loginId = JsonUtil.readValue(loginIdJson, Object.class);
+        if (loginId == null) {
+            return;
+        }
+        this.redisTemplate.opsForZSet().remove(this.scripts.loginKey(token, loginId), token);
+        for (SessionEventListener listener : this.listeners) {
+            try {
+                if (expired) {
+                    listener.onExpired(token, loginId);
+                } else {
+                    listener.onDeleted(token, loginId);
+                }
+            } catch (Exception e) {
+                log.error("SessionEventSubscriber - dispatch - failed，Exception：{e}", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.container != null) {
+            try {
+                this.container.destroy();
+            } catch (Exception e) {
+                log.error("SessionEventSubscriber - close - failed，Exception：{e}", e);
+            }
+        }
+        this.executor.shutdown();
+        this.subscriptionExecutor.shutdown();
+    }
+}
@@ -0,0 +1,94 @@
+package org.tinycloud.security.provider.single;
+
+/**
+ * <p>
+ * 单机内存存储的数据条目（不可变），同时持有值与到期时间
+ * </p>
+ * 原先值和到期时间分别存放在两个ConcurrentHashMap中，每个会话需要两个Map节点加一个装箱的Long（约90字节，不含key和value本身），
+ * 合并为一个条目后只需要一个Map节点加一个条目对象，且读写只需一次hash查找，两者也不会出现短暂的不一致。
+ * 条目同时是时间轮的节点，过期调度不需要额外分配对象：开启压缩指针时条目对象约48字节（对象头、时间轮的bucket/prev/next、
+ * key、value、loginId三个引用和到期时间），加上Map节点的32字节，每个会话约80字节，不含key、value和loginId本身。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-08 10:12
+ */
+public class CacheEntry extends TimingWheel.Node {
+
+    /**
+     * 键
+     */
+    private final String key;
+
+    /**
+     * 数据值
+     */
+    private final Object value;
+
+    /**
+     * 到期时间 (单位: 毫秒) [注意不是剩余存活时间]
+     */
+    private final long expireTime;
+
+    /**
+     * 会话所属的loginId（统一转为String），非会话数据时为null
+     */
+    private final String loginId;
+
+    public CacheEntry(String key, Object value, long expireTime) {
+        this(key, value, expireTime, null);
+    }
+
+    public CacheEntry(String key, Object value, long expireTime, String loginId) {
+        this.key = key;
+        this.value = value;
+        this.expireTime = expireTime;
+        this.loginId = loginId;
+    }
+
+    /**
+     * 以新的值复制一个条目，到期时间和loginId不变
+     *
+     * @param value 新的值
+     * @return 新条目
+     */
+    public CacheEntry withValue(Object value) {
+        return new CacheEntry(key, value, expireTime, loginId);
+    }
+
+    /**
+     * 以新的到期时间复制一个条目，值和loginId不变
+     *
+     * @param expireTime 新的到期时间 (单位: 毫秒)
+     * @return 新条目
+     */
+    public CacheEntry withExpireTime(long expireTime) {
+        return new CacheEntry(key, value, expireTime, loginId);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public long getExpireTime() {
+        return expireTime;
+    }
+
+    public String getLoginId() {
+        return loginId;
+    }
+
+    /**
+     * 判断是否已经过期
+     *
+     * @param now 当前时间 (单位: 毫秒)
+     * @return true已过期，false未过期
+     */
+    public boolean isExpired(long now) {
+        return expireTime < now;
+    }
+}
@@ -0,0 +1,41 @@
+package org.tinycloud.security.provider.single;
+
+/**
+ * <p>
+ * 单机内存存储的淘汰策略，存储达到容量上限时由它选出被淘汰的key
+ * </p>
+ * 实现类需要自行保证线程安全；onAccess位于读请求的热路径上，允许在竞争激烈时丢弃部分访问记录。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-10 09:41
+ */
+public interface EvictionPolicy {
+
+    /**
+     * 记录新写入的key
+     *
+     * @param key 键
+     */
+    void onInsert(String key);
+
+    /**
+     * 记录一次对key的访问
+     *
+     * @param key 键
+     */
+    void onAccess(String key);
+
+    /**
+     * 记录key已被移除（删除、过期或淘汰）
+     *
+     * @param key 键
+     */
+    void onRemove(String key);
+
+    /**
+     * 选出一个应当被淘汰的key，并把它从策略中移除
+     *
+     * @return 被淘汰的key，没有可淘汰的key时返回null
+     */
+    String evict();
+}
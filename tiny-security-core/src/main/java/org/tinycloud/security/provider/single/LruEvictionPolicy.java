@@ -0,0 +1,71 @@
+package org.tinycloud.security.provider.single;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * LRU淘汰策略，淘汰最久未被访问的key
+ * </p>
+ *
+ * @author liuxingyu01
+ * @since 2024-10-10 09:52
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+
+    /**
+     * 按访问顺序排列的key，最久未访问的在最前面
+     */
+    private final LinkedHashMap<String, Boolean> accessOrder = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @Override
+    public void onInsert(String key) {
+        lock.lock();
+        try {
+            accessOrder.put(key, Boolean.TRUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onAccess(String key) {
+        // 竞争激烈时直接丢弃本次访问记录，不阻塞读请求
+        if (lock.tryLock()) {
+            try {
+                accessOrder.get(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void onRemove(String key) {
+        lock.lock();
+        try {
+            accessOrder.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String evict() {
+        lock.lock();
+        try {
+            Iterator<String> iterator = accessOrder.keySet().iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            String key = iterator.next();
+            iterator.remove();
+            return key;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,748 @@
+package org.tinycloud.security.provider.single;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tinycloud.security.util.clock.AuthClockHolder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * <p>
+ * 单机内存存储的节点间复制
+ * </p>
+ * 每个节点监听一个端口，并主动连接配置的全部对端（全互联），本地的写入、续期、删除以帧的形式经主动连接发给对端，
+ * 对端收到后只应用到本地，不再转发。所有网络读写都在一个基于Selector的IO线程中完成：请求线程只负责编码并放入发件箱，
+ * IO线程每隔batchInterval把发件箱中的帧合并为一批，一次写给所有已连接的对端。
+ * <p>
+ * 每次（重新）连上对端后，先把本地全部墓碑和未过期条目分块发给对端（反熵），断线期间丢失的变更由此补齐；
+ * 发件箱写满或对端积压过多时，直接断开连接，重连后同样以全量同步兜底。
+ * <p>
+ * 冲突按到期时间取最后写入者：对端的写入只有在到期时间不早于本地条目时才会覆盖本地。删除会留下墓碑，
+ * 写入时间不晚于墓碑的写入（包括全量同步中的条目）一律忽略，墓碑保留一个会话时长后清除。
+ * 帧格式：长度(4) + 写入或删除时间(8，全量同步的写入为0) + 记录，记录格式与持久化日志相同。
+ * <p>
+ * 连接先认证再复制：被动方接受连接后写出魔数(4) + 随机挑战(16)，主动方回复HMAC-SHA256(共享密钥, 挑战)（32字节），
+ * 被动方校验通过之前不解析任何帧，校验失败或超过HANDSHAKE_TIMEOUT未完成认证的连接直接断开。
+ * 认证只防止未持有密钥的主机写入，不加密内容，监听地址应限制在内网。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-16 11:05
+ */
+public class PeerReplicator {
+    final static Logger log = LoggerFactory.getLogger(PeerReplicator.class);
+
+    /**
+     * 复制的目标存储
+     */
+    public interface Store {
+
+        /**
+         * 应用对端的写入
+         *
+         * @param entry  条目
+         * @param resync true表示来自重连后的全量同步
+         */
+        void applyPut(CacheEntry entry, boolean resync);
+
+        /**
+         * 应用对端的删除
+         *
+         * @param key 键
+         */
+        void applyDelete(String key);
+
+        /**
+         * 提供本地全部条目，用于全量同步
+         *
+         * @return 条目迭代器
+         */
+        Iterator<CacheEntry> entries();
+    }
+
+    /**
+     * 单帧的最大长度
+     */
+    private static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * 每个对端最多积压的字节数，超出后断开重连（重连后全量同步）
+     */
+    private static final long MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+    /**
+     * 全量同步时每块的大小
+     */
+    private static final int RESYNC_CHUNK_SIZE = 256 * 1024;
+
+    /**
+     * 每次写对端时最多生成的全量同步块数，避免一个对端的全量同步长时间占用IO线程
+     */
+    private static final int RESYNC_CHUNKS_PER_FLUSH = 16;
+
+    /**
+     * 握手的魔数
+     */
+    private static final int HANDSHAKE_MAGIC = 0x54535250;
+
+    private static final int CHALLENGE_SIZE = 16;
+
+    private static final int RESPONSE_SIZE = 32;
+
+    /**
+     * 建立连接到认证完成的最长时间 (单位: 毫秒)
+     */
+    private static final long HANDSHAKE_TIMEOUT = 10_000L;
+
+    private static final long MIN_RECONNECT_DELAY = 500L;
+
+    private static final long MAX_RECONNECT_DELAY = 10_000L;
+
+    /**
+     * 一个对端（主动连接的一方）
+     */
+    private static final class Peer {
+
+        private final String host;
+
+        private final int port;
+
+        private SocketChannel channel;
+
+        /**
+         * 认证完成，可以发送帧
+         */
+        private boolean connected;
+
+        /**
+         * 开始连接的时间，用于握手超时
+         */
+        private long connectTime;
+
+        /**
+         * 被动方发来的魔数和挑战
+         */
+        private final ByteBuffer challenge = ByteBuffer.allocate(4 + CHALLENGE_SIZE);
+
+        private final Deque<ByteBuffer> pending = new ArrayDeque<>();
+
+        private long pendingBytes;
+
+        private Iterator<Map.Entry<String, Long>> resyncTombstones;
+
+        private Iterator<CacheEntry> resyncEntries;
+
+        private long resyncCount;
+
+        private long reconnectDelay = MIN_RECONNECT_DELAY;
+
+        private long nextConnectTime;
+
+        Peer(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + port;
+        }
+    }
+
+    /**
+     * 对端连过来的连接，除握手的挑战外只读不写
+     */
+    private static final class Inbound {
+
+        private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        /**
+         * 期望的应答，认证通过后为null
+         */
+        private byte[] expectedResponse;
+
+        private final long acceptTime;
+
+        Inbound(byte[] expectedResponse, long acceptTime) {
+            this.expectedResponse = expectedResponse;
+            this.acceptTime = acceptTime;
+        }
+    }
+
+    private final String bindAddress;
+
+    private final int port;
+
+    private final SecretKeySpec secretKey;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private final List<Peer> peers = new ArrayList<>();
+
+    private final long batchInterval;
+
+    private final long tombstoneRetention;
+
+    private final Store store;
+
+    /**
+     * 待发送的帧，容量有限，写满时丢弃并触发全量同步（不阻塞请求线程）
+     */
+    private final BlockingQueue<byte[]> outbox = new LinkedBlockingQueue<>(65536);
+
+    /**
+     * 墓碑：被删除的key到删除时间 (单位: 毫秒)
+     */
+    private final Map<String, Long> tombstones = new ConcurrentHashMap<>();
+
+    private volatile boolean overflowed;
+
+    private volatile boolean running;
+
+    private Selector selector;
+
+    private ServerSocketChannel serverChannel;
+
+    private Thread ioThread;
+
+    /**
+     * @param bindAddress        本节点监听的地址，为空时监听回环地址
+     * @param port               本节点监听的端口
+     * @param secret             各节点共享的密钥，不能为空
+     * @param peers              对端地址，格式host:port，多个以逗号分隔（不要包含本节点）
+     * @param batchInterval      批量发送的间隔 (单位: 毫秒)
+     * @param tombstoneRetention 墓碑保留时长 (单位: 毫秒)，不小于会话时长
+     * @param store              复制的目标存储
+     */
+    public PeerReplicator(String bindAddress, int port, String secret, String peers, long batchInterval, long tombstoneRetention, Store store) {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("The replication secret cannot be empty!");
+        }
+        this.bindAddress = bindAddress == null || bindAddress.trim().isEmpty() ? "127.0.0.1" : bindAddress.trim();
+        this.port = port;
+        this.secretKey = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        this.batchInterval = Math.max(1L, batchInterval);
+        this.tombstoneRetention = tombstoneRetention;
+        this.store = store;
+        if (peers != null) {
+            for (String peer : peers.split(",")) {
+                peer = peer.trim();
+                if (peer.isEmpty()) {
+                    continue;
+                }
+                int index = peer.lastIndexOf(':');
+                if (index <= 0 || index == peer.length() - 1) {
+                    throw new IllegalArgumentException("Invalid replication peer: " + peer + ", expected host:port");
+                }
+                this.peers.add(new Peer(peer.substring(0, index), Integer.parseInt(peer.substring(index + 1))));
+            }
+        }
+    }
+
+    // ------------------------ 发布本地变更 ------------------------ //
+
+    /**
+     * 发布一条本地写入，值的类型不支持复制时忽略
+     *
+     * @param entry 条目
+     */
+    public void publishPut(CacheEntry entry) {
+        if (!SessionRecordCodec.isSupported(entry.getValue())) {
+            return;
+        }
+        tombstones.remove(entry.getKey());
+        enqueue(frame(AuthClockHolder.currentTimeMillis(), SessionRecordCodec.encodePut(entry)));
+    }
+
+    /**
+     * 发布一条本地删除，同时留下墓碑
+     *
+     * @param key 键
+     */
+    public void publishDelete(String key) {
+        long now = AuthClockHolder.currentTimeMillis();
+        tombstones.merge(key, now, Math::max);
+        enqueue(frame(now, SessionRecordCodec.encodeDelete(key)));
+    }
+
+    private void enqueue(byte[] frame) {
+        if (!running) {
+            return;
+        }
+        if (!outbox.offer(frame)) {
+            overflowed = true;
+        }
+    }
+
+    private static byte[] frame(long time, byte[] record) {
+        ByteBuffer buffer = ByteBuffer.allocate(12 + record.length);
+        buffer.putInt(8 + record.length).putLong(time).put(record);
+        return buffer.array();
+    }
+
+    // ------------------------ IO线程 ------------------------ //
+
+    /**
+     * 开始监听端口，并启动IO线程
+     */
+    public void start() throws IOException {
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.socket().setReuseAddress(true);
+        this.serverChannel.bind(new InetSocketAddress(bindAddress, port));
+        this.serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        this.running = true;
+        this.ioThread = new Thread(this::ioLoop, "tiny-security-replication");
+        this.ioThread.setDaemon(true);
+        this.ioThread.start();
+        log.info("PeerReplicator - start - listening on {}:{}, peers：{}", bindAddress, port, peers);
+    }
+
+    private void ioLoop() {
+        List<byte[]> batch = new ArrayList<>(1024);
+        long lastPurge = System.currentTimeMillis();
+        while (running) {
+            try {
+                selector.select(batchInterval);
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    handle(key);
+                }
+                long now = System.currentTimeMillis();
+                if (overflowed) {
+                    overflowed = false;
+                    outbox.clear();
+                    log.warn("PeerReplicator - outbox overflowed, reconnect all peers to resync");
+                    for (Peer peer : peers) {
+                        closePeer(peer, now);
+                    }
+                }
+                outbox.drainTo(batch);
+                if (!batch.isEmpty()) {
+                    ByteBuffer buffer = concat(batch);
+                    batch.clear();
+                    for (Peer peer : peers) {
+                        if (peer.connected) {
+                            addPending(peer, buffer.duplicate(), now);
+                        }
+                    }
+                }
+                for (Peer peer : peers) {
+                    if (peer.channel == null && now >= peer.nextConnectTime) {
+                        connect(peer, now);
+                    } else if (peer.connected) {
+                        flush(peer, now);
+                    } else if (peer.channel != null && now - peer.connectTime > HANDSHAKE_TIMEOUT) {
+                        closePeer(peer, now);
+                    }
+                }
+                if (now - lastPurge >= 1000L) {
+                    lastPurge = now;
+                    closeUnauthenticated(now);
+                    long purgeBefore = AuthClockHolder.currentTimeMillis() - tombstoneRetention;
+                    tombstones.values().removeIf(time -> time < purgeBefore);
+                }
+            } catch (Exception e) {
+                log.error("PeerReplicator - ioLoop - Exception：{e}", e);
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            closeQuietly(key.channel());
+        }
+        closeQuietly(selector);
+    }
+
+    private void handle(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        Object attachment = key.attachment();
+        long now = System.currentTimeMillis();
+        if (attachment instanceof Peer) {
+            Peer peer = (Peer) attachment;
+            try {
+                if (key.isConnectable() && peer.channel.finishConnect()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+                if (key.isValid() && key.isReadable() && !peer.connected) {
+                    readChallenge(peer, now);
+                    return;
+                }
+                if (key.isValid() && key.isReadable() && peer.channel.read(ByteBuffer.allocate(64)) < 0) {
+                    // 认证之后对端不再在主动连接上写数据，读到结束说明连接已关闭
+                    closePeer(peer, now);
+                    return;
+                }
+                if (key.isValid() && key.isWritable()) {
+                    flush(peer, now);
+                }
+            } catch (IOException e) {
+                if (peer.connected) {
+                    log.warn("PeerReplicator - peer {} disconnected：{}", peer, e.getMessage());
+                } else if (log.isDebugEnabled()) {
+                    log.debug("PeerReplicator - peer {} connect failed：{}", peer, e.getMessage());
+                }
+                closePeer(peer, now);
+            }
+            return;
+        }
+        try {
+            if (key.isAcceptable()) {
+                SocketChannel channel = serverChannel.accept();
+                if (channel != null) {
+                    accept(channel, now);
+                }
+            } else if (key.isReadable()) {
+                read(key, (Inbound) attachment);
+            }
+        } catch (IOException e) {
+            log.warn("PeerReplicator - inbound connection closed：{}", e.getMessage());
+            closeQuietly(key.channel());
+        }
+    }
+
+    // ------------------------ 主动连接（发送） ------------------------ //
+
+    private void connect(Peer peer, long now) {
+        try {
+            SocketChannel channel = SocketChannel.open();
+            peer.channel = channel;
+            peer.connectTime = now;
+            peer.challenge.clear();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            if (channel.connect(new InetSocketAddress(peer.host, peer.port))) {
+                // 等待被动方的挑战
+                channel.register(selector, SelectionKey.OP_READ, peer);
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT, peer);
+            }
+        } catch (Exception e) {
+            closePeer(peer, now);
+        }
+    }
+
+    /**
+     * 读取被动方的挑战，读完后回复应答并开始复制
+     */
+    private void readChallenge(Peer peer, long now) throws IOException {
+        if (peer.channel.read(peer.challenge) < 0) {
+            throw new IOException("connection closed during handshake");
+        }
+        if (peer.challenge.hasRemaining()) {
+            return;
+        }
+        peer.challenge.flip();
+        if (peer.challenge.getInt() != HANDSHAKE_MAGIC) {
+            log.warn("PeerReplicator - peer {} is not a replication endpoint", peer);
+            closePeer(peer, now);
+            return;
+        }
+        byte[] challenge = new byte[CHALLENGE_SIZE];
+        peer.challenge.get(challenge);
+        // 应答排在全部数据之前，由flush写出
+        peer.pending.add(ByteBuffer.wrap(hmac(challenge)));
+        peer.pendingBytes += RESPONSE_SIZE;
+        onConnected(peer);
+    }
+
+    private void onConnected(Peer peer) {
+        peer.connected = true;
+        peer.reconnectDelay = MIN_RECONNECT_DELAY;
+        peer.resyncTombstones = tombstones.entrySet().iterator();
+        peer.resyncEntries = store.entries();
+        peer.resyncCount = 0;
+        peer.channel.keyFor(selector).interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        log.info("PeerReplicator - peer {} connected, resync started", peer);
+    }
+
+    private void closePeer(Peer peer, long now) {
+        if (peer.channel == null) {
+            return;
+        }
+        if (peer.connected) {
+            log.warn("PeerReplicator - peer {} closed, reconnect in {} ms", peer, peer.reconnectDelay);
+        }
+        closeQuietly(peer.channel);
+        peer.channel = null;
+        peer.connected = false;
+        peer.pending.clear();
+        peer.pendingBytes = 0;
+        peer.resyncTombstones = null;
+        peer.resyncEntries = null;
+        peer.nextConnectTime = now + peer.reconnectDelay;
+        peer.reconnectDelay = Math.min(peer.reconnectDelay * 2, MAX_RECONNECT_DELAY);
+    }
+
+    private void addPending(Peer peer, ByteBuffer buffer, long now) {
+        if (peer.pendingBytes + buffer.remaining() > MAX_PENDING_BYTES) {
+            log.warn("PeerReplicator - peer {} is too slow, {} bytes pending, reconnect to resync", peer, peer.pendingBytes);
+            closePeer(peer, now);
+            return;
+        }
+        peer.pending.add(buffer);
+        peer.pendingBytes += buffer.remaining();
+    }
+
+    /**
+     * 把积压的数据写给对端，积压写完后继续生成全量同步的数据块；写不完时关注OP_WRITE，等可写时继续
+     */
+    private void flush(Peer peer, long now) {
+        try {
+            int resyncChunks = 0;
+            while (true) {
+                if (peer.pending.isEmpty()) {
+                    if (resyncChunks >= RESYNC_CHUNKS_PER_FLUSH || !nextResyncChunk(peer, now)) {
+                        break;
+                    }
+                    resyncChunks++;
+                }
+                ByteBuffer head = peer.pending.peek();
+                peer.pendingBytes -= peer.channel.write(head);
+                if (head.hasRemaining()) {
+                    break;
+                }
+                peer.pending.poll();
+            }
+            if (!peer.connected) {
+                return;
+            }
+            boolean more = !peer.pending.isEmpty() || peer.resyncEntries != null;
+            peer.channel.keyFor(selector).interestOps(more ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        } catch (IOException e) {
+            log.warn("PeerReplicator - peer {} disconnected：{}", peer, e.getMessage());
+            closePeer(peer, now);
+        }
+    }
+
+    /**
+     * 生成下一块全量同步数据：先发墓碑，再发未过期的条目
+     *
+     * @return true生成了数据块，false全量同步已完成
+     */
+    private boolean nextResyncChunk(Peer peer, long now) {
+        if (peer.resyncEntries == null) {
+            return false;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RESYNC_CHUNK_SIZE + 1024);
+        long clock = AuthClockHolder.currentTimeMillis();
+        while (bytes.size() < RESYNC_CHUNK_SIZE) {
+            if (peer.resyncTombstones != null && peer.resyncTombstones.hasNext()) {
+                Map.Entry<String, Long> tombstone = peer.resyncTombstones.next();
+                writeFrame(bytes, tombstone.getValue(), SessionRecordCodec.encodeDelete(tombstone.getKey()));
+                continue;
+            }
+            peer.resyncTombstones = null;
+            if (!peer.resyncEntries.hasNext()) {
+                log.info("PeerReplicator - peer {} resync finished, {} entries", peer, peer.resyncCount);
+                peer.resyncEntries = null;
+                break;
+            }
+            CacheEntry entry = peer.resyncEntries.next();
+            if (!entry.isExpired(clock) && SessionRecordCodec.isSupported(entry.getValue())) {
+                writeFrame(bytes, 0L, SessionRecordCodec.encodePut(entry));
+                peer.resyncCount++;
+            }
+        }
+        if (bytes.size() == 0) {
+            return false;
+        }
+        addPending(peer, ByteBuffer.wrap(bytes.toByteArray()), now);
+        return peer.connected;
+    }
+
+    private static void writeFrame(ByteArrayOutputStream bytes, long time, byte[] record) {
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(8 + record.length);
+            out.writeLong(time);
+            out.write(record);
+        } catch (IOException e) {
+            // ByteArrayOutputStream不会抛出IOException
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ByteBuffer concat(List<byte[]> frames) {
+        int size = 0;
+        for (byte[] frame : frames) {
+            size += frame.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] frame : frames) {
+            buffer.put(frame);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    // ------------------------ 被动连接（接收） ------------------------ //
+
+    /**
+     * 接受连接并写出挑战，挑战在新连接的发送缓冲区中总能一次写完，写不完时直接断开
+     */
+    private void accept(SocketChannel channel, long now) throws IOException {
+        try {
+            channel.configureBlocking(false);
+            byte[] challenge = new byte[CHALLENGE_SIZE];
+            random.nextBytes(challenge);
+            ByteBuffer hello = ByteBuffer.allocate(4 + CHALLENGE_SIZE);
+            hello.putInt(HANDSHAKE_MAGIC).put(challenge).flip();
+            channel.write(hello);
+            if (hello.hasRemaining()) {
+                throw new IOException("handshake write incomplete");
+            }
+            channel.register(selector, SelectionKey.OP_READ, new Inbound(hmac(challenge), now));
+        } catch (IOException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    /**
+     * 断开超时仍未完成认证的被动连接
+     */
+    private void closeUnauthenticated(long now) {
+        for (SelectionKey key : selector.keys()) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Inbound && ((Inbound) attachment).expectedResponse != null
+                    && now - ((Inbound) attachment).acceptTime > HANDSHAKE_TIMEOUT) {
+                log.warn("PeerReplicator - inbound connection {} handshake timeout", remoteAddress(key.channel()));
+                closeQuietly(key.channel());
+            }
+        }
+    }
+
+    private void read(SelectionKey key, Inbound inbound) throws IOException {
+        SocketChannel channel = (SocketChannel) key.channel();
+        if (channel.read(inbound.buffer) < 0) {
+            closeQuietly(channel);
+            return;
+        }
+        ByteBuffer buffer = inbound.buffer;
+        buffer.flip();
+        if (inbound.expectedResponse != null) {
+            if (buffer.remaining() < RESPONSE_SIZE) {
+                buffer.compact();
+                return;
+            }
+            byte[] response = new byte[RESPONSE_SIZE];
+            buffer.get(response);
+            if (!MessageDigest.isEqual(response, inbound.expectedResponse)) {
+                // 认证失败，不解析后续的任何数据
+                log.warn("PeerReplicator - inbound connection {} authentication failed", remoteAddress(channel));
+                closeQuietly(channel);
+                return;
+            }
+            inbound.expectedResponse = null;
+        }
+        while (buffer.remaining() >= 4) {
+            int length = buffer.getInt(buffer.position());
+            if (length <= 8 || length > MAX_FRAME_SIZE) {
+                throw new IOException("Invalid replication frame length: " + length);
+            }
+            if (buffer.remaining() < 4 + length) {
+                break;
+            }
+            buffer.getInt();
+            long time = buffer.getLong();
+            int recordLength = length - 8;
+            apply(time, buffer.array(), buffer.arrayOffset() + buffer.position(), recordLength);
+            buffer.position(buffer.position() + recordLength);
+        }
+        buffer.compact();
+        // 缓冲区装不下一个完整的帧时扩容
+        if (!buffer.hasRemaining()) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.min(buffer.capacity() * 2, MAX_FRAME_SIZE + 4));
+            buffer.flip();
+            larger.put(buffer);
+            inbound.buffer = larger;
+        }
+    }
+
+    private void apply(long time, byte[] array, int offset, int length) {
+        try {
+            SessionRecordCodec.decode(array, offset, length, entry -> {
+                Long deleteTime = tombstones.get(entry.getKey());
+                if (deleteTime != null) {
+                    if (time <= deleteTime) {
+                        return;
+                    }
+                    tombstones.remove(entry.getKey(), deleteTime);
+                }
+                store.applyPut(entry, time == 0L);
+            }, key -> {
+                tombstones.merge(key, time, Math::max);
+                store.applyDelete(key);
+            });
+        } catch (Exception e) {
+            log.error("PeerReplicator - apply - failed，Exception：{e}", e);
+        }
+    }
+
+    /**
+     * 以共享密钥计算挑战的应答
+     */
+    private byte[] hmac(byte[] challenge) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(secretKey);
+            return mac.doFinal(challenge);
+        } catch (GeneralSecurityException e) {
+            // HmacSHA256是JDK必须提供的算法
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String remoteAddress(SelectableChannel channel) {
+        try {
+            return String.valueOf(((SocketChannel) channel).getRemoteAddress());
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+
+    // ------------------------ 关闭 ------------------------ //
+
+    /**
+     * 停止IO线程，关闭全部连接
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            ioThread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // 关闭失败时无需处理
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package org.tinycloud.security.provider.single;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tinycloud.security.util.clock.AuthClockHolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * <p>
+ * 单机内存存储的持久化：追加写日志 + 内存映射快照
+ * </p>
+ * 所有变更以记录的形式追加到日志文件（journal-序号.log），由后台线程批量写入并按fsyncInterval统一刷盘（group commit），
+ * 崩溃时最多丢失一个刷盘间隔内的变更。每隔snapshotInterval，独立的快照线程先切换到新的日志文件，再通过MappedByteBuffer
+ * 把当前全部未过期会话写入快照临时文件，刷盘后原子替换snapshot.dat，并删除快照已经覆盖的旧日志；写快照期间日志照常写入。
+ * 写入队列满时不阻塞业务线程，记录被丢弃并计数；日志写入失败时截掉写了一半的批次。两种情况都会尽快补写一次快照，
+ * 以内存中的当前状态覆盖丢失的记录。
+ * 启动时先加载快照，再按序号重放快照之后的日志；每条记录带有长度和CRC32校验，遇到写了一半的记录即停止重放。
+ * 只持久化LoginSubject和String类型的值，其他类型的对象不会写入日志。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-11 15:02
+ */
+public class SessionJournal {
+    final static Logger log = LoggerFactory.getLogger(SessionJournal.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x54534E50;
+
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /**
+     * 快照头：magic(4) + version(4) + 快照之后第一个日志的序号(8) + 记录数(8)
+     */
+    private static final int SNAPSHOT_HEADER_SIZE = 24;
+
+    /**
+     * 写快照时每次映射的文件区域大小
+     */
+    private static final int SNAPSHOT_CHUNK_SIZE = 64 * 1024 * 1024;
+
+    private static final String SNAPSHOT_FILE = "snapshot.dat";
+
+    private static final String SNAPSHOT_TEMP_FILE = "snapshot.tmp";
+
+    private static final String LOG_PREFIX = "journal-";
+
+    private static final String LOG_SUFFIX = ".log";
+
+    private final Path dir;
+
+    private final long fsyncInterval;
+
+    private final long snapshotInterval;
+
+    /**
+     * 提供当前全部条目，用于写快照
+     */
+    private final Supplier<Iterator<CacheEntry>> snapshotSource;
+
+    /**
+     * 待写入日志的记录，容量有限，写满时丢弃新记录并请求快照
+     */
+    private final BlockingQueue<byte[]> queue = new LinkedBlockingQueue<>(65536);
+
+    /**
+     * 保护logChannel和logSeq：写入线程写日志、快照线程切换日志时持有
+     */
+    private final Object logLock = new Object();
+
+    /**
+     * 快照线程等待的信号
+     */
+    private final Object snapshotSignal = new Object();
+
+    private final LongAdder droppedCount = new LongAdder();
+
+    private FileChannel logChannel;
+
+    private long logSeq;
+
+    private volatile boolean running;
+
+    /**
+     * 有记录丢失（队列满或写入失败），需要尽快写一次快照
+     */
+    private volatile boolean snapshotRequested;
+
+    private Thread writerThread;
+
+    private Thread snapshotThread;
+
+    /**
+     * @param dir              持久化目录
+     * @param fsyncInterval    日志刷盘间隔 (单位: 毫秒)
+     * @param snapshotInterval 快照间隔 (单位: 毫秒)
+     * @param snapshotSource   提供当前全部条目，用于写快照
+     */
+    public SessionJournal(String dir, long fsyncInterval, long snapshotInterval, Supplier<Iterator<CacheEntry>> snapshotSource) {
+        this.dir = Paths.get(dir);
+        this.fsyncInterval = fsyncInterval;
+        this.snapshotInterval = snapshotInterval;
+        this.snapshotSource = snapshotSource;
+    }
+
+    // ------------------------ 恢复 ------------------------ //
+
+    /**
+     * 加载快照并重放日志，恢复出的条目交给putHandler，被删除的key交给deleteHandler
+     *
+     * @param putHandler    处理恢复出的条目
+     * @param deleteHandler 处理被删除的key
+     * @return 恢复的记录数
+     */
+    public long recover(Consumer<CacheEntry> putHandler, Consumer<String> deleteHandler) throws IOException {
+        Files.createDirectories(dir);
+        long count = 0;
+        long firstLogSeq = 0;
+        Path snapshot = dir.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.getInt() != SNAPSHOT_MAGIC || buffer.getInt() != SNAPSHOT_VERSION) {
+                    throw new IOException("Invalid snapshot file: " + snapshot);
+                }
+                firstLogSeq = buffer.getLong();
+                long total = buffer.getLong();
+                for (long i = 0; i < total; i++) {
+                    count += apply(readRecord(buffer), putHandler, deleteHandler);
+                }
+            }
+        }
+        long lastSeq = firstLogSeq - 1;
+        for (long seq : listLogSeqs()) {
+            if (seq < firstLogSeq) {
+                Files.deleteIfExists(logPath(seq));
+                continue;
+            }
+            byte[] content = Files.readAllBytes(logPath(seq));
+            ByteBuffer buffer = ByteBuffer.wrap(content);
+            while (buffer.hasRemaining()) {
+                byte[] record = readRecord(buffer);
+                if (record == null) {
+                    log.warn("SessionJournal - recover - truncated record in {}, the rest is ignored", logPath(seq));
+                    break;
+                }
+                count += apply(record, putHandler, deleteHandler);
+            }
+            lastSeq = seq;
+        }
+        this.logSeq = lastSeq + 1;
+        return count;
+    }
+
+    private long apply(byte[] record, Consumer<CacheEntry> putHandler, Consumer<String> deleteHandler) throws IOException {
+        if (record == null) {
+            return 0;
+        }
+        SessionRecordCodec.decode(record, 0, record.length, putHandler, deleteHandler);
+        return 1;
+    }
+
+    // ------------------------ 写入 ------------------------ //
+
+    /**
+     * 启动后台写入线程，需在recover之后调用
+     */
+    public void start() throws IOException {
+        Files.createDirectories(dir);
+        this.logChannel = FileChannel.open(logPath(logSeq), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.running = true;
+        this.writerThread = new Thread(this::writeLoop, "tiny-security-journal");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+        this.snapshotThread = new Thread(this::snapshotLoop, "tiny-security-journal-snapshot");
+        this.snapshotThread.setDaemon(true);
+        this.snapshotThread.start();
+    }
+
+    /**
+     * 因队列满或写入失败而丢失的日志记录数
+     *
+     * @return 记录数
+     */
+    public long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    /**
+     * 追加一条写入记录，值的类型不支持持久化时忽略
+     *
+     * @param entry 条目
+     */
+    public void appendPut(CacheEntry entry) {
+        if (!SessionRecordCodec.isSupported(entry.getValue())) {
+            return;
+        }
+        enqueue(SessionRecordCodec.encodePut(entry));
+    }
+
+    /**
+     * 追加一条删除记录
+     *
+     * @param key 键
+     */
+    public void appendDelete(String key) {
+        enqueue(SessionRecordCodec.encodeDelete(key));
+    }
+
+    /**
+     * 记录入队，队列满时不阻塞调用方：丢弃记录并请求快照，由快照补上丢失的变更
+     */
+    private void enqueue(byte[] record) {
+        if (!running) {
+            return;
+        }
+        if (!queue.offer(record)) {
+            droppedCount.increment();
+            requestSnapshot();
+        }
+    }
+
+    private void requestSnapshot() {
+        if (snapshotRequested) {
+            return;
+        }
+        snapshotRequested = true;
+        synchronized (snapshotSignal) {
+            snapshotSignal.notifyAll();
+        }
+    }
+
+    private void writeLoop() {
+        long lastSync = System.currentTimeMillis();
+        List<byte[]> batch = new ArrayList<>(1024);
+        while (running || !queue.isEmpty()) {
+            try {
+                byte[] first = queue.poll(Math.max(1L, fsyncInterval), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, 8191);
+                    try {
+                        writeBatch(batch);
+                    } finally {
+                        batch.clear();
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastSync >= fsyncInterval) {
+                    synchronized (logLock) {
+                        logChannel.force(false);
+                    }
+                    lastSync = now;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("SessionJournal - writeLoop - Exception：{e}", e);
+            }
+        }
+    }
+
+    /**
+     * 写入一批记录；失败时截掉已写入的部分，避免半条记录让重放提前停止，丢失的记录由快照补上
+     */
+    private void writeBatch(List<byte[]> batch) throws IOException {
+        int size = 0;
+        for (byte[] record : batch) {
+            size += record.length + 8;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] record : batch) {
+            writeRecord(buffer, record);
+        }
+        buffer.flip();
+        synchronized (logLock) {
+            long position = logChannel.position();
+            try {
+                while (buffer.hasRemaining()) {
+                    logChannel.write(buffer);
+                }
+            } catch (IOException e) {
+                droppedCount.add(batch.size());
+                requestSnapshot();
+                try {
+                    logChannel.truncate(position);
+                } catch (IOException te) {
+                    log.error("SessionJournal - writeBatch - truncate failed，Exception：{e}", te);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * 快照线程：每隔snapshotInterval（未开启定时快照时只在有记录丢失时）写一次快照，不占用日志写入线程
+     */
+    private void snapshotLoop() {
+        long lastSnapshot = System.currentTimeMillis();
+        while (running) {
+            try {
+                long wait = snapshotInterval > 0 ? snapshotInterval - (System.currentTimeMillis() - lastSnapshot) : 0L;
+                if (!snapshotRequested && (snapshotInterval <= 0 || wait > 0)) {
+                    synchronized (snapshotSignal) {
+                        if (!snapshotRequested && running) {
+                            snapshotSignal.wait(wait);
+                        }
+                    }
+                    continue;
+                }
+                boolean requested = snapshotRequested;
+                snapshotRequested = false;
+                if (requested) {
+                    log.warn("SessionJournal - snapshot - {} journal records dropped so far, writing a snapshot to cover them", droppedCount.sum());
+                }
+                try {
+                    snapshot();
+                } catch (IOException e) {
+                    snapshotRequested = snapshotRequested || requested;
+                    log.error("SessionJournal - snapshot - failed，Exception：{e}", e);
+                    // 失败后稍等再重试，避免磁盘故障时空转
+                    Thread.sleep(Math.max(1000L, fsyncInterval));
+                }
+                lastSnapshot = System.currentTimeMillis();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 写快照：先切换日志，再把全部条目写入临时文件，刷盘后原子替换，最后删除快照已覆盖的旧日志
+     */
+    private void snapshot() throws IOException {
+        long start = System.currentTimeMillis();
+        long nextSeq;
+        synchronized (logLock) {
+            logChannel.force(false);
+            logChannel.close();
+            nextSeq = ++logSeq;
+            logChannel = FileChannel.open(logPath(nextSeq), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        Path temp = dir.resolve(SNAPSHOT_TEMP_FILE);
+        long count = 0;
+        long position;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            position = SNAPSHOT_HEADER_SIZE;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, SNAPSHOT_CHUNK_SIZE);
+            long now = AuthClockHolder.currentTimeMillis();
+            Iterator<CacheEntry> iterator = snapshotSource.get();
+            while (iterator.hasNext()) {
+                CacheEntry entry = iterator.next();
+                if (entry.isExpired(now) || !SessionRecordCodec.isSupported(entry.getValue())) {
+                    continue;
+                }
+                byte[] record = SessionRecordCodec.encodePut(entry);
+                if (buffer.remaining() < record.length + 8) {
+                    position += buffer.position();
+                    buffer.force();
+                    buffer = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(SNAPSHOT_CHUNK_SIZE, record.length + 8));
+                }
+                writeRecord(buffer, record);
+                count++;
+            }
+            position += buffer.position();
+            buffer.force();
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, SNAPSHOT_HEADER_SIZE);
+            header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION).putLong(nextSeq).putLong(count);
+            header.force();
+            channel.truncate(position);
+            channel.force(true);
+        }
+        Files.move(temp, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (long seq : listLogSeqs()) {
+            if (seq < nextSeq) {
+                Files.deleteIfExists(logPath(seq));
+            }
+        }
+        log.info("SessionJournal - snapshot - {} sessions, {} bytes, cost {} ms", count, position, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * 停止写入线程，写完剩余记录并刷盘
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        synchronized (snapshotSignal) {
+            snapshotSignal.notifyAll();
+        }
+        try {
+            writerThread.join(10000);
+            snapshotThread.join(10000);
+            synchronized (logLock) {
+                logChannel.force(false);
+                logChannel.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.error("SessionJournal - close - failed，Exception：{e}", e);
+        }
+    }
+
+    // ------------------------ 记录读写 ------------------------ //
+
+    /**
+     * 记录格式：长度(4) + 内容 + CRC32(4)
+     */
+    private static void writeRecord(ByteBuffer buffer, byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        buffer.putInt(record.length);
+        buffer.put(record);
+        buffer.putInt((int) crc.getValue());
+    }
+
+    /**
+     * 读取一条记录，长度或校验不正确（写了一半）时返回null
+     */
+    private static byte[] readRecord(ByteBuffer buffer) {
+        if (buffer.remaining() < 8) {
+            return null;
+        }
+        int length = buffer.getInt();
+        if (length <= 0 || buffer.remaining() < length + 4) {
+            return null;
+        }
+        byte[] record = new byte[length];
+        buffer.get(record);
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        if (buffer.getInt() != (int) crc.getValue()) {
+            return null;
+        }
+        return record;
+    }
+
+    private Path logPath(long seq) {
+        return dir.resolve(LOG_PREFIX + seq + LOG_SUFFIX);
+    }
+
+    private List<Long> listLogSeqs() throws IOException {
+        List<Long> seqs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, LOG_PREFIX + "*" + LOG_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    seqs.add(Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length())));
+                } catch (NumberFormatException ignored) {
+                    // 非本组件生成的文件，跳过
+                }
+            }
+        }
+        Collections.sort(seqs);
+        return seqs;
+    }
+}
@@ -0,0 +1,159 @@
+package org.tinycloud.security.provider.single;
+
+import org.tinycloud.security.provider.LoginSubject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * 单机内存存储的变更记录编解码，持久化日志与节点间复制共用同一种格式
+ * </p>
+ * 写入记录：op(1) + key + 到期时间(8) + loginId + 值；删除记录：op(1) + key。
+ * 只支持LoginSubject和String类型的值，loginId按Long、Integer、String区分类型写入，恢复后类型不变。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-16 11:05
+ */
+final class SessionRecordCodec {
+
+    private static final byte OP_PUT = 1;
+
+    private static final byte OP_DELETE = 2;
+
+    private static final byte VALUE_SUBJECT = 1;
+
+    private static final byte VALUE_STRING = 2;
+
+    private static final byte ID_LONG = 1;
+
+    private static final byte ID_INT = 2;
+
+    private static final byte ID_STRING = 3;
+
+    private SessionRecordCodec() {
+    }
+
+    /**
+     * 判断值的类型是否支持编码
+     *
+     * @param value 值
+     * @return true支持，false不支持
+     */
+    static boolean isSupported(Object value) {
+        return value instanceof LoginSubject || value instanceof String;
+    }
+
+    /**
+     * 编码一条写入记录，调用前需用isSupported判断值的类型
+     *
+     * @param entry 条目
+     * @return 记录
+     */
+    static byte[] encodePut(CacheEntry entry) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(OP_PUT);
+            out.writeUTF(entry.getKey());
+            out.writeLong(entry.getExpireTime());
+            out.writeBoolean(entry.getLoginId() != null);
+            if (entry.getLoginId() != null) {
+                out.writeUTF(entry.getLoginId());
+            }
+            Object value = entry.getValue();
+            if (value instanceof LoginSubject) {
+                LoginSubject subject = (LoginSubject) value;
+                out.writeByte(VALUE_SUBJECT);
+                Object loginId = subject.getLoginId();
+                if (loginId instanceof Long) {
+                    out.writeByte(ID_LONG);
+                    out.writeLong((Long) loginId);
+                } else if (loginId instanceof Integer) {
+                    out.writeByte(ID_INT);
+                    out.writeInt((Integer) loginId);
+                } else {
+                    out.writeByte(ID_STRING);
+                    out.writeUTF(String.valueOf(loginId));
+                }
+                out.writeBoolean(subject.getLoginTime() != null);
+                if (subject.getLoginTime() != null) {
+                    out.writeLong(subject.getLoginTime());
+                }
+                out.writeBoolean(subject.getLoginExpireTime() != null);
+                if (subject.getLoginExpireTime() != null) {
+                    out.writeLong(subject.getLoginExpireTime());
+                }
+            } else {
+                out.writeByte(VALUE_STRING);
+                out.writeUTF((String) value);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // ByteArrayOutputStream不会抛出IOException
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 编码一条删除记录
+     *
+     * @param key 键
+     * @return 记录
+     */
+    static byte[] encodeDelete(String key) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(key.length() + 8);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(OP_DELETE);
+            out.writeUTF(key);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 解码一条记录，写入记录交给putHandler，删除记录交给deleteHandler
+     *
+     * @param record        记录所在的数组
+     * @param offset        记录的起始位置
+     * @param length        记录的长度
+     * @param putHandler    处理写入记录
+     * @param deleteHandler 处理删除记录
+     */
+    static void decode(byte[] record, int offset, int length, Consumer<CacheEntry> putHandler, Consumer<String> deleteHandler) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record, offset, length));
+        byte op = in.readByte();
+        String key = in.readUTF();
+        if (op == OP_DELETE) {
+            deleteHandler.accept(key);
+            return;
+        }
+        long expireTime = in.readLong();
+        String loginId = in.readBoolean() ? in.readUTF() : null;
+        Object value;
+        byte valueType = in.readByte();
+        if (valueType == VALUE_SUBJECT) {
+            LoginSubject subject = new LoginSubject();
+            byte idType = in.readByte();
+            if (idType == ID_LONG) {
+                subject.setLoginId(in.readLong());
+            } else if (idType == ID_INT) {
+                subject.setLoginId(in.readInt());
+            } else {
+                subject.setLoginId(in.readUTF());
+            }
+            subject.setLoginTime(in.readBoolean() ? in.readLong() : null);
+            subject.setLoginExpireTime(in.readBoolean() ? in.readLong() : null);
+            value = subject;
+        } else {
+            value = in.readUTF();
+        }
+        putHandler.accept(new CacheEntry(key, value, expireTime, loginId));
+    }
+}
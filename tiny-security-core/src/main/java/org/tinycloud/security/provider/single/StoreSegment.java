@@ -0,0 +1,90 @@
+package org.tinycloud.security.provider.single;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * 单机内存存储的一个分段
+ * </p>
+ * 每个分段有独立的Map和过期时间轮，推进时间轮的写锁只影响本段的写入，多个分段可以由不同的清理线程并行推进。
+ * 写入时如果本段已到推进时间，会顺带尝试推进一次（拿不到锁则跳过），清理线程跟不上时过期条目也能被及时摊还清理。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-14 09:40
+ */
+public class StoreSegment {
+
+    /**
+     * 本段的数据
+     */
+    private final Map<String, CacheEntry> map = new ConcurrentHashMap<>();
+
+    /**
+     * 本段的过期时间轮
+     */
+    private final TimingWheel timingWheel;
+
+    /**
+     * 时间轮每个槽的时长 (单位: 毫秒)
+     */
+    private final long tickMs;
+
+    /**
+     * 下一次需要推进时间轮的时间 (单位: 毫秒)
+     */
+    private volatile long nextAdvanceTime;
+
+    /**
+     * 构造分段
+     *
+     * @param tickMs        时间轮每个槽的时长 (单位: 毫秒)
+     * @param wheelSize     时间轮每一层的槽数
+     * @param startMs       起始时间 (单位: 毫秒)
+     * @param expireHandler 条目到期后的处理器
+     */
+    public StoreSegment(long tickMs, int wheelSize, long startMs, Consumer<TimingWheel.Node> expireHandler) {
+        this.tickMs = tickMs;
+        this.timingWheel = new TimingWheel(tickMs, wheelSize, startMs, expireHandler);
+        this.nextAdvanceTime = startMs - (startMs % tickMs) + tickMs;
+    }
+
+    public Map<String, CacheEntry> getMap() {
+        return map;
+    }
+
+    public TimingWheel getTimingWheel() {
+        return timingWheel;
+    }
+
+    /**
+     * 推进本段的时间轮
+     *
+     * @param now 当前时间 (单位: 毫秒)
+     * @return 到期的条目数
+     */
+    public int advance(long now) {
+        int num = timingWheel.advance(now);
+        nextAdvanceTime = now - (now % tickMs) + tickMs;
+        return num;
+    }
+
+    /**
+     * 已到推进时间且没有其他线程正在推进时，推进本段的时间轮
+     *
+     * @param now 当前时间 (单位: 毫秒)
+     * @return 到期的条目数
+     */
+    public int advanceIfDue(long now) {
+        if (now < nextAdvanceTime) {
+            return 0;
+        }
+        int num = timingWheel.tryAdvance(now);
+        if (num < 0) {
+            return 0;
+        }
+        nextAdvanceTime = now - (now % tickMs) + tickMs;
+        return num;
+    }
+}
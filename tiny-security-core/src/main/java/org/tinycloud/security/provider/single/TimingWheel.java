@@ -0,0 +1,275 @@
+package org.tinycloud.security.provider.single;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ * 分层时间轮，用于单机内存存储的过期清理
+ * </p>
+ * 每一层由wheelSize个槽组成，每个槽覆盖tickMs毫秒，超出本层范围的节点放入上一层（上一层的tickMs为本层的一圈时长）。
+ * 推进时间轮时只处理到期的槽，所以清理N个过期节点的开销是O(N过期)，与存活节点的总数无关。
+ * 节点是侵入式的双向链表节点，取消（删除、续期）时可以O(1)地从所在槽中摘除。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-09 14:20
+ */
+public class TimingWheel {
+
+    /**
+     * 时间轮节点，由存储条目继承
+     */
+    public abstract static class Node {
+
+        volatile Bucket bucket;
+
+        Node prev;
+
+        Node next;
+
+        /**
+         * 获取节点的到期时间 (单位: 毫秒)
+         *
+         * @return 到期时间
+         */
+        public abstract long getExpireTime();
+    }
+
+    /**
+     * 时间轮的槽，一个带哨兵的双向链表
+     */
+    static final class Bucket {
+
+        private final Node root = new Node() {
+            @Override
+            public long getExpireTime() {
+                return -1L;
+            }
+        };
+
+        Bucket() {
+            root.prev = root;
+            root.next = root;
+        }
+
+        synchronized void add(Node node) {
+            Node tail = root.prev;
+            node.next = root;
+            node.prev = tail;
+            tail.next = node;
+            root.prev = node;
+            node.bucket = this;
+        }
+
+        synchronized boolean remove(Node node) {
+            if (node.bucket != this) {
+                return false;
+            }
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            node.bucket = null;
+            return true;
+        }
+
+        /**
+         * 摘下槽内全部节点
+         */
+        synchronized void flush(List<Node> out) {
+            Node node = root.next;
+            while (node != root) {
+                Node next = node.next;
+                node.prev = null;
+                node.next = null;
+                node.bucket = null;
+                out.add(node);
+                node = next;
+            }
+            root.prev = root;
+            root.next = root;
+        }
+    }
+
+    /**
+     * 时间轮的一层
+     */
+    private final class Level {
+
+        private final long tickMs;
+
+        private final long interval;
+
+        private final Bucket[] buckets;
+
+        /**
+         * 本层当前所在槽的起始时间，tickMs的整数倍
+         */
+        private long currentTime;
+
+        private volatile Level overflow;
+
+        Level(long tickMs, long startMs) {
+            this.tickMs = tickMs;
+            this.interval = tickMs * wheelSize;
+            this.buckets = new Bucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                buckets[i] = new Bucket();
+            }
+            this.currentTime = startMs - (startMs % tickMs);
+        }
+
+        boolean add(Node node) {
+            long expireTime = node.getExpireTime();
+            if (expireTime < currentTime) {
+                return false;
+            }
+            if (expireTime < currentTime + interval) {
+                long virtualId = expireTime / tickMs;
+                buckets[(int) (virtualId % wheelSize)].add(node);
+                return true;
+            }
+            return overflow().add(node);
+        }
+
+        private Level overflow() {
+            if (overflow == null) {
+                synchronized (this) {
+                    if (overflow == null) {
+                        overflow = new Level(interval, currentTime);
+                    }
+                }
+            }
+            return overflow;
+        }
+    }
+
+    private final int wheelSize;
+
+    private final Level root;
+
+    /**
+     * 节点到期后的处理器
+     */
+    private final Consumer<Node> expireHandler;
+
+    /**
+     * 添加节点持有读锁，推进时间持有写锁，保证节点不会落到正在推进的槽里
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * 构造时间轮
+     *
+     * @param tickMs        每个槽覆盖的时长 (单位: 毫秒)
+     * @param wheelSize     每一层的槽数
+     * @param startMs       起始时间 (单位: 毫秒)
+     * @param expireHandler 节点到期后的处理器
+     */
+    public TimingWheel(long tickMs, int wheelSize, long startMs, Consumer<Node> expireHandler) {
+        if (tickMs <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("The tickMs and wheelSize of TimingWheel must be positive!");
+        }
+        this.wheelSize = wheelSize;
+        this.expireHandler = expireHandler;
+        this.root = new Level(tickMs, startMs);
+    }
+
+    /**
+     * 添加节点
+     *
+     * @param node 节点
+     * @return true添加成功，false节点已经到期（未添加，由调用方自行处理）
+     */
+    public boolean add(Node node) {
+        lock.readLock().lock();
+        try {
+            return root.add(node);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 取消节点，节点不在时间轮中时什么也不做
+     *
+     * @param node 节点
+     */
+    public void cancel(Node node) {
+        Bucket bucket;
+        while ((bucket = node.bucket) != null) {
+            if (bucket.remove(node)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 推进时间轮到指定时间，并处理所有到期的节点
+     *
+     * @param now 当前时间 (单位: 毫秒)
+     * @return 到期的节点数
+     */
+    public int advance(long now) {
+        lock.writeLock().lock();
+        return doAdvance(now);
+    }
+
+    /**
+     * 尝试推进时间轮，其他线程正在推进时立即返回，不等待
+     *
+     * @param now 当前时间 (单位: 毫秒)
+     * @return 到期的节点数，未获取到锁时返回-1
+     */
+    public int tryAdvance(long now) {
+        if (!lock.writeLock().tryLock()) {
+            return -1;
+        }
+        return doAdvance(now);
+    }
+
+    /**
+     * 推进时间轮，调用前必须已持有写锁，方法内释放
+     */
+    private int doAdvance(long now) {
+        List<Node> expired = new ArrayList<>();
+        try {
+            List<Node> flushed = new ArrayList<>();
+            // 最底层：槽的时间窗口完全过去后，槽内节点全部到期
+            long target = now - (now % root.tickMs);
+            // 时钟跳跃超过一圈时（如手动时钟、系统时间被调整），每个槽只需处理一次
+            if (target - root.currentTime > root.interval) {
+                root.currentTime = target - root.interval;
+            }
+            while (root.currentTime < target) {
+                root.buckets[(int) ((root.currentTime / root.tickMs) % wheelSize)].flush(expired);
+                root.currentTime += root.tickMs;
+            }
+            // 上层：槽的时间窗口开始时，把槽内节点降级到下层
+            for (Level level = root.overflow; level != null; level = level.overflow) {
+                long levelTarget = now - (now % level.tickMs);
+                if (levelTarget - level.currentTime > level.interval) {
+                    level.currentTime = levelTarget - level.interval;
+                }
+                while (level.currentTime < levelTarget) {
+                    level.currentTime += level.tickMs;
+                    level.buckets[(int) ((level.currentTime / level.tickMs) % wheelSize)].flush(flushed);
+                }
+                for (Node node : flushed) {
+                    if (!root.add(node)) {
+                        expired.add(node);
+                    }
+                }
+                flushed.clear();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (Node node : expired) {
+            expireHandler.accept(node);
+        }
+        return expired.size();
+    }
+}
@@ -0,0 +1,144 @@
+package org.tinycloud.security.provider.single;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>
+ * W-TinyLFU淘汰策略
+ * </p>
+ * 新写入的key先进入一个小的LRU窗口（容量的1%），窗口满后，窗口中最久未访问的key作为候选者，
+ * 与主区（SLRU：试用区 + 保护区）最久未访问的key比较访问频率，频率低的一方被淘汰。
+ * 登录风暴中只登录不再访问的会话会在窗口中被淘汰，不会把正在活跃的会话挤出去。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-10 10:40
+ */
+public class WTinyLfuEvictionPolicy implements EvictionPolicy {
+
+    private final LinkedHashMap<String, Boolean> window = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<String, Boolean> probation = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LinkedHashMap<String, Boolean> protect = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final int windowMaximum;
+
+    private final int mainMaximum;
+
+    private final int protectMaximum;
+
+    private final FrequencySketch sketch;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * @param maximumSize 存储的容量上限
+     */
+    public WTinyLfuEvictionPolicy(int maximumSize) {
+        this.windowMaximum = Math.max(1, maximumSize / 100);
+        this.mainMaximum = Math.max(0, maximumSize - windowMaximum);
+        this.protectMaximum = (int) (mainMaximum * 0.8);
+        this.sketch = new FrequencySketch(maximumSize);
+    }
+
+    @Override
+    public void onInsert(String key) {
+        lock.lock();
+        try {
+            sketch.increment(key);
+            window.put(key, Boolean.TRUE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onAccess(String key) {
+        // 竞争激烈时直接丢弃本次访问记录，不阻塞读请求
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            sketch.increment(key);
+            if (window.get(key) != null || protect.get(key) != null) {
+                return;
+            }
+            // 试用区的key再次被访问，晋升到保护区，保护区超出上限时把最久未访问的降级回试用区
+            if (probation.remove(key) != null) {
+                protect.put(key, Boolean.TRUE);
+                if (protect.size() > protectMaximum) {
+                    String demoted = removeEldest(protect);
+                    probation.put(demoted, Boolean.TRUE);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onRemove(String key) {
+        lock.lock();
+        try {
+            if (window.remove(key) == null && probation.remove(key) == null) {
+                protect.remove(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String evict() {
+        lock.lock();
+        try {
+            while (window.size() > windowMaximum) {
+                String candidate = removeEldest(window);
+                // 主区还有空间时，候选者直接进入试用区
+                if (probation.size() + protect.size() < mainMaximum) {
+                    probation.put(candidate, Boolean.TRUE);
+                    continue;
+                }
+                String victim = eldest(probation.isEmpty() ? protect : probation);
+                if (victim == null) {
+                    return candidate;
+                }
+                // 候选者访问频率更高时，淘汰主区的key并让候选者进入试用区，否则淘汰候选者
+                if (sketch.frequency(candidate) > sketch.frequency(victim)) {
+                    if (probation.remove(victim) == null) {
+                        protect.remove(victim);
+                    }
+                    probation.put(candidate, Boolean.TRUE);
+                    return victim;
+                }
+                return candidate;
+            }
+            if (!probation.isEmpty()) {
+                return removeEldest(probation);
+            }
+            if (!protect.isEmpty()) {
+                return removeEldest(protect);
+            }
+            return removeEldest(window);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static String eldest(LinkedHashMap<String, Boolean> map) {
+        Iterator<String> iterator = map.keySet().iterator();
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    private static String removeEldest(LinkedHashMap<String, Boolean> map) {
+        Iterator<String> iterator = map.keySet().iterator();
+        if (!iterator.hasNext()) {
+            return null;
+        }
+        String key = iterator.next();
+        iterator.remove();
+        return key;
+    }
+}
@@ -0,0 +1,64 @@
+package org.tinycloud.security.util;
+
+import org.springframework.http.HttpCookie;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.util.StringUtils;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.reactive.result.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Method;
+
+/**
+ * WebFlux下的认证工具类
+ *
+ * @author liuxingyu01
+ * @since 2024-10-18 10:20
+ **/
+public class ReactiveAuthUtil {
+
+    /**
+     * 缓存本次请求匹配到的Controller方法的exchange属性名，认证和权限两个过滤器共用，避免重复匹配
+     */
+    private static final String HANDLER_METHOD_ATTRIBUTE = ReactiveAuthUtil.class.getName() + ".handlerMethod";
+
+    /**
+     * 获取用户token，先从Header里取，取不到的话再从cookie里取，最后从请求参数里取
+     *
+     * @param request   ServerHttpRequest
+     * @param tokenName token名称
+     * @return token
+     */
+    public static String getToken(ServerHttpRequest request, String tokenName) {
+        String token = request.getHeaders().getFirst(tokenName);
+        if (!StringUtils.hasText(token)) {
+            HttpCookie cookie = request.getCookies().getFirst(tokenName);
+            token = cookie == null ? null : cookie.getValue();
+        }
+        if (!StringUtils.hasText(token)) {
+            token = request.getQueryParams().getFirst(tokenName);
+        }
+        return token;
+    }
+
+    /**
+     * 获取本次请求对应的Controller方法
+     *
+     * @param exchange       ServerWebExchange
+     * @param handlerMapping 注解Controller的HandlerMapping
+     * @return Controller方法，不是由注解Controller处理的请求（静态资源、函数式路由、404等）为空
+     */
+    public static Mono<Method> resolveHandlerMethod(ServerWebExchange exchange, RequestMappingHandlerMapping handlerMapping) {
+        Method cached = exchange.getAttribute(HANDLER_METHOD_ATTRIBUTE);
+        if (cached != null) {
+            return Mono.just(cached);
+        }
+        return handlerMapping.getHandler(exchange)
+                .filter(handler -> handler instanceof HandlerMethod)
+                .map(handler -> ((HandlerMethod) handler).getMethod())
+                .doOnNext(method -> exchange.getAttributes().put(HANDLER_METHOD_ATTRIBUTE, method))
+                // 匹配失败（如405、415）交由DispatcherHandler按原逻辑返回错误
+                .onErrorResume(e -> Mono.empty());
+    }
+}
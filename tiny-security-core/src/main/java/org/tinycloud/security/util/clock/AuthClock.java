@@ -0,0 +1,20 @@
+package org.tinycloud.security.util.clock;
+
+/**
+ * <p>
+ * 会话过期判断使用的时钟
+ * </p>
+ * 所有存储实现和拦截器都通过{@link AuthClockHolder}获取当前时间，可以替换为缓存时钟以减少系统调用，或在测试中替换为手动时钟。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-15 10:20
+ */
+public interface AuthClock {
+
+    /**
+     * 获取当前时间
+     *
+     * @return 当前时间 (单位: 毫秒)
+     */
+    long currentTimeMillis();
+}
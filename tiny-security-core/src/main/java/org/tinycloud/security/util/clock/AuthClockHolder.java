@@ -0,0 +1,41 @@
+package org.tinycloud.security.util.clock;
+
+/**
+ * <p>
+ * 全局时钟，默认为系统时钟
+ * </p>
+ *
+ * @author liuxingyu01
+ * @since 2024-10-15 10:20
+ */
+public class AuthClockHolder {
+
+    private static volatile AuthClock clock = SystemAuthClock.INSTANCE;
+
+    /**
+     * 获取当前使用的时钟
+     *
+     * @return 时钟
+     */
+    public static AuthClock getClock() {
+        return clock;
+    }
+
+    /**
+     * 替换全局时钟，传入null时恢复为系统时钟
+     *
+     * @param authClock 时钟
+     */
+    public static void setClock(AuthClock authClock) {
+        clock = authClock == null ? SystemAuthClock.INSTANCE : authClock;
+    }
+
+    /**
+     * 获取当前时间
+     *
+     * @return 当前时间 (单位: 毫秒)
+     */
+    public static long currentTimeMillis() {
+        return clock.currentTimeMillis();
+    }
+}
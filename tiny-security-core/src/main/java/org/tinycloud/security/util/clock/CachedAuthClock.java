@@ -0,0 +1,69 @@
+package org.tinycloud.security.util.clock;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ * 缓存时钟，由一个后台线程按固定精度更新当前时间，读取时只是一次volatile读
+ * </p>
+ * 会话过期以秒、分钟计，毫秒级的误差没有影响；读取的时间最多落后precisionMs毫秒，且不会回退。
+ *
+ * @author liuxingyu01
+ * @since 2024-10-15 10:20
+ */
+public class CachedAuthClock implements AuthClock, AutoCloseable {
+
+    /**
+     * 缓存的当前时间 (单位: 毫秒)
+     */
+    private volatile long now;
+
+    /**
+     * 更新时间的后台线程
+     */
+    private final Thread ticker;
+
+    /**
+     * 是否继续更新
+     */
+    private volatile boolean running = true;
+
+    /**
+     * 构造缓存时钟，并启动更新线程
+     *
+     * @param precisionMs 更新间隔，即时钟精度 (单位: 毫秒)
+     */
+    public CachedAuthClock(long precisionMs) {
+        if (precisionMs <= 0) {
+            throw new IllegalArgumentException("The precisionMs of CachedAuthClock must be positive!");
+        }
+        this.now = System.currentTimeMillis();
+        long precisionNanos = precisionMs * 1000_000L;
+        this.ticker = new Thread(() -> {
+            while (running) {
+                LockSupport.parkNanos(precisionNanos);
+                long current = System.currentTimeMillis();
+                // 系统时间被往回调时保持不变，避免会话的到期时间判断出现回退
+                if (current > this.now) {
+                    this.now = current;
+                }
+            }
+        }, "tiny-security-clock-ticker");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    /**
+     * 停止更新线程
+     */
+    @Override
+    public void close() {
+        this.running = false;
+        LockSupport.unpark(this.ticker);
+    }
+}
@@ -0,0 +1,48 @@
+package org.tinycloud.security.util.clock;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * 手动时钟，时间只在调用set、advance时变化，用于测试会话的过期与续期
+ * </p>
+ *
+ * @author liuxingyu01
+ * @since 2024-10-15 10:20
+ */
+public class ManualAuthClock implements AuthClock {
+
+    private final AtomicLong now;
+
+    public ManualAuthClock() {
+        this(System.currentTimeMillis());
+    }
+
+    public ManualAuthClock(long startMs) {
+        this.now = new AtomicLong(startMs);
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return now.get();
+    }
+
+    /**
+     * 设置当前时间
+     *
+     * @param millis 当前时间 (单位: 毫秒)
+     */
+    public void set(long millis) {
+        now.set(millis);
+    }
+
+    /**
+     * 把时间向后拨动
+     *
+     * @param millis 拨动的时长 (单位: 毫秒)
+     * @return 拨动后的时间 (单位: 毫秒)
+     */
+    public long advance(long millis) {
+        return now.addAndGet(millis);
+    }
+}
@@ -0,0 +1,19 @@
+package org.tinycloud.security.util.clock;
+
+/**
+ * <p>
+ * 系统时钟，每次都调用System.currentTimeMillis()，默认使用
+ * </p>
+ *
+ * @author liuxingyu01
+ * @since 2024-10-15 10:20
+ */
+public class SystemAuthClock implements AuthClock {
+
+    public static final SystemAuthClock INSTANCE = new SystemAuthClock();
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -117,6 +117,16 @@ public class Sha256Hash {
     }
 
 
+    /**
+     * 返回原始的摘要字节（32字节）
+     *
+     * @return 摘要字节数组
+     */
+    public byte[] toBytes() {
+        return this.Sha256Encode(this.source, this.salt, this.iterations);
+    }
+
+
     /**
      * 将将byte[]转为Base64字符串
      *